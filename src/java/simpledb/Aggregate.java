@@ -5,17 +5,17 @@ import java.util.*;
 import static simpledb.Aggregator.NO_GROUPING;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be computed
+ * in one pass over the child, grouped by any number of columns.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
-	private final int gField;
-	private final Aggregator.Op aop;
-	private final int aField;
-	private final OpIterator childIterator;
+	private final int[] gFields;
+	private final Aggregator.Op[] aops;
+	private final int[] aFields;
+	private OpIterator childIterator;
 	private OpIterator child;
 
 	/**
@@ -37,90 +37,178 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-    	this.child = child;
-    	this.gField = gfield;
-    	this.aField = afield;
-    	this.aop = aop;
-	    final Type fieldType = child.getTupleDesc().getFieldType(afield);
-	    Type groupType = child.getTupleDesc().getFieldType(gfield);
-
-	    Aggregator childAggregator;
-	    if(fieldType.equals(Type.INT_TYPE)){
-		    childAggregator = new IntegerAggregator(gfield, groupType, afield, aop);
-	    }else {
-	    	childAggregator = new StringAggregator(gfield, groupType, afield, aop);
-	    }
-	    try {
-	    	child.rewind();
-	    	child.open();
-		    while (child.hasNext()){
-			    final Tuple next = child.next();
-			    childAggregator.mergeTupleIntoGroup(next);
-		    }
-	    } catch (DbException e) {
-		    e.printStackTrace();
-	    } catch (TransactionAbortedException e) {
-		    e.printStackTrace();
-	    }
-	    this.childIterator = childAggregator.iterator();
+    	this(child, new int[]{afield},
+		    gfield == NO_GROUPING ? new int[0] : new int[]{gfield},
+		    new Aggregator.Op[]{aop});
     }
 
+	/**
+	 * Constructor for several aggregates and group-by columns.
+	 *
+	 * @param child
+	 *            The OpIterator that is feeding us tuples.
+	 * @param afields
+	 *            The column of each aggregate.
+	 * @param gfields
+	 *            The columns over which we are grouping the result; empty if
+	 *            there is no grouping
+	 * @param aops
+	 *            The operator of each aggregate
+	 */
+	public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+		if(afields.length != aops.length || afields.length == 0){
+			throw new IllegalArgumentException("need one column for each of at least one aggregate");
+		}
+		this.child = child;
+		this.gFields = gfields.clone();
+		this.aFields = afields.clone();
+		this.aops = aops.clone();
+		final TupleDesc td = child.getTupleDesc();
+		for (int i = 0; i < afields.length; i++) {
+			if(td.getFieldType(afields[i]) != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT){
+				throw new IllegalArgumentException("only COUNT is supported over a string field");
+			}
+		}
+	}
+
+	/**
+	 * @return the aggregate to compute over partial results of op, as
+	 *         produced by {@link #partialOp}, to get the result of op, or
+	 *         null if op cannot be computed from partial results
+	 */
+	public static Aggregator.Op finalOp(Aggregator.Op op) {
+		switch (op) {
+			case COUNT:
+			case SUM:
+				return Aggregator.Op.SUM;
+			case MIN:
+			case MAX:
+				return op;
+			case AVG:
+				return Aggregator.Op.SC_AVG;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * @return the aggregate to compute over part of the input of op so that
+	 *         {@link #finalOp} can combine the parts; an AVG is split into a
+	 *         SUM_COUNT that produces two columns
+	 */
+	public static Aggregator.Op partialOp(Aggregator.Op op) {
+		return op == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : op;
+	}
+
+	/**
+	 * Read the whole child into a fresh aggregator. This happens in open()
+	 * rather than in the constructor so that building a plan is cheap and
+	 * the work is done by whichever thread runs the plan.
+	 */
+	private OpIterator aggregate() throws DbException, TransactionAbortedException {
+		final TupleDesc childTd = child.getTupleDesc();
+		final Type[] groupTypes = new Type[gFields.length];
+		for (int i = 0; i < gFields.length; i++) {
+			groupTypes[i] = childTd.getFieldType(gFields[i]);
+		}
+		boolean strings = true;
+		for (int f : aFields) {
+			strings &= childTd.getFieldType(f) != Type.INT_TYPE;
+		}
+		Aggregator childAggregator;
+		if(strings){
+			childAggregator = new StringAggregator(gFields, groupTypes, aFields, aops);
+		}else {
+			childAggregator = new IntegerAggregator(gFields, groupTypes, aFields, aops);
+		}
+		child.open();
+		try {
+			while (child.hasNext()){
+				childAggregator.mergeTupleIntoGroup(child.next());
+			}
+		} finally {
+			child.close();
+		}
+		return childAggregator.iterator();
+	}
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     *         {@link simpledb.Aggregator#NO_GROUPING}. With several group-by
+     *         fields, this is the first one.
      * */
     public int groupField() {
-    	return gField;
+    	return gFields.length == 0 ? NO_GROUPING : gFields[0];
     }
 
+	/**
+	 * @return the group-by field indexes in the <b>INPUT</b> tuples
+	 */
+	public int[] groupFields() {
+		return gFields.clone();
+	}
+
     /**
      * @return If this aggregate is accompanied by a group by, return the name
      *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
      *         null;
      * */
     public String groupFieldName() {
-    	return child.getTupleDesc().getFieldName(gField);
+    	return gFields.length == 0 ? null : child.getTupleDesc().getFieldName(gFields[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field (of the first aggregate)
      * */
     public int aggregateField() {
-    	return aField;
+    	return aFields[0];
     }
 
+	/**
+	 * @return the field of each aggregate
+	 */
+	public int[] aggregateFields() {
+		return aFields.clone();
+	}
+
     /**
      * @return return the name of the aggregate field in the <b>OUTPUT</b>
      *         tuples
      * */
     public String aggregateFieldName() {
-    	return child.getTupleDesc().getFieldName(aField);
+    	return child.getTupleDesc().getFieldName(aFields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator (of the first aggregate)
      * */
     public Aggregator.Op aggregateOp() {
-    	return aop;
+    	return aops[0];
     }
 
+	/**
+	 * @return the operator of each aggregate
+	 */
+	public Aggregator.Op[] aggregateOps() {
+		return aops.clone();
+	}
+
 	public static String nameOfAggregatorOp(Aggregator.Op aop) {
 		return aop.toString();
 	}
 
 	public void open() throws NoSuchElementException, DbException,
 		TransactionAbortedException {
-		super.open();
+		this.childIterator = aggregate();
 		this.childIterator.open();
+		super.open();
 	}
 
 	/**
-	 * Returns the next tuple. If there is a group by field, then the first
-	 * field is the field by which we are grouping, and the second field is the
-	 * result of computing the aggregate. If there is no group by field, then
-	 * the result tuple should contain one field representing the result of the
-	 * aggregate. Should return null if there are no more tuples.
+	 * Returns the next tuple: the group by fields, if any, followed by the
+	 * result of each aggregate. Should return null if there are no more
+	 * tuples.
 	 */
 	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 		if(this.childIterator.hasNext()){
@@ -135,32 +223,42 @@ public class Aggregate extends Operator {
 	}
 
 	/**
-	 * Returns the TupleDesc of this Aggregate. If there is no group by field,
-	 * this will have one field - the aggregate column. If there is a group by
-	 * field, the first field will be the group by field, and the second will be
-	 * the aggregate value column.
+	 * Returns the TupleDesc of this Aggregate: the group by fields, named as
+	 * in the child, followed by a column per aggregate (two for SUM_COUNT:
+	 * the sum and the count).
 	 *
-	 * The name of an aggregate column should be informative. For example:
-	 * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-	 * given in the constructor, and child_td is the TupleDesc of the child
-	 * iterator.
+	 * The name of an aggregate column is "aggName(aop) (child_td.getFieldName(afield))"
+	 * where aop and afield are given in the constructor, and child_td is the
+	 * TupleDesc of the child iterator.
 	 */
 	public TupleDesc getTupleDesc() {
-		if(gField == NO_GROUPING){
-			final Type[] types = new Type[1];
-			types[0] = Type.INT_TYPE;
-			return new TupleDesc(types);
+		final TupleDesc td = child.getTupleDesc();
+		final ArrayList<Type> types = new ArrayList<>();
+		final ArrayList<String> names = new ArrayList<>();
+		for (int g : gFields) {
+			types.add(td.getFieldType(g));
+			names.add(td.getFieldName(g));
 		}
-
-		final Type[] types = new Type[2];
-		types[0] = child.getTupleDesc().getFieldType(aField);
-		types[1] = Type.INT_TYPE;
-		return new TupleDesc(types);
+		for (int i = 0; i < aops.length; i++) {
+			if(aops[i] == Aggregator.Op.SUM_COUNT){
+				types.add(Type.INT_TYPE);
+				names.add(nameOfAggregatorOp(Aggregator.Op.SUM) + " (" + td.getFieldName(aFields[i]) + ")");
+				types.add(Type.INT_TYPE);
+				names.add(nameOfAggregatorOp(Aggregator.Op.COUNT) + " (" + td.getFieldName(aFields[i]) + ")");
+			}else {
+				types.add(Type.INT_TYPE);
+				names.add(nameOfAggregatorOp(aops[i]) + " (" + td.getFieldName(aFields[i]) + ")");
+			}
+		}
+		return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
 	}
 
 	public void close() {
 		super.close();
-		this.childIterator.close();
+		if(this.childIterator != null){
+			this.childIterator.close();
+			this.childIterator = null;
+		}
 	}
 
 	@Override
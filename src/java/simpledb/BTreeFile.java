@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.Predicate.Op;
 
@@ -11,6 +12,12 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Concurrent searches and inserts are coordinated by short-term page latches
+ * with latch coupling (see BTreeLatches). This is not a B-link tree: pages
+ * have no high keys and internal pages no right links, so a descent cannot
+ * move right past a concurrent split. Readers latch every page on their path,
+ * and wait while a split holds one of them.
  * 
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -21,9 +28,16 @@ import simpledb.Predicate.Op;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final DbFileChannel channel;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final BTreeLatches latches = new BTreeLatches();
+	private volatile PageLsnTable pageLsns;
+	// bumped whenever the root pointer changes, so a descent that read the
+	// root pointer can tell, once it has latched the root, that the root was
+	// replaced in between
+	private final AtomicLong rootVersion = new AtomicLong();
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,6 +49,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.channel = new DbFileChannel(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -78,13 +93,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = channel.read(pageBuf, 0);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -94,16 +107,12 @@ public class BTreeFile implements DbFile {
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
+				p.setLSN(pageLsns().get(lsnIndex(id)));
 				return p;
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = channel.read(pageBuf, pageOffset(id.getPageNumber()));
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -112,29 +121,21 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				Page p;
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
+					p = new BTreeInternalPage(id, pageBuf, keyField);
 				}
 				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
+					p = new BTreeLeafPage(id, pageBuf, keyField);
 				}
 				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
+					p = new BTreeHeaderPage(id, pageBuf);
 				}
+				p.setLSN(pageLsns().get(lsnIndex(id)));
+				return p;
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -147,17 +148,65 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
+		long lsn = page.getLSN();
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(page.getId().getPageNumber()));
+		}
+		// the page is forced, and its LSN recorded on disk, by the next sync
+		pageLsns().set(id, lsnIndex(id), lsn);
+	}
+
+	// see DbFile.java for javadocs
+	public void sync() throws IOException {
+		PageLsnTable lsns = pageLsns;
+		if(lsns != null) {
+			lsns.sync(channel);
+		}
+	}
+
+	/**
+	 * Sync the pages written since the last sync, then release the file
+	 * handle used for page I/O.
+	 */
+	public void close() throws IOException {
+		PageLsnTable lsns = pageLsns;
+		if(lsns != null) {
+			lsns.sync(channel);
+			lsns.close();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Returns the page LSN table of this file, loading it on first use.
+	 */
+	PageLsnTable pageLsns() {
+		PageLsnTable lsns = pageLsns;
+		if(lsns == null) {
+			synchronized(this) {
+				if(pageLsns == null) {
+					pageLsns = new PageLsnTable(f);
+				}
+				lsns = pageLsns;
+			}
 		}
+		return lsns;
+	}
+
+	// the root pointer page is the only page numbered 0
+	private static int lsnIndex(BTreePageId id) {
+		return id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.getPageNumber();
+	}
+
+	/**
+	 * Returns the file offset of the (non root pointer) page with the given number.
+	 */
+	private static long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
 	}
 	
 	/**
@@ -175,6 +224,31 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Returns the short-term page latches of this tree.
+	 */
+	BTreeLatches latches() {
+		return latches;
+	}
+
+	/**
+	 * Estimates the number of pages a search reads on its way from the root
+	 * to a leaf, from the size of the file and the number of keys that fit
+	 * in an internal page. Nothing is read, so this is cheap enough for the
+	 * optimizer to call.
+	 */
+	public int estimateHeight() {
+		int keySize = td.getFieldType(keyField).getLen();
+		// as in BTreeInternalPage.getMaxEntries(), assuming pages are 3/4 full
+		int fanout = Math.max(2, (BufferPool.getPageSize() * 8 - 2 * BTreePage.INDEX_SIZE * 8 - 9)
+				/ (keySize * 8 + BTreePage.INDEX_SIZE * 8 + 1) * 3 / 4);
+		int height = 1;
+		for (long pages = Math.max(1, numPages()); pages > 1; pages = (pages + fanout - 1) / fanout) {
+			height++;
+		}
+		return height;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -194,8 +268,156 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
 			Field f) 
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		if(pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, childFor(page, f), perm, f);
+	}
+
+	/**
+	 * Returns the child of an internal page under which the left-most leaf
+	 * possibly containing the key field f lies, or the left-most child if f
+	 * is null.
+	 */
+	private BTreePageId childFor(BTreeInternalPage page, Field f) throws DbException {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			// keys equal to f may also live in the left subtree
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return e.getLeftChild();
+			}
+		}
+		if(e == null) {
+			throw new DbException("internal page " + page.getId() + " has no entries");
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing the key field f (or
+	 * the left-most leaf if f is null) by latch coupling: each page is
+	 * latched before the latch on its parent is released, so the descent
+	 * never follows a pointer that a concurrent split is rewriting. Internal
+	 * pages are read-latched; the leaf is latched in the mode matching perm
+	 * and stays latched. The caller must hold the shared structure latch
+	 * and release the leaf's latch.
+	 * 
+	 * @param tid - the transaction id
+	 * @param perm - READ_WRITE to write-latch the leaf, READ_ONLY to read-latch it
+	 * @param f - the field to search for
+	 * @return the latched leaf page, or null if the tree has no root yet
+	 */
+	BTreeLeafPage latchLeafPage(TransactionId tid, Permissions perm, Field f)
+			throws DbException, TransactionAbortedException {
+		// the root pointer page is only written by the first insert
+		if(this.f.length() == 0) {
+			return null;
+		}
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		BTreePageId held = null;
+		Permissions heldMode = Permissions.READ_ONLY;
+		try {
+			BTreePageId pid;
+			do {
+				if(held != null) {
+					latches.release(held, heldMode);
+					held = null;
+				}
+				long version = rootVersion.get();
+				latches.readLatch(rootPtrId);
+				try {
+					pid = ((BTreeRootPtrPage) Database.getBufferPool().getPage(
+							tid, rootPtrId, Permissions.READ_ONLY)).getRootId();
+				}
+				finally {
+					latches.releaseRead(rootPtrId);
+				}
+				if(pid == null) {
+					return null;
+				}
+				heldMode = pid.pgcateg() == BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
+				latches.latch(pid, heldMode);
+				held = pid;
+				// a split may have replaced the root between reading the pointer and latching it
+				if(rootVersion.get() == version) {
+					break;
+				}
+			} while(true);
+
+			while(true) {
+				Page page = Database.getBufferPool().getPage(tid, pid, heldMode);
+				if(pid.pgcateg() == BTreePageId.LEAF) {
+					held = null;
+					return (BTreeLeafPage) page;
+				}
+				BTreePageId child = childFor((BTreeInternalPage) page, f);
+				Permissions childMode = child.pgcateg() == BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
+				latches.latch(child, childMode);
+				latches.release(held, heldMode);
+				held = pid = child;
+				heldMode = childMode;
+			}
+		}
+		finally {
+			if(held != null) {
+				latches.release(held, heldMode);
+			}
+		}
+	}
+
+	/**
+	 * Read the tuples and right sibling of a leaf page under its read latch,
+	 * so that an iterator can return them after the latch is released.
+	 * 
+	 * @param tid - the transaction id
+	 * @param pid - the leaf to read
+	 */
+	LeafSnapshot snapshotLeaf(TransactionId tid, BTreePageId pid)
+			throws DbException, TransactionAbortedException {
+		latches.enterShared();
+		try {
+			latches.readLatch(pid);
+			try {
+				return new LeafSnapshot((BTreeLeafPage) Database.getBufferPool().getPage(
+						tid, pid, Permissions.READ_ONLY));
+			}
+			finally {
+				latches.releaseRead(pid);
+			}
+		}
+		finally {
+			latches.exitShared();
+		}
+	}
+
+	/**
+	 * Read the left-most leaf page possibly containing the key field f, as
+	 * found by {@link #latchLeafPage}.
+	 * 
+	 * @return the snapshot of the leaf, or null if the tree has no root yet
+	 * @see #snapshotLeaf(TransactionId, BTreePageId)
+	 */
+	LeafSnapshot snapshotLeaf(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		latches.enterShared();
+		try {
+			BTreeLeafPage leaf = latchLeafPage(tid, Permissions.READ_ONLY, f);
+			if(leaf == null) {
+				return null;
+			}
+			try {
+				return new LeafSnapshot(leaf);
+			}
+			finally {
+				latches.releaseRead(leaf.getId());
+			}
+		}
+		finally {
+			latches.exitShared();
+		}
 	}
 	
 	/**
@@ -239,16 +461,40 @@ public class BTreeFile implements DbFile {
 	 */
 	protected BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page, Field field) 
 			throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the leaf page by adding a new page on the right of the existing
-		// page and moving half of the tuples to the new page.  Copy the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
-		// tuple with the given key field should be inserted.
-        return null;
-		
+		// move the upper half of the tuples to a new page on the right
+		BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		int toMove = page.getNumTuples() / 2;
+		Iterator<Tuple> it = page.reverseIterator();
+		ArrayList<Tuple> moved = new ArrayList<Tuple>();
+		while(it.hasNext() && moved.size() < toMove) {
+			moved.add(it.next());
+		}
+		for(Tuple t : moved) {
+			page.deleteTuple(t);
+			right.insertTuple(t);
+		}
+
+		// splice the new page into the sibling list
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(right.getId());
+		}
+		right.setRightSiblingId(oldRightId);
+		right.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(right.getId());
+
+		// copy the first key of the right page up into the parent
+		Field middle = right.iterator().next().getField(keyField);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle);
+		parent.insertEntry(new BTreeEntry(middle, page.getId(), right.getId()));
+		page.setParentId(parent.getId());
+		right.setParentId(parent.getId());
+
+		if(field.compare(Op.GREATER_THAN, middle)) {
+			return right;
+		}
+		return page;
 	}
 	
 	/**
@@ -276,16 +522,34 @@ public class BTreeFile implements DbFile {
 	protected BTreeInternalPage splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages, 
 			BTreeInternalPage page, Field field) 
 					throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the internal page by adding a new page on the right of the existing
-		// page and moving half of the entries to the new page.  Push the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the parent pointers of all the children moving to the new page.  updateParentPointers()
-		// will be useful here.  Return the page into which an entry with the given key field
-		// should be inserted.
-		return null;
+		// move the upper half of the entries to a new page on the right
+		BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+		int toMove = page.getNumEntries() / 2;
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		ArrayList<BTreeEntry> moved = new ArrayList<BTreeEntry>();
+		while(it.hasNext() && moved.size() < toMove) {
+			moved.add(it.next());
+		}
+		for(BTreeEntry e : moved) {
+			page.deleteKeyAndRightChild(e);
+			right.insertEntry(e);
+		}
+
+		// push the largest remaining key up into the parent
+		BTreeEntry middle = page.reverseIterator().next();
+		page.deleteKeyAndRightChild(middle);
+		middle.setLeftChild(page.getId());
+		middle.setRightChild(right.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle.getKey());
+		parent.insertEntry(middle);
+		page.setParentId(parent.getId());
+		right.setParentId(parent.getId());
+		updateParentPointers(tid, dirtypages, right);
+
+		if(field.compare(Op.GREATER_THAN, middle.getKey())) {
+			return right;
+		}
+		return page;
 	}
 	
 	/**
@@ -320,6 +584,7 @@ public class BTreeFile implements DbFile {
 					BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
 			BTreePageId prevRootId = rootPtr.getRootId(); //save prev id before overwriting.
 			rootPtr.setRootId(parent.getId());
+			rootVersion.incrementAndGet();
 
 			// update the previous root to now point to this new root.
 			BTreePage prevRootPage = (BTreePage)getPage(tid, dirtypages, prevRootId, Permissions.READ_WRITE);
@@ -357,6 +622,12 @@ public class BTreeFile implements DbFile {
 		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
 
 		if(!p.getParentId().equals(pid)) {
+			// write-latched like every page the split changes, so the pool
+			// does not write it before the change is logged and an optimistic
+			// insert into the same leaf waits. The split latches the child
+			// after its parent, the order every descent uses, and a descent
+			// holding the child only waits for latches below it, which the
+			// split does not hold, so this cannot deadlock
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
 			p.setParentId(pid);
 		}
@@ -411,6 +682,11 @@ public class BTreeFile implements DbFile {
 	 */
 	Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
 			throws DbException, TransactionAbortedException {
+		// during a split (see BTreeLatches#beginSplit), a page fetched for
+		// writing is write-latched until the split ends
+		if(perm == Permissions.READ_WRITE && latches.splitting()) {
+			latches.holdForSplit(pid);
+		}
 		if(dirtypages.containsKey(pid)) {
 			return dirtypages.get(pid);
 		}
@@ -418,6 +694,10 @@ public class BTreeFile implements DbFile {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
+				// wait out a write of the page that began before it was
+				// latched; later writes see the latch and skip the page
+				synchronized(p) {
+				}
 			}
 			return p;
 		}
@@ -426,6 +706,7 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
+	 * Every page changed is logged under tid before this returns.
 	 * 
 	 * @param tid - the transaction id
 	 * @param t - the tuple to insert
@@ -435,23 +716,94 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		// optimistically latch-couple down to the leaf, write-latching only the
+		// leaf; if it has room, no other page changes and no split is needed
+		latches.enterShared();
+		try {
+			BTreeLeafPage leafPage = latchLeafPage(tid, Permissions.READ_WRITE, t.getField(keyField));
+			if(leafPage != null) {
+				try {
+					if(leafPage.getNumEmptySlots() > 0) {
+						// the page latch keeps the BufferPool from writing the
+						// leaf between the change and its log record
+						synchronized(leafPage) {
+							leafPage.insertTuple(t);
+							logChanges(tid, Collections.<Page>singletonList(leafPage));
+						}
+						leafPage.markDirty(true, tid);
+						ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+						dirtyPagesArr.add(leafPage);
+						return dirtyPagesArr;
+					}
+				}
+				finally {
+					latches.releaseWrite(leafPage.getId());
+				}
+			}
+		}
+		finally {
+			latches.exitShared();
+		}
+
+		// the leaf is full, or the tree has no root yet
+		latches.beginSplit();
+		try {
+			return insertTupleWithSplit(tid, t);
+		}
+		finally {
+			latches.endSplit();
+		}
+	}
+
+	/**
+	 * Insert a tuple into a leaf that may have to be split. Called with the
+	 * split mutex held (see {@link BTreeLatches#beginSplit}), so every page
+	 * fetched for writing is write-latched. The descent write-latches the
+	 * path from the root; once it reaches a page with a free slot, a split
+	 * below cannot propagate above that page, so the latches above it are
+	 * released and searches elsewhere in the tree proceed.
+	 */
+	private ArrayList<Page> insertTupleWithSplit(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		Field key = t.getField(keyField);
 
-		// get a read lock on the root pointer page and use it to locate the root page
+		// latch the root pointer page and use it to locate the root page
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		latches.holdForSplit(rootPtrId);
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId rootId = rootPtr.getRootId();
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+		boolean newRoot = rootId == null;
+		if(newRoot) { // the root has just been created, so set the root pointer to point to it		
 			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
 			rootPtr.setRootId(rootId);
+			rootVersion.incrementAndGet();
+		}
+
+		// write-latch the path down to the left-most leaf page corresponding to
+		// the key field
+		BTreePageId pid = rootId;
+		BTreePage page;
+		while(true) {
+			page = (BTreePage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			// the root pointer was just changed, so keep it latched and dirty
+			if(!newRoot && page.getNumEmptySlots() > 0) {
+				for(BTreePageId released : latches.releaseAbove(pid)) {
+					dirtypages.remove(released);
+				}
+			}
+			if(pid.pgcateg() == BTreePageId.LEAF) {
+				break;
+			}
+			pid = childFor((BTreeInternalPage) page, key);
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// split the leaf page if there are no more slots available
+		BTreeLeafPage leafPage = (BTreeLeafPage) page;
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			leafPage = splitLeafPage(tid, dirtypages, leafPage, key);	
 		}
 
 		// insert the tuple into the leaf page
@@ -459,6 +811,12 @@ public class BTreeFile implements DbFile {
 
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
 		dirtyPagesArr.addAll(dirtypages.values());
+		logChanges(tid, dirtyPagesArr);
+		// mark the pages dirty before their latches are released, so they
+		// cannot be evicted unwritten
+		for(Page p : dirtyPagesArr) {
+			p.markDirty(true, tid);
+		}
 		return dirtyPagesArr;
 	}
 	
@@ -805,6 +1163,7 @@ public class BTreeFile implements DbFile {
 	 * Delete a tuple from this BTreeFile. 
 	 * May cause pages to merge or redistribute entries/tuples if the pages 
 	 * become less than half full.
+	 * Every page changed is logged under tid before this returns.
 	 * 
 	 * @param tid - the transaction id
 	 * @param t - the tuple to delete
@@ -814,6 +1173,18 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) 
 			throws DbException, IOException, TransactionAbortedException {
+		// deletes may rearrange pages bottom-up, so they run alone
+		latches.enterExclusive();
+		try {
+			return deleteTupleExclusive(tid, t);
+		}
+		finally {
+			latches.exitExclusive();
+		}
+	}
+
+	private ArrayList<Page> deleteTupleExclusive(TransactionId tid, Tuple t) 
+			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
@@ -830,9 +1201,175 @@ public class BTreeFile implements DbFile {
 
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
 		dirtyPagesArr.addAll(dirtypages.values());
+		logChanges(tid, dirtyPagesArr);
 		return dirtyPagesArr;
 	}
 
+	/**
+	 * Log the changes an insert or delete made to the given pages, each as
+	 * an UPDATE record of tid whose before image is the page as of its
+	 * previous logged change, and stamp the pages with the LSNs. Called
+	 * while the pages are still latched, so each image holds exactly this
+	 * operation's changes; rollback and recovery then restore or reapply
+	 * the images like those of any other page. Pages fetched for writing
+	 * but left unchanged are not logged.
+	 */
+	private void logChanges(TransactionId tid, Collection<Page> pages) throws IOException {
+		LogFile log = Database.getLogFile();
+		for(Page p : pages) {
+			synchronized(p) {
+				Page before = p.getBeforeImage();
+				if(!Arrays.equals(before.getPageData(), p.getPageData())) {
+					log.logWrite(tid, before, p);
+					p.setBeforeImage();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the given page may be in the middle of an insert or
+	 * delete whose changes are not logged yet, so the BufferPool must not
+	 * write it: the page is write-latched, or a delete or bulk load holds
+	 * the whole tree
+	 */
+	boolean isChanging(BTreePageId pid) {
+		return latches.changing(pid);
+	}
+
+	/**
+	 * Load tuples into this B+ tree in bulk. The tuples are sorted on the key
+	 * field, with the external sort of OrderBy so that a load larger than
+	 * memory spills to sorted runs on disk, and the tree is built bottom-up
+	 * from the sorted stream, filling leaf pages in key order and
+	 * internal pages as the separator keys are copied up (see 
+	 * BTreeFileEncoder), with pages written straight to the file instead of
+	 * going through the BufferPool one tuple at a time. The tree must be empty.
+	 * 
+	 * Every page of the new tree is logged under the given transaction with an
+	 * empty before image, so aborting or recovering the transaction empties the
+	 * tree again. The pages are written unforced while the tree is built; once
+	 * they are all logged, the log is forced once and the file synced once,
+	 * which records their LSNs.
+	 * 
+	 * @param tid - the transaction doing the load
+	 * @param tuples - the tuples to load; they must match this file's TupleDesc
+	 * @return the number of tuples loaded
+	 * @throws DbException if the tree is not empty
+	 */
+	public int bulkLoad(TransactionId tid, Iterator<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		return bulkLoad(tid, tuples, OrderBy.MAX_TUPLES);
+	}
+
+	/**
+	 * Load tuples into this B+ tree in bulk, sorting at most maxTuples of them
+	 * in memory at once. See {@link #bulkLoad(TransactionId, Iterator)}.
+	 */
+	int bulkLoad(TransactionId tid, Iterator<Tuple> tuples, int maxTuples)
+			throws DbException, IOException, TransactionAbortedException {
+		Type[] typeAr = new Type[td.numFields()];
+		for(int i = 0; i < typeAr.length; i++) {
+			typeAr[i] = td.getFieldType(i);
+		}
+
+		ExternalSort sorted = new ExternalSort(td, new BTreeFileEncoder.TupleComparator(keyField), maxTuples);
+		try {
+			while(tuples.hasNext()) {
+				sorted.add(tuples.next());
+			}
+			sorted.finish();
+
+			latches.enterExclusive();
+			try {
+				if(!isEmpty(tid)) {
+					throw new DbException("bulk load needs an empty B+ tree");
+				}
+				// the root pointer and empty root leaf may be cached; they are rewritten below
+				Database.getBufferPool().discardPages(tableid);
+				channel.truncate(0);
+				BTreeFileEncoder.build(this, sorted.iterator(), BufferPool.getPageSize(), typeAr.length, typeAr, keyField);
+				LinkedHashMap<BTreePageId, Long> loaded = new LinkedHashMap<BTreePageId, Long>();
+				logLoadedPage(tid, BTreeRootPtrPage.getId(tableid), loaded);
+				Database.getLogFile().forceUpTo(Collections.max(loaded.values()));
+				for(Map.Entry<BTreePageId, Long> e : loaded.entrySet()) {
+					pageLsns().set(e.getKey(), lsnIndex(e.getKey()), e.getValue());
+				}
+				sync();
+				rootVersion.incrementAndGet();
+			}
+			finally {
+				latches.exitExclusive();
+			}
+			return sorted.size();
+		}
+		finally {
+			sorted.close();
+		}
+	}
+
+	/**
+	 * Returns true if this tree holds no tuples: either the file does not exist
+	 * yet, or the root is unset or an empty leaf.
+	 */
+	private boolean isEmpty(TransactionId tid) throws DbException, TransactionAbortedException {
+		if(f.length() == 0) {
+			return true;
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		BTreePageId root = rootPtr.getRootId();
+		if(root == null) {
+			return true;
+		}
+		if(root.pgcateg() != BTreePageId.LEAF) {
+			return false;
+		}
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, root, Permissions.READ_ONLY);
+		return leaf.getNumTuples() == 0;
+	}
+
+	/**
+	 * Log the page with the given id, and recursively every page below it, as
+	 * written by tid with an empty before image, and add the LSN of each
+	 * record to loaded.
+	 */
+	private void logLoadedPage(TransactionId tid, BTreePageId pid, Map<BTreePageId, Long> loaded)
+			throws IOException {
+		Page page = readPage(pid);
+		Page empty;
+		if(pid.pgcateg() == BTreePageId.ROOT_PTR) {
+			empty = new BTreeRootPtrPage(pid, BTreeRootPtrPage.createEmptyPageData());
+		}
+		else if(pid.pgcateg() == BTreePageId.INTERNAL) {
+			empty = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), keyField);
+		}
+		else {
+			empty = new BTreeLeafPage(pid, BTreeLeafPage.createEmptyPageData(), keyField);
+		}
+		Database.getLogFile().logWrite(tid, empty, page);
+		loaded.put(pid, page.getLSN());
+
+		if(pid.pgcateg() == BTreePageId.ROOT_PTR) {
+			BTreePageId root = ((BTreeRootPtrPage) page).getRootId();
+			if(root != null) {
+				logLoadedPage(tid, root, loaded);
+			}
+		}
+		else if(pid.pgcateg() == BTreePageId.INTERNAL) {
+			Iterator<BTreeEntry> it = ((BTreeInternalPage) page).iterator();
+			boolean first = true;
+			while(it.hasNext()) {
+				BTreeEntry e = it.next();
+				if(first) {
+					logLoadedPage(tid, e.getLeftChild(), loaded);
+					first = false;
+				}
+				logLoadedPage(tid, e.getRightChild(), loaded);
+			}
+		}
+	}
+
 	/**
 	 * Get a read lock on the root pointer page. Create the root pointer page and root page
 	 * if necessary.
@@ -848,13 +1385,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(emptyRootPtrData, 0);
+				channel.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -910,11 +1444,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.append(emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -945,10 +1476,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1071,13 +1599,33 @@ public class BTreeFile implements DbFile {
 
 }
 
+/**
+ * The tuples and right sibling of a leaf page, copied while the leaf was
+ * latched. Iterators walk the leaf level through these copies, so they hold
+ * no latch between calls and a split of a leaf that was already read only
+ * moves tuples to its right, where the right sibling link still leads.
+ */
+class LeafSnapshot {
+
+	final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+	final BTreePageId rightSibling;
+
+	LeafSnapshot(BTreeLeafPage leaf) {
+		Iterator<Tuple> it = leaf.iterator();
+		while(it.hasNext()) {
+			tuples.add(it.next());
+		}
+		rightSibling = leaf.getRightSiblingId();
+	}
+}
+
 /**
  * Helper class that implements the Java Iterator for tuples on a BTreeFile
  */
 class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	LeafSnapshot curp = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1096,11 +1644,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		it = curp.iterator();
+		curp = f.snapshotLeaf(tid, (Field) null);
+		if(curp != null) {
+			it = curp.tuples.iterator();
+		}
 	}
 
 	/**
@@ -1115,14 +1662,13 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			it = null;
 
 		while (it == null && curp != null) {
-			BTreePageId nextp = curp.getRightSiblingId();
+			BTreePageId nextp = curp.rightSibling;
 			if(nextp == null) {
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+				curp = f.snapshotLeaf(tid, nextp);
+				it = curp.tuples.iterator();
 				if (!it.hasNext())
 					it = null;
 			}
@@ -1158,7 +1704,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	LeafSnapshot curp = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1181,17 +1727,16 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.snapshotLeaf(tid, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.snapshotLeaf(tid, (Field) null);
+		}
+		if(curp != null) {
+			it = curp.tuples.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
@@ -1223,15 +1768,14 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				}
 			}
 
-			BTreePageId nextp = curp.getRightSiblingId();
+			BTreePageId nextp = curp.rightSibling;
 			// if there are no more pages to the right, end the iteration
 			if(nextp == null) {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+				curp = f.snapshotLeaf(tid, nextp);
+				it = curp.tuples.iterator();
 			}
 		}
 
@@ -1252,5 +1796,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		curp = null;
 	}
 }
@@ -217,6 +217,31 @@ public class BTreeFileEncoder {
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		build(bf, tuples.iterator(), npagebytes, numFields, typeAr, keyField);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Build a B+ tree bottom-up from tuples that are already sorted on the key
+	 * field: leaf pages are filled in key order, and internal pages are
+	 * written as the separator keys copied up from the leaves fill them. The
+	 * pages are written straight to the (empty) file, not through the
+	 * BufferPool.
+	 * 
+	 * @param bf - the empty BTreeFile to write the tree into
+	 * @param tuples - the tuples, sorted on keyField; they are read once, in order
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields per tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	static void build(BTreeFile bf, Iterator<Tuple> tuples, int npagebytes,
+			int numFields, Type[] typeAr, int keyField) 
+					throws IOException, DbException {
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -247,7 +272,8 @@ public class BTreeFileEncoder {
 		ArrayList<Tuple> page1 = new ArrayList<Tuple>();
 		ArrayList<Tuple> page2 = new ArrayList<Tuple>();
 		BTreePageId leftSiblingId = null;
-		for(Tuple tup : tuples) {
+		while(tuples.hasNext()) {
+			Tuple tup = tuples.next();
 			if(page1.size() < nrecords) {
 				page1.add(tup);
 			}
@@ -330,9 +356,6 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
-
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
 	}
 
 	/**
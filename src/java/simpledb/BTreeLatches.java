@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Short-term latches protecting the pages of one {@link BTreeFile} while a
+ * thread reads or changes them. Latches are separate from the transactional
+ * locks taken by the BufferPool: they are held only for the duration of one
+ * descent or one page update, never until commit.
+ * <p>
+ * Three kinds of latch are used:
+ * <ul>
+ * <li>a read/write latch per page. Searches and inserts descend with latch
+ * coupling: the child is latched before the parent is released, so a
+ * descent never follows a pointer a concurrent split is rewriting.</li>
+ * <li>a structure latch. Searches and inserts hold it shared; deletes and
+ * bulk loads, which may rearrange pages bottom-up, hold it exclusively.</li>
+ * <li>a split mutex, so only one insert at a time restructures the tree.
+ * Inserts that fit in their leaf never take it.</li>
+ * </ul>
+ * While a split holds the mutex, every page it fetches for writing through
+ * {@link BTreeFile#getPage} is write-latched and recorded here, and all of
+ * them are released when the split finishes. This includes the children
+ * whose parent pointers the split rewrites.
+ * <p>
+ * This is latch coupling, not a B-link tree. Internal pages have no right
+ * link, no page has a high key, and descents never move right, so a reader
+ * that reaches a page after a concurrent split cannot tell that its key
+ * moved right, and must not get there. Readers are therefore not latch-free:
+ * they latch every page on their path and wait for a split holding one of
+ * them, and splits are serialized.
+ * Adding the links and keys would change the page formats and the number
+ * of entries per page, which BTreeFileEncoder and existing files rely on.
+ * Merges and redistribution rewrite siblings and parents bottom-up, the
+ * reverse of the latch order, so deletes hold the whole tree.
+ */
+class BTreeLatches {
+
+	private final ConcurrentHashMap<BTreePageId, ReentrantReadWriteLock> pages =
+			new ConcurrentHashMap<BTreePageId, ReentrantReadWriteLock>();
+	private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+	private final ReentrantLock split = new ReentrantLock();
+	private final ThreadLocal<ArrayList<BTreePageId>> held = new ThreadLocal<ArrayList<BTreePageId>>();
+
+	private ReentrantReadWriteLock latch(BTreePageId pid) {
+		ReentrantReadWriteLock l = pages.get(pid);
+		if(l == null) {
+			ReentrantReadWriteLock created = new ReentrantReadWriteLock();
+			l = pages.putIfAbsent(pid, created);
+			if(l == null) {
+				l = created;
+			}
+		}
+		return l;
+	}
+
+	void readLatch(BTreePageId pid) {
+		latch(pid).readLock().lock();
+	}
+
+	void releaseRead(BTreePageId pid) {
+		latch(pid).readLock().unlock();
+	}
+
+	void writeLatch(BTreePageId pid) {
+		latch(pid).writeLock().lock();
+	}
+
+	void releaseWrite(BTreePageId pid) {
+		latch(pid).writeLock().unlock();
+	}
+
+	/** Latch the page in the given mode: write for READ_WRITE, read otherwise. */
+	void latch(BTreePageId pid, Permissions perm) {
+		if(perm == Permissions.READ_WRITE) {
+			writeLatch(pid);
+		}
+		else {
+			readLatch(pid);
+		}
+	}
+
+	void release(BTreePageId pid, Permissions perm) {
+		if(perm == Permissions.READ_WRITE) {
+			releaseWrite(pid);
+		}
+		else {
+			releaseRead(pid);
+		}
+	}
+
+	void enterShared() {
+		structure.readLock().lock();
+	}
+
+	void exitShared() {
+		structure.readLock().unlock();
+	}
+
+	void enterExclusive() {
+		structure.writeLock().lock();
+	}
+
+	void exitExclusive() {
+		structure.writeLock().unlock();
+	}
+
+	/**
+	 * @return true if the page may be being changed: it is write-latched,
+	 * or the structure latch is held exclusively
+	 */
+	boolean changing(BTreePageId pid) {
+		if(structure.isWriteLocked()) {
+			return true;
+		}
+		ReentrantReadWriteLock l = pages.get(pid);
+		return l != null && l.isWriteLocked();
+	}
+
+	/**
+	 * Start a split: take the split mutex and the shared structure latch,
+	 * and begin recording the pages this thread write-latches.
+	 */
+	void beginSplit() {
+		split.lock();
+		enterShared();
+		held.set(new ArrayList<BTreePageId>());
+	}
+
+	/** @return true if this thread is inside {@link #beginSplit} */
+	boolean splitting() {
+		return held.get() != null;
+	}
+
+	/**
+	 * Write-latch a page for the running split, unless this thread already
+	 * holds its write latch.
+	 */
+	void holdForSplit(BTreePageId pid) {
+		ReentrantReadWriteLock l = latch(pid);
+		if(!l.isWriteLockedByCurrentThread()) {
+			l.writeLock().lock();
+			held.get().add(pid);
+		}
+	}
+
+	/**
+	 * Release the latches the running split took on pages other than the
+	 * given one; used once a descent reaches a page that cannot split, so
+	 * nothing above it will change.
+	 *
+	 * @return the pages whose latches were released
+	 */
+	ArrayList<BTreePageId> releaseAbove(BTreePageId keep) {
+		ArrayList<BTreePageId> list = held.get();
+		ArrayList<BTreePageId> released = new ArrayList<BTreePageId>();
+		for(int i = list.size() - 1; i >= 0; i--) {
+			if(!list.get(i).equals(keep)) {
+				BTreePageId pid = list.remove(i);
+				releaseWrite(pid);
+				released.add(pid);
+			}
+		}
+		return released;
+	}
+
+	/** Finish a split, releasing every latch it took. */
+	void endSplit() {
+		ArrayList<BTreePageId> list = held.get();
+		held.remove();
+		try {
+			for(BTreePageId pid : list) {
+				releaseWrite(pid);
+			}
+		}
+		finally {
+			exitShared();
+			split.unlock();
+		}
+	}
+}
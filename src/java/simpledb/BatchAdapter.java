@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * BatchAdapter presents a row-at-a-time {@link OpIterator} as a
+ * {@link BatchIterator}, packing its tuples into batches. It lets any
+ * existing operator feed a batch plan.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final int capacity;
+    private transient TupleBatch batch;
+
+    public BatchAdapter(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows per batch
+     */
+    public BatchAdapter(OpIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the row iterator this adapter reads from
+     */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), capacity);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("BatchAdapter not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.appendTuple(child.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
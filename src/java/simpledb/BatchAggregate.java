@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}. It computes
+ * one aggregate, optionally grouped by one field, reading its input a batch
+ * at a time. Groups are kept in an {@link IntAggregateTable}, so an
+ * aggregate over integer groups does not box anything per row.
+ * <p>
+ * The output is (group, aggregate) when grouping and (aggregate) otherwise.
+ * Only COUNT can be computed over a STRING_TYPE field; AVG rounds toward
+ * zero and a SUM that overflows INT_TYPE is an error, as in
+ * {@link IntegerAggregator}.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+    private final int capacity;
+
+    private transient IntAggregateTable table;
+    // group of each STRING_TYPE key, and the key of each group
+    private transient HashMap<String, Integer> stringGroups;
+    private transient ArrayList<String> stringKeys;
+    private transient boolean computed;
+    private transient int emitted;
+    private transient TupleBatch out;
+
+    /**
+     * @param child
+     *            The BatchIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or
+     *            Aggregator.NO_GROUPING if there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of groups per output batch
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop, int capacity) {
+        final TupleDesc childTd = child.getTupleDesc();
+        if (childTd.getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("only COUNT is supported over a string field");
+        }
+        if (aop != Aggregator.Op.COUNT && aop != Aggregator.Op.SUM && aop != Aggregator.Op.AVG
+                && aop != Aggregator.Op.MIN && aop != Aggregator.Op.MAX) {
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.capacity = capacity;
+        final String aggName = aop.toString() + " (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aggName});
+        } else {
+            this.td = new TupleDesc(new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{childTd.getFieldName(gfield), aggName});
+        }
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        out = new TupleBatch(td, capacity);
+        computed = false;
+    }
+
+    private void compute() throws DbException, TransactionAbortedException {
+        table = new IntAggregateTable();
+        stringGroups = new HashMap<>();
+        stringKeys = new ArrayList<>();
+        final boolean intAgg = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            final int[] values = intAgg ? batch.intColumn(afield) : null;
+            for (int i = 0; i < batch.numSelected(); i++) {
+                final int row = batch.selectedRow(i);
+                final int g = groupOf(batch, row);
+                if (intAgg) {
+                    table.add(g, values[row]);
+                } else {
+                    table.addCount(g);
+                }
+            }
+        }
+        if (table.size() == 0 && gfield == Aggregator.NO_GROUPING) {
+            // an ungrouped aggregate over no rows still has one (empty) group
+            table.addGroup();
+        }
+        computed = true;
+        emitted = 0;
+    }
+
+    /**
+     * @return the group of a row, adding it if new
+     */
+    private int groupOf(TupleBatch batch, int row) {
+        if (gfield == Aggregator.NO_GROUPING) {
+            return table.size() == 0 ? table.addGroup() : 0;
+        }
+        if (batch.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE) {
+            return table.findOrAdd(batch.intColumn(gfield)[row]);
+        }
+        final String key = batch.stringColumn(gfield)[row];
+        final Integer g = stringGroups.get(key);
+        if (g != null) {
+            return g;
+        }
+        final int added = table.addGroup();
+        stringGroups.put(key, added);
+        stringKeys.add(key);
+        return added;
+    }
+
+    private int result(int g) throws DbException {
+        switch (aop) {
+        case COUNT:
+            return (int) table.count(g);
+        case SUM:
+            final long sum = table.sum(g);
+            if (sum != (int) sum) {
+                throw new DbException("SUM " + sum + " overflows INT_TYPE");
+            }
+            return (int) sum;
+        case AVG:
+            return table.count(g) == 0 ? 0 : (int) (table.sum(g) / table.count(g));
+        case MIN:
+            return table.min(g);
+        default:
+            return table.max(g);
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchAggregate not yet open");
+        }
+        if (!computed) {
+            compute();
+        }
+        out.clear();
+        while (!out.isFull() && emitted < table.size()) {
+            final int row = out.addRow();
+            if (gfield == Aggregator.NO_GROUPING) {
+                out.intColumn(0)[row] = result(emitted);
+            } else {
+                if (td.getFieldType(0) == Type.INT_TYPE) {
+                    out.intColumn(0)[row] = table.key(emitted);
+                } else {
+                    out.stringColumn(0)[row] = stringKeys.get(emitted);
+                }
+                out.intColumn(1)[row] = result(emitted);
+            }
+            emitted++;
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        emitted = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+        table = null;
+        stringGroups = null;
+        stringKeys = null;
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}. It evaluates its
+ * predicate over a whole column at a time and drops rows by narrowing the
+ * batch's selection vector, without copying the rows that pass.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final Predicate predicate;
+    private final BatchIterator child;
+    private transient int[] selection;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.predicate = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (selection == null || selection.length < batch.capacity()) {
+                selection = new int[batch.capacity()];
+            }
+            final int n = batch.getTupleDesc().getFieldType(predicate.getField()) == Type.INT_TYPE
+                    ? selectInts(batch) : selectStrings(batch);
+            if (n > 0) {
+                batch.setSelection(selection, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private int selectInts(TupleBatch batch) {
+        final int[] col = batch.intColumn(predicate.getField());
+        final int operand = ((IntField) predicate.getOperand()).getValue();
+        final int rows = batch.numSelected();
+        int n = 0;
+        switch (predicate.getOp()) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < rows; i++) {
+                final int row = batch.selectedRow(i);
+                if (col[row] == operand) selection[n++] = row;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < rows; i++) {
+                final int row = batch.selectedRow(i);
+                if (col[row] != operand) selection[n++] = row;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < rows; i++) {
+                final int row = batch.selectedRow(i);
+                if (col[row] > operand) selection[n++] = row;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < rows; i++) {
+                final int row = batch.selectedRow(i);
+                if (col[row] >= operand) selection[n++] = row;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < rows; i++) {
+                final int row = batch.selectedRow(i);
+                if (col[row] < operand) selection[n++] = row;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < rows; i++) {
+                final int row = batch.selectedRow(i);
+                if (col[row] <= operand) selection[n++] = row;
+            }
+            break;
+        }
+        return n;
+    }
+
+    private int selectStrings(TupleBatch batch) {
+        final String[] col = batch.stringColumn(predicate.getField());
+        final String operand = ((StringField) predicate.getOperand()).getValue();
+        final Predicate.Op op = predicate.getOp();
+        final int rows = batch.numSelected();
+        int n = 0;
+        for (int i = 0; i < rows; i++) {
+            final int row = batch.selectedRow(i);
+            final String v = col[row];
+            final boolean pass;
+            if (op == Predicate.Op.LIKE) {
+                pass = v.indexOf(operand) >= 0;
+            } else {
+                final int cmp = v.compareTo(operand);
+                switch (op) {
+                case EQUALS: pass = cmp == 0; break;
+                case NOT_EQUALS: pass = cmp != 0; break;
+                case GREATER_THAN: pass = cmp > 0; break;
+                case GREATER_THAN_OR_EQ: pass = cmp >= 0; break;
+                case LESS_THAN: pass = cmp < 0; break;
+                default: pass = cmp <= 0; break;
+                }
+            }
+            if (pass) selection[n++] = row;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        selection = null;
+    }
+}
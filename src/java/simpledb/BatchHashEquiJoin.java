@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * BatchHashEquiJoin is the batch counterpart of {@link HashEquiJoin}. It
+ * builds an in-memory hash table on child1 (an {@link IntJoinTable} when the
+ * join key is an {@link Type#INT_TYPE}) and probes it a batch of child2 at a
+ * time, writing the joined rows into a reused output batch.
+ * <p>
+ * Unlike HashEquiJoin it does not spill: the build side must fit in memory.
+ * Use HashEquiJoin behind a {@link BatchAdapter} for joins that may not.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int capacity;
+    private final boolean intKeys;
+    private transient IntJoinTable intTable;
+    private transient HashMap<String, ArrayList<Tuple>> stringTable;
+    private transient TupleBatch out;
+    // probe state, kept across calls when a probe batch fills several outputs
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient int chainPos;
+    private transient ArrayList<Tuple> stringMatches;
+    private transient boolean built;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this(p, child1, child2, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows per output batch
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2, int capacity) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.capacity = capacity;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        out = new TupleBatch(comboTD, capacity);
+        built = false;
+        probe = null;
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        if (intKeys) {
+            intTable = new IntJoinTable();
+        } else {
+            stringTable = new HashMap<>();
+        }
+        final int f1 = pred.getField1();
+        TupleBatch batch;
+        while ((batch = child1.nextBatch()) != null) {
+            for (int i = 0; i < batch.numSelected(); i++) {
+                final int row = batch.selectedRow(i);
+                final Tuple t = batch.getTuple(row);
+                if (intKeys) {
+                    intTable.add(batch.intColumn(f1)[row], t);
+                } else {
+                    stringTable.computeIfAbsent(batch.stringColumn(f1)[row], k -> new ArrayList<>()).add(t);
+                }
+            }
+        }
+        built = true;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchHashEquiJoin not yet open");
+        }
+        if (!built) {
+            build();
+        }
+        out.clear();
+        final int f2 = pred.getField2();
+        while (!out.isFull()) {
+            if (probe == null || probePos >= probe.numSelected()) {
+                probe = child2.nextBatch();
+                if (probe == null) {
+                    break;
+                }
+                probePos = 0;
+                startProbe(f2);
+            }
+            final int row = probe.selectedRow(probePos);
+            if (intKeys) {
+                while (chainPos != -1 && !out.isFull()) {
+                    emit(intTable.tuple(chainPos), row);
+                    chainPos = intTable.next(chainPos);
+                }
+                if (chainPos != -1) {
+                    break;
+                }
+            } else if (stringMatches != null) {
+                while (chainPos < stringMatches.size() && !out.isFull()) {
+                    emit(stringMatches.get(chainPos++), row);
+                }
+                if (chainPos < stringMatches.size()) {
+                    break;
+                }
+            }
+            probePos++;
+            if (probePos < probe.numSelected()) {
+                startProbe(f2);
+            }
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    /**
+     * Look up the matches of the probe row at probePos.
+     */
+    private void startProbe(int f2) {
+        final int row = probe.selectedRow(probePos);
+        if (intKeys) {
+            chainPos = intTable.first(probe.intColumn(f2)[row]);
+        } else {
+            stringMatches = stringTable.get(probe.stringColumn(f2)[row]);
+            chainPos = 0;
+        }
+    }
+
+    private void emit(Tuple left, int probeRow) {
+        final int row = out.addRow();
+        final int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            out.setField(i, row, left.getField(i));
+        }
+        final TupleDesc td2 = probe.getTupleDesc();
+        for (int i = 0; i < td2.numFields(); i++) {
+            if (td2.getFieldType(i) == Type.INT_TYPE) {
+                out.intColumn(n1 + i)[row] = probe.intColumn(i)[probeRow];
+            } else {
+                out.stringColumn(n1 + i)[row] = probe.stringColumn(i)[probeRow];
+            }
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the hash table stays valid; only the probe side is read again
+        child2.rewind();
+        probe = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        intTable = null;
+        stringTable = null;
+        stringMatches = null;
+        probe = null;
+        out = null;
+    }
+}
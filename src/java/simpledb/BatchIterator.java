@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link OpIterator}:
+ * each call hands over a whole {@link TupleBatch} of rows in columnar form,
+ * so the per-row cost of an operator is a loop over primitive arrays rather
+ * than a virtual call and a Tuple allocation.
+ * <p>
+ * Batch plans meet row plans through two adapters: {@link BatchAdapter}
+ * presents an OpIterator as a BatchIterator, and {@link RowAdapter} presents
+ * a BatchIterator as an OpIterator.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before nextBatch().
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open()
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. A producer may reuse one batch across calls, so
+     * the batch is only valid until the next call to nextBatch(), rewind()
+     * or close().
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchIterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}. A projected
+ * batch shares the column arrays and selection vector of its input, so
+ * projection costs nothing per row.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * @param fieldList
+     *            The ids of the fields child's tupleDesc to project out
+     * @param types
+     *            the types of the fields in the final projection
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, Type[] types, BatchIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        final String[] names = new String[fieldList.size()];
+        final TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < outFieldIds.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            names[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        final TupleBatch in = child.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        final int[][] ints = new int[outFieldIds.length][];
+        final String[][] strings = new String[outFieldIds.length][];
+        final int[] selection = new int[in.numSelected()];
+        for (int i = 0; i < outFieldIds.length; i++) {
+            if (in.getTupleDesc().getFieldType(outFieldIds[i]) == Type.INT_TYPE) {
+                ints[i] = in.intColumn(outFieldIds[i]);
+            } else {
+                strings[i] = in.stringColumn(outFieldIds[i]);
+            }
+        }
+        for (int i = 0; i < selection.length; i++) {
+            selection[i] = in.selectedRow(i);
+        }
+        return new TupleBatch(td, in.capacity(), ints, strings, in.size(), selection, selection.length);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        child.close();
+    }
+}
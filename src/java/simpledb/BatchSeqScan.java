@@ -0,0 +1,118 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch counterpart of {@link SeqScan}. For a
+ * {@link HeapFile} it decodes each page straight into the columns of a
+ * {@link TupleBatch}, never building a Tuple; other files are read through
+ * a SeqScan and packed into batches.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int capacity;
+    private final TupleDesc td;
+    private transient HeapFile heapFile;
+    private transient BatchAdapter fallback;
+    private transient TupleBatch batch;
+    private transient BufferRing ring;
+    private transient int pgno;
+    private transient int slot;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tableAlias
+     *            the alias of this table, used as the prefix of the field
+     *            names as in {@link SeqScan}
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias) {
+        this(tid, tableId, tableAlias, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows per batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias, int capacity) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.capacity = capacity;
+        final TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        final Type[] types = new Type[tableTd.numFields()];
+        final String[] names = new String[tableTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = tableAlias + "." + tableTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableId) {
+        this(tid, tableId, Database.getCatalog().getTableName(tableId));
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        final DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile) {
+            heapFile = (HeapFile) file;
+            batch = new TupleBatch(td, capacity);
+            final BufferPool bufferPool = Database.getBufferPool();
+            ring = BufferRing.useFor(heapFile.numPages(), bufferPool.getNumPages()) ? new BufferRing() : null;
+            pgno = 0;
+            slot = 0;
+        } else {
+            fallback = new BatchAdapter(new SeqScan(tid, tableId, tableAlias), capacity);
+            fallback.open();
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            return fallback.nextBatch();
+        }
+        if (batch == null) {
+            throw new IllegalStateException("BatchSeqScan not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull() && pgno < heapFile.numPages()) {
+            final HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableId, pgno), Permissions.READ_ONLY, ring);
+            slot = page.copyInto(batch, slot);
+            if (slot >= page.numSlots) {
+                pgno++;
+                slot = 0;
+            }
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            fallback.rewind();
+        }
+        pgno = 0;
+        slot = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+            fallback = null;
+        }
+        heapFile = null;
+        batch = null;
+        ring = null;
+    }
+}
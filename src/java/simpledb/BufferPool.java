@@ -1,13 +1,10 @@
 package simpledb;
 
-import com.google.common.collect.EvictingQueue;
-import com.sun.tools.javac.util.Pair;
-
-import javax.xml.crypto.Data;
 import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -18,6 +15,16 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Resident pages live in a concurrent page table, so a hit never takes a
+ * pool-wide monitor. Misses on the same page are serialized on one of
+ * {@link #LOCK_STRIPES} striped locks, so a page is read from disk at most
+ * once, while misses on different pages load in parallel. Which page gives
+ * up its frame is decided by a pluggable {@link EvictionPolicy}.
+ * <p>
+ * Once the pool starts to fill, a background {@link PageCleaner} writes
+ * dirty pages ahead of eviction, so that a thread needing a frame usually
+ * finds a clean victim instead of writing one synchronously.
  * 
  * @Threadsafe, all fields are final
  */
@@ -31,22 +38,61 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Number of striped locks used to serialize misses on the same page. */
+    static final int LOCK_STRIPES = 64;
+
     private final int numPage;
-    private final HashMap<PageId, Page> buffer;
-    private final EvictingQueue<PageId> evictPidQueue;
-    private int nextId;
+    private final ConcurrentHashMap<PageId, Page> buffer;
+    private final EvictionPolicy evictionPolicy;
+    private final Object[] loadLocks;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong ringHits = new AtomicLong();
+    private final AtomicLong ringMisses = new AtomicLong();
+    // the cleaner has its own lock, so asking for background writes never
+    // waits for the pool monitor
+    private final Object cleanerLock = new Object();
+    private PageCleaner cleaner; // started on first use; protected by cleanerLock
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replaced with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy deciding which page to evict;
+     *               it must be able to track numPages pages.
+     * @see ClockEvictionPolicy
+     * @see LruKEvictionPolicy
+     * @see TwoQEvictionPolicy
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
     	this.numPage = numPages;
-    	this.evictPidQueue = EvictingQueue.create(numPage);
-    	buffer = new HashMap<>();
+    	this.evictionPolicy = policy;
+    	this.buffer = new ConcurrentHashMap<>();
+    	this.loadLocks = new Object[LOCK_STRIPES];
+    	for (int i = 0; i < LOCK_STRIPES; i++) {
+    	    loadLocks[i] = new Object();
+        }
     }
     
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+        return numPage;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -78,19 +124,134 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    	if(buffer.containsKey(pid)){
-    	    return buffer.get(pid);
+        Page page = buffer.get(pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            evictionPolicy.recordAccess(pid);
+            return page;
+        }
+        synchronized (loadLockFor(pid)) {
+            // another thread may have loaded the page while we waited
+            page = buffer.get(pid);
+            if (page != null) {
+                hits.incrementAndGet();
+                evictionPolicy.recordAccess(pid);
+                return page;
+            }
+            misses.incrementAndGet();
+            final DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            page = databaseFile.readPage(pid);
+            admit(page);
+            return page;
+        }
+    }
+
+    /**
+     * Retrieve the specified page for a bulk read. A page that is already
+     * resident in the pool is returned from the pool; otherwise it is looked
+     * up in, or read from disk into, the caller's private ring and is not
+     * admitted to the pool, so the scan cannot evict other queries' pages.
+     * <p>
+     * Only READ_ONLY requests are served from the ring; any other request,
+     * or a null ring, behaves exactly like
+     * {@link #getPage(TransactionId, PageId, Permissions)}.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's private ring, or null to use the main pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return getPage(tid, pid, perm);
+        }
+        Page page = buffer.get(pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            evictionPolicy.recordAccess(pid);
+            return page;
         }
-        final DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        final Page page = databaseFile.readPage(pid);
-        if(evictPidQueue.remainingCapacity() == 0){
-        	evictPage();
+        page = ring.get(pid);
+        if (page != null) {
+            ringHits.incrementAndGet();
+            return page;
         }
-        this.buffer.put(pid, page);
-        this.evictPidQueue.add(pid);
+        ringMisses.incrementAndGet();
+        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        ring.put(page);
         return page;
     }
 
+    private Object loadLockFor(PageId pid) {
+        return loadLocks[(pid.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * Make room for a page that is not yet resident and put it in the page
+     * table. Only frame accounting happens under the pool monitor; the page
+     * itself has already been read.
+     */
+    private synchronized void admit(Page page) throws DbException {
+        if (buffer.size() >= cleanerThreshold()) {
+            getCleaner();
+        }
+        while (buffer.size() >= numPage) {
+            evictPage();
+        }
+        buffer.put(page.getId(), page);
+        evictionPolicy.recordInsert(page.getId());
+    }
+
+    /**
+     * @return the number of requests served from the main pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests that read a page from disk into the
+     *         main pool
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of bulk-read requests served from a scan's ring
+     */
+    public long getRingHitCount() {
+        return ringHits.get();
+    }
+
+    /**
+     * @return the number of bulk-read requests that read a page from disk
+     *         into a scan's ring
+     */
+    public long getRingMissCount() {
+        return ringMisses.get();
+    }
+
+    /**
+     * @return the fraction of main-pool requests that were hits, or 0 if
+     *         there were none. Bulk reads served through a ring do not
+     *         count.
+     */
+    public double getHitRate() {
+        final long h = hits.get();
+        final long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /** Reset all hit/miss counters to zero. */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        ringHits.set(0);
+        ringMisses.set(0);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -145,6 +306,7 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages.
+     * The tuple's entries are added to every secondary index on the table.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -154,10 +316,13 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         final DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
         final ArrayList<Page> pages = databaseFile.insertTuple(tid, t);
-        pages.forEach(page->{
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            pages.addAll(index.insertEntry(tid, t));
+        }
+        for (Page page : pages) {
             page.markDirty(true, tid);
             addToBuffer(page);
-        });
+        }
     }
 
     /**
@@ -169,36 +334,34 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * The tuple's entries are removed from every secondary index on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        final DbFile databaseFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        final ArrayList<Page> pages = databaseFile.deleteTuple(tid, t);
-        pages.forEach(page->{
+        final int tableId = t.getRecordId().getPageId().getTableId();
+        final DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
+        final ArrayList<Page> pages = new ArrayList<>();
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            pages.addAll(index.deleteEntry(tid, t));
+        }
+        pages.addAll(databaseFile.deleteTuple(tid, t));
+        for (Page page : pages) {
             page.markDirty(true, tid);
             addToBuffer(page);
-        });
+        }
     }
 
-    private void addToBuffer(Page page) {
-        if(buffer.containsKey(page.getId())){
-            evictPidQueue.remove(page.getId());
-            evictPidQueue.add(page.getId());
-            buffer.put(page.getId(), page);
-            return;
-        }
-        if(evictPidQueue.remainingCapacity() == 0){
-            try {
-                evictPage();
-            } catch (DbException e) {
-                e.printStackTrace();
+    private void addToBuffer(Page page) throws DbException {
+        synchronized (loadLockFor(page.getId())) {
+            if (buffer.replace(page.getId(), page) != null) {
+                evictionPolicy.recordAccess(page.getId());
+                return;
             }
+            admit(page);
         }
-        evictPidQueue.add(page.getId());
-        buffer.put(page.getId(), page);
     }
 
     /**
@@ -207,13 +370,48 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-    	this.buffer.forEach((pageId, page) -> {
+        final Set<Integer> written = new HashSet<>();
+        for (PageId pid : buffer.keySet()) {
+            if (flushPage(pid)) {
+                written.add(pid.getTableId());
+            }
+        }
+        syncFiles(written);
+    }
+
+    /**
+     * Sync the given tables, forcing the pages written to them once per
+     * table; see {@link DbFile#sync}.
+     */
+    static void syncFiles(Collection<Integer> tableIds) throws IOException {
+        final Catalog catalog = Database.getCatalog();
+        for (int tableId : tableIds) {
+            final DbFile file;
             try {
-                flushPage(pageId);
-            } catch (IOException e) {
-                e.printStackTrace();
+                file = catalog.getDatabaseFile(tableId);
+            } catch (NoSuchElementException e) {
+                // dropped meanwhile; closing it synced it
+                continue;
+            }
+            file.sync();
+        }
+    }
+
+    /**
+     * Sync every table in the catalog, and their secondary indexes; see
+     * {@link DbFile#sync}.
+     */
+    static void syncAllFiles() throws IOException {
+        final Catalog catalog = Database.getCatalog();
+        final List<Integer> tableIds = new ArrayList<>();
+        for (Iterator<Integer> it = catalog.tableIdIterator(); it.hasNext(); ) {
+            final int tableId = it.next();
+            tableIds.add(tableId);
+            for (SecondaryIndex index : catalog.getIndexes(tableId)) {
+                tableIds.add(index.getFile().getId());
             }
-        });
+        }
+        syncFiles(tableIds);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -225,19 +423,123 @@ public class BufferPool {
      are removed from the cache so they can be reused safely
      */
     public synchronized void discardPage(PageId pid) {
-    	buffer.remove(pid);
+    	if (buffer.remove(pid) != null) {
+    	    evictionPolicy.remove(pid);
+        }
+    }
+
+    /**
+     * Remove every cached page of the given table from the buffer pool,
+     * without writing dirty ones. Used when a file is rebuilt underneath
+     * the pool, e.g. by a bulk load.
+     */
+    public synchronized void discardPages(int tableId) {
+        for (PageId pid : buffer.keySet()) {
+            if (pid.getTableId() == tableId) {
+                discardPage(pid);
+            }
+        }
+    }
+
+    /**
+     * Write the given pages on the background {@link PageCleaner}, in page
+     * order, without waiting for the writes. Used by fuzzy checkpoints to
+     * move the recovery redo point forward.
+     *
+     * @param pids the pages to write; those that are not resident or not
+     *             dirty when their turn comes are skipped
+     */
+    public void writeInBackground(Collection<PageId> pids) {
+        getCleaner().request(pids);
+    }
+
+    /** @return the number of resident pages at which the cleaner starts:
+        from then on fewer than its default target of frames are free */
+    private int cleanerThreshold() {
+        return numPage - (int) Math.ceil(numPage * PageCleaner.DEFAULT_TARGET_CLEAN_PERCENT / 100.0);
+    }
+
+    /**
+     * @return the resident pages that are dirty
+     */
+    List<Page> getDirtyPages() {
+        final List<Page> dirty = new ArrayList<>();
+        for (Page page : buffer.values()) {
+            if (page.isDirty() != null) {
+                dirty.add(page);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * @return the background writer of this pool, starting it if needed
+     */
+    public PageCleaner getCleaner() {
+        synchronized (cleanerLock) {
+            if (cleaner == null) {
+                cleaner = new PageCleaner(this);
+            }
+            return cleaner;
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Stop the background writer, if it was started, without writing the
+     * pages still queued. Called when the pool is thrown away.
+     */
+    public void stopCleaner() {
+        final PageCleaner c;
+        synchronized (cleanerLock) {
+            c = cleaner;
+            cleaner = null;
+        }
+        if (c != null) {
+            c.stop();
+        }
+    }
+
+    /**
+     * Flushes a certain page to disk. The write is not forced; the caller
+     * syncs the page's file once for a batch of flushes, see
+     * {@link DbFile#sync}. An evicted page is synced with the next batch
+     * that syncs its file, and until then it stays in the log's dirty page
+     * table, so recovery redoes its changes.
      * @param pid an ID indicating the page to flush
+     * @return true if the page was resident and dirty, and was written
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    synchronized boolean flushPage(PageId pid) throws IOException {
         final Page page1 = this.buffer.get(pid);
-        if(page1.isDirty()!=null){
+        if(page1 != null && page1.isDirty()!=null){
             final DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            databaseFile.writePage(page1);
+            // the page latch keeps a change from being made between taking
+            // the LSN and serializing the image; see Page.setLSN
+            synchronized (page1) {
+                if (changing(pid)) {
+                    return false;
+                }
+                final long lsn = page1.getLSN();
+                // write-ahead: the log records of the page's changes reach disk first
+                Database.getLogFile().forceUpTo(lsn);
+                databaseFile.writePage(page1);
+                page1.markDirty(false, null);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the page is a B+ tree page in the middle of an
+     *         insert or delete that has not logged its changes yet, which
+     *         must not be written; see {@link BTreeFile#isChanging}
+     */
+    private static boolean changing(PageId pid) {
+        if (!(pid instanceof BTreePageId)) {
+            return false;
         }
+        final DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        return file instanceof BTreeFile && ((BTreeFile) file).isChanging((BTreePageId) pid);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -252,16 +554,31 @@ public class BufferPool {
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
     private synchronized  void evictPage() throws DbException {
-        final PageId pid = evictPidQueue.remove();
-        final Page page1 = this.buffer.get(pid);
-        if(page1.isDirty()!=null){
-            try {
-                flushPage(pid);
-            } catch (IOException e) {
-                e.printStackTrace();
+        // pages in the middle of an unlogged change cannot be written, so
+        // they are passed over and handed back to the policy
+        final List<PageId> skipped = new ArrayList<>();
+        try {
+            PageId pid;
+            while ((pid = evictionPolicy.evict()) != null) {
+                final Page page = buffer.get(pid);
+                try {
+                    flushPage(pid);
+                } catch (IOException e) {
+                    throw new DbException("failed to flush evicted page " + pid + ": " + e.getMessage());
+                }
+                if (page != null && page.isDirty() != null) {
+                    skipped.add(pid);
+                    continue;
+                }
+                this.buffer.remove(pid);
+                return;
+            }
+            throw new DbException("no page to evict");
+        } finally {
+            for (PageId s : skipped) {
+                evictionPolicy.recordInsert(s);
             }
         }
-        this.buffer.remove(pid);
     }
 
 }
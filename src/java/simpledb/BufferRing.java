@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * BufferRing is a small, private set of frames used by a bulk read (e.g. a
+ * {@link SeqScan} over a table much larger than the {@link BufferPool}).
+ * Pages the scan has to read from disk are kept in the ring instead of the
+ * main pool and are recycled round-robin, so one big scan cannot flush the
+ * index and lookup pages that every other query depends on.
+ * <p>
+ * A ring belongs to a single iterator and is not shared between threads.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /** Default number of frames in a ring. */
+    public static final int DEFAULT_SIZE = 16;
+
+    private final Page[] frames;
+    private final HashMap<PageId, Integer> frameOf;
+    private int next;
+
+    /**
+     * Creates a ring with {@link #DEFAULT_SIZE} frames.
+     */
+    public BufferRing() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size the number of frames in this ring
+     */
+    public BufferRing(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("ring must have at least one frame");
+        }
+        this.frames = new Page[size];
+        this.frameOf = new HashMap<>();
+        this.next = 0;
+    }
+
+    /**
+     * Returns true if a table of the given size should be read through a
+     * ring rather than the main pool: it does when the table cannot fit in
+     * the pool, since scanning it through the pool would only cycle every
+     * frame without ever producing a hit.
+     *
+     * @param tablePages the number of pages the bulk read will touch
+     * @param poolPages the number of frames in the buffer pool
+     */
+    public static boolean useFor(int tablePages, int poolPages) {
+        return tablePages > poolPages;
+    }
+
+    /**
+     * @return the page with the given id if it is held in this ring,
+     *         otherwise null
+     */
+    public Page get(PageId pid) {
+        final Integer frame = frameOf.get(pid);
+        return frame == null ? null : frames[frame];
+    }
+
+    /**
+     * Put a page into the next frame of the ring, replacing whatever page
+     * that frame held.
+     */
+    public void put(Page page) {
+        final Page old = frames[next];
+        if (old != null) {
+            frameOf.remove(old.getId());
+        }
+        frames[next] = page;
+        frameOf.put(page.getId(), next);
+        next = (next + 1) % frames.length;
+    }
+
+    /**
+     * @return the number of frames in this ring
+     */
+    public int size() {
+        return frames.length;
+    }
+
+    /** Drop every page held by this ring. */
+    public void clear() {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = null;
+        }
+        frameOf.clear();
+        next = 0;
+    }
+}
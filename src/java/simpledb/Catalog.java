@@ -8,6 +8,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -24,6 +25,7 @@ public class Catalog {
 	final List<DbFile> files;
 	final List<String> names;
 	final List<String> pkeyFields;
+	final Map<Integer, List<SecondaryIndex>> indexes;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -32,6 +34,7 @@ public class Catalog {
         files = new ArrayList<>();
         names = new ArrayList<>();
         pkeyFields = new ArrayList<>();
+        indexes = new ConcurrentHashMap<>();
     }
 
     /**
@@ -41,6 +44,7 @@ public class Catalog {
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      * conflict exists, use the last table to be added as the table for a given name.
+     * The file handles of a replaced DbFile are released.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
@@ -49,7 +53,7 @@ public class Catalog {
             for (int j = 0; j < files.size(); j++) {
                 if(files.get(j).getId() == file.getId()){
                 	names.set(j, name);
-                	files.set(j, file);
+                	closeFile(files.set(j, file), file);
                 	pkeyFields.set(j, pkeyField);
                 	return;
                 }
@@ -58,11 +62,26 @@ public class Catalog {
             names.add(name);
             pkeyFields.add(pkeyField);
         }else{
-        	files.set(i, file);
+        	closeFile(files.set(i, file), file);
         	pkeyFields.set(i, pkeyField);
         }
     }
 
+    /**
+     * Release the handles of a DbFile that is no longer in the catalog,
+     * unless it is being replaced by itself.
+     */
+    private void closeFile(DbFile old, DbFile replacement) {
+        if (old == replacement) {
+            return;
+        }
+        try {
+            old.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -98,12 +117,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        final Stream<DbFile> pairStream = files.stream().filter(it -> it.getId() == tableid);
-        final Optional<DbFile> first = pairStream.findFirst();
-        if(first.isPresent()){
-            return first.get().getTupleDesc();
-        }
-        throw new NoSuchElementException();
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -118,6 +132,59 @@ public class Catalog {
         if(first.isPresent()){
             return first.get();
         }
+        for (List<SecondaryIndex> list : indexes.values()) {
+            for (SecondaryIndex index : list) {
+                if (index.getFile().getId() == tableid) {
+                    return index.getFile();
+                }
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Register a secondary index on a table. From now on the index is kept
+     * up to date by BufferPool.insertTuple and deleteTuple, and its pages
+     * can be read through the BufferPool: {@link #getDatabaseFile} resolves
+     * the id of the index file.
+     * @param index the index to add; it must hold an entry for every tuple
+     *    already in the table (see {@link SecondaryIndex#build})
+     */
+    public void addIndex(SecondaryIndex index) {
+        indexes.computeIfAbsent(index.getTableId(), k -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * Stop maintaining a secondary index and release its file handles.
+     */
+    public void removeIndex(SecondaryIndex index) {
+        final List<SecondaryIndex> list = indexes.get(index.getTableId());
+        if (list != null && list.remove(index)) {
+            closeFile(index.getFile(), null);
+        }
+    }
+
+    /**
+     * Returns the secondary indexes on the specified table, in the order they
+     * were added; empty if it has none.
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        final List<SecondaryIndex> list = indexes.get(tableid);
+        return list == null ? Collections.<SecondaryIndex>emptyList() : list;
+    }
+
+    /**
+     * Returns the secondary index with the specified name.
+     * @throws NoSuchElementException if there is no such index
+     */
+    public SecondaryIndex getIndex(String name) throws NoSuchElementException {
+        for (List<SecondaryIndex> list : indexes.values()) {
+            for (SecondaryIndex index : list) {
+                if (index.getName().equals(name)) {
+                    return index;
+                }
+            }
+        }
         throw new NoSuchElementException();
     }
 
@@ -144,8 +211,17 @@ public class Catalog {
         return "";
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, releasing their file handles */
     public void clear() {
+        for (DbFile file : files) {
+            closeFile(file, null);
+        }
+        for (List<SecondaryIndex> list : indexes.values()) {
+            for (SecondaryIndex index : list) {
+                closeFile(index.getFile(), null);
+            }
+        }
+        this.indexes.clear();
     	this.files.clear();
     	this.pkeyFields.clear();
     	this.names.clear();
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement. Each frame carries a reference bit that
+ * is set on every hit; the clock hand sweeps the frames, clearing set bits
+ * and evicting the first page whose bit is already clear.
+ * <p>
+ * A hit only looks the frame up in a concurrent map and sets its bit, so
+ * readers never block each other or the sweeping hand.
+ *
+ * @Threadsafe
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final PageId[] frames;
+    private final AtomicIntegerArray referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * @param capacity the maximum number of pages tracked at once; should be
+     *                 the number of frames in the buffer pool.
+     */
+    public ClockEvictionPolicy(int capacity) {
+        this.frames = new PageId[capacity];
+        this.referenced = new AtomicIntegerArray(capacity);
+        this.frameOf = new ConcurrentHashMap<>();
+        this.freeFrames = new ArrayDeque<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeFrames.add(i);
+        }
+        this.hand = 0;
+    }
+
+    public void recordAccess(PageId pid) {
+        final Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, 1);
+        }
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        final Integer frame = freeFrames.poll();
+        if (frame == null) {
+            throw new IllegalStateException("no free frame for page " + pid);
+        }
+        frames[frame] = pid;
+        referenced.set(frame, 1);
+        frameOf.put(pid, frame);
+    }
+
+    public synchronized void remove(PageId pid) {
+        final Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced.set(frame, 0);
+            freeFrames.add(frame);
+        }
+    }
+
+    public synchronized PageId evict() {
+        if (frameOf.isEmpty()) {
+            return null;
+        }
+        // two full sweeps always find a victim: the first one clears every bit
+        for (int i = 0; i <= 2 * frames.length; i++) {
+            final int frame = hand;
+            hand = (hand + 1) % frames.length;
+            final PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(frame, 0) == 0) {
+                remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -11,4 +11,6 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** The method chosen for the last join of the subplan */
+    public JoinOptimizer.JoinMethod method;
 }
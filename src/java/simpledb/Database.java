@@ -56,6 +56,7 @@ public class Database {
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        _instance.get()._bufferpool.stopCleaner();
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -75,7 +76,10 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        final Database old = _instance.getAndSet(new Database());
+        old._bufferpool.stopCleaner();
+        // release the file handles held by the tables of the old catalog
+        old._catalog.clear();
     }
 
 }
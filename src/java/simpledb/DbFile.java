@@ -28,6 +28,28 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Force the pages written since the last call to disk, then record their
+     * page LSNs and tell the log they no longer need redo. writePage does
+     * not force each page on its own; callers sync once per batch of
+     * writes, e.g. a {@link PageCleaner} batch or a checkpoint.
+     *
+     * @throws IOException if the file cannot be forced
+     */
+    public default void sync() throws IOException {
+    }
+
+    /**
+     * Release any operating system resources (such as open file handles)
+     * held by this file. Called by the {@link Catalog} when the table is
+     * dropped or replaced. Files reopen their resources lazily, so calling
+     * any other method afterwards is still valid.
+     *
+     * @throws IOException if the resources cannot be released
+     */
+    public default void close() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * DbFileChannel is the long-lived handle a {@link DbFile} uses for page I/O.
+ * It keeps one {@link FileChannel} open for the lifetime of the file and
+ * reads and writes with positional I/O, so concurrent readers never contend
+ * on a shared file pointer and a cache miss costs a single pread instead of
+ * an open/seek/read/close sequence.
+ * <p>
+ * The channel is opened lazily and transparently reopened if it was closed
+ * (by {@link #close} when the {@link Catalog} drops the table, or by an
+ * interrupt of a thread that was doing I/O on it).
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    private final File file;
+    private volatile FileChannel channel;
+
+    /**
+     * @param file the file backing this channel; it is created on first use
+     *             if it does not exist
+     */
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = new RandomAccessFile(file, "rw").getChannel();
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Read up to buf.length bytes starting at the given file offset. Bytes
+     * past the end of the file are left untouched.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the
+     *         end of the file
+     */
+    public int read(byte[] buf, long position) throws IOException {
+        final FileChannel ch = channel();
+        final ByteBuffer bb = ByteBuffer.wrap(buf);
+        int total = 0;
+        while (bb.hasRemaining()) {
+            final int n = ch.read(bb, position + total);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Write all of data at the given file offset, extending the file if
+     * needed.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        final FileChannel ch = channel();
+        final ByteBuffer bb = ByteBuffer.wrap(data);
+        long pos = position;
+        while (bb.hasRemaining()) {
+            pos += ch.write(bb, pos);
+        }
+    }
+
+    /**
+     * Append data at the current end of the file.
+     *
+     * @return the offset at which data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        final long position = channel().size();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Map a region of the file read-only into memory. The mapping stays
+     * valid after this channel is closed and reflects later writes made
+     * through this channel.
+     *
+     * @param position the file offset at which the mapped region starts
+     * @param size the length of the mapped region in bytes
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /**
+     * Cut the file down to the given size.
+     */
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /**
+     * Force any written data to the storage device.
+     */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /**
+     * Release the underlying file descriptor. A later read or write reopens
+     * it.
+     */
+    public synchronized void close() throws IOException {
+        final FileChannel ch = channel;
+        channel = null;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the {@link BufferPool} should
+ * give up when it needs a free frame.
+ * <p>
+ * The BufferPool reports every hit through {@link #recordAccess}, every newly
+ * admitted page through {@link #recordInsert} and every page it drops on its
+ * own (e.g. {@link BufferPool#discardPage}) through {@link #remove}.
+ * Implementations must be safe to call from many threads at once; the hit
+ * path ({@link #recordAccess}) in particular should be cheap since it runs on
+ * every {@link BufferPool#getPage} call.
+ *
+ * @see ClockEvictionPolicy
+ * @see LruKEvictionPolicy
+ * @see TwoQEvictionPolicy
+ * @Threadsafe
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Record a buffer pool hit on a page that is already tracked.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void recordAccess(PageId pid);
+
+    /**
+     * Start tracking a page that was just admitted into the buffer pool.
+     *
+     * @param pid the id of the newly resident page
+     */
+    public void recordInsert(PageId pid);
+
+    /**
+     * Stop tracking a page that left the buffer pool without being chosen
+     * as a victim.
+     *
+     * @param pid the id of the page that left the pool
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Choose a victim among the tracked pages and stop tracking it.
+     *
+     * @return the id of the page to evict, or null if no page is tracked
+     */
+    public PageId evict();
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exchange is the base class of operators that move tuples between threads,
+ * such as {@link Gather}. Exchanges are the only operators that start
+ * threads: everything below an exchange runs on a worker, everything above
+ * it on the thread that called next().
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Threads shared by every exchange. A plan fragment may block while its
+     * consumer catches up, so the pool grows on demand rather than queueing
+     * fragments behind blocked ones; the threads are daemons so that an
+     * abandoned query cannot keep the JVM alive.
+     */
+    static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "exchange-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Default number of fragments a parallel plan is split into. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return a short name for this exchange, used when printing plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return true if some operator of the plan runs on worker threads,
+     *         which the optimizer takes as a sign that its input is large
+     */
+    public static boolean isParallel(OpIterator plan) {
+        if (plan instanceof Exchange || plan instanceof ParallelHashEquiJoin
+                || plan instanceof ParallelAggregate) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && isParallel(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * An external sort of a stream of tuples. Tuples are added one at a time and
+ * kept in memory until there are maxTuples of them; from then on each
+ * maxTuples-sized chunk is sorted and written out as a {@link SortRun}.
+ * {@link #finish} sorts what is left and merges the runs down to at most
+ * {@link OrderBy#MAX_FAN_IN}, and {@link #iterator} then returns the tuples
+ * in order, from memory or through a {@link RunMerger}. Memory holds at most
+ * maxTuples tuples plus one page per run being merged.
+ */
+class ExternalSort {
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxTuples;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    // sorted runs on disk, empty if the input was sorted in memory
+    private ArrayList<SortRun> runs = new ArrayList<SortRun>();
+    private RunMerger merger;
+    private int size;
+
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int maxTuples) {
+        this.td = td;
+        this.comparator = comparator;
+        this.maxTuples = maxTuples;
+    }
+
+    /**
+     * Add a tuple, spilling the tuples in memory as a run if there is no
+     * room for it.
+     */
+    public void add(Tuple t) throws DbException {
+        if (tuples.size() >= maxTuples)
+            writeRun();
+        tuples.add(t);
+        size++;
+    }
+
+    /**
+     * Finish the input: sort the tuples in memory and, if runs were spilled,
+     * write them as a last run and merge until at most MAX_FAN_IN are left.
+     */
+    public void finish() throws DbException {
+        Collections.sort(tuples, comparator);
+        if (!runs.isEmpty()) {
+            if (!tuples.isEmpty())
+                writeRun();
+            while (runs.size() > OrderBy.MAX_FAN_IN)
+                mergePass();
+        }
+    }
+
+    /**
+     * @return the number of tuples added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of sorted runs on disk
+     */
+    public int getNumRuns() {
+        return runs.size();
+    }
+
+    private void writeRun() throws DbException {
+        Collections.sort(tuples, comparator);
+        SortRun run = new SortRun(td);
+        for (Tuple t : tuples)
+            run.add(t);
+        runs.add(run);
+        tuples.clear();
+    }
+
+    /**
+     * Merge the runs in groups of MAX_FAN_IN, leaving fewer, longer runs.
+     */
+    private void mergePass() throws DbException {
+        ArrayList<SortRun> merged = new ArrayList<SortRun>();
+        for (int i = 0; i < runs.size(); i += OrderBy.MAX_FAN_IN) {
+            List<SortRun> group = runs.subList(i, Math.min(i + OrderBy.MAX_FAN_IN, runs.size()));
+            SortRun out = new SortRun(td);
+            RunMerger m = new RunMerger(group, comparator);
+            while (m.hasNext())
+                out.add(m.next());
+            m.close();
+            for (SortRun run : group)
+                run.delete();
+            merged.add(out);
+        }
+        runs = merged;
+    }
+
+    /**
+     * Return an iterator over the sorted tuples; each call starts over.
+     * Call {@link #finish} first.
+     */
+    public Iterator<Tuple> iterator() throws DbException {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs.isEmpty())
+            return tuples.iterator();
+        merger = new RunMerger(runs, comparator);
+        return merger;
+    }
+
+    /**
+     * Drop the tuples and delete the runs.
+     */
+    public void close() {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        for (SortRun run : runs)
+            run.delete();
+        runs.clear();
+        tuples.clear();
+    }
+}
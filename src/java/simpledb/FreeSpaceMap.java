@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a {@link HeapFile} have at least one
+ * empty slot, so an insert can go straight to a page with room instead of
+ * probing every page of the table.
+ * <p>
+ * The map is a hint, not part of the table: a page marked free may have been
+ * filled since (the inserter finds out when it looks at the page and clears
+ * the bit), and pages the map knows nothing about, such as pages appended by
+ * someone else or every page of a file whose map was never saved, are
+ * assumed to have room until proven otherwise. The map is kept in a small
+ * sidecar file next to the heap file (the heap file name plus
+ * {@link #SUFFIX}); losing or corrupting it only costs a few extra probes.
+ * <p>
+ * The sidecar is written when the heap file is closed. Its header records
+ * the number of pages it covers and whether it was saved cleanly: the first
+ * change to a loaded map marks the sidecar in use on disk, and only saving
+ * the map marks it clean again. A sidecar left in use by a crash, or
+ * covering a different number of pages than the heap file has, may call
+ * pages full that have been emptied since, and nothing would ever put those
+ * pages back in use, so it is not loaded; see {@link #isStale}.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Suffix appended to the heap file name to name the sidecar file. */
+    public static final String SUFFIX = ".fsm";
+
+    private static final int MAGIC = 0x46534d31;
+    // offset of the clean flag in the sidecar, after the magic number
+    private static final int CLEAN_OFFSET = 4;
+
+    private final File heapFile;
+    private final File file;
+    private final BitSet free;
+    private int knownPages;
+    private boolean dirty;
+    private boolean stale; // the sidecar could not be trusted when loaded
+    private boolean inUse; // the sidecar is marked in use on disk
+
+    /**
+     * Create a free-space map for a heap file, loading the sidecar file if
+     * there is a usable one.
+     *
+     * @param heapFile the data file of the heap file this map describes
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.heapFile = heapFile;
+        this.file = new File(heapFile.getPath() + SUFFIX);
+        this.free = new BitSet();
+        this.knownPages = 0;
+        this.dirty = false;
+        this.stale = false;
+        this.inUse = false;
+        load();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final boolean clean = in.readInt() == MAGIC && in.readBoolean();
+            final int pages = in.readInt();
+            if (!clean || pages != heapPages()) {
+                stale = true;
+                return;
+            }
+            final byte[] bits = new byte[in.readInt()];
+            in.readFully(bits);
+            free.or(BitSet.valueOf(bits));
+            knownPages = pages;
+        } catch (IOException e) {
+            stale = true;
+        }
+    }
+
+    private int heapPages() {
+        return (int) Math.ceil(1.0 * heapFile.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return true if the sidecar file exists but was not saved cleanly, or
+     *         covers a different number of pages than the heap file has, so
+     *         it was not loaded and should be rebuilt from the pages
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Note that the map changed, marking the sidecar in use on disk the
+     * first time, so a crash before the next save leaves it stale.
+     */
+    private void changed() {
+        dirty = true;
+        if (inUse || !file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(CLEAN_OFFSET);
+            raf.writeBoolean(false);
+            raf.getFD().sync();
+            inUse = true;
+        } catch (IOException e) {
+            // a missing sidecar is safe: every page is assumed to have room
+            file.delete();
+        }
+    }
+
+    /**
+     * Mark every page the map has not seen yet as possibly free.
+     */
+    private void extend(int numPages) {
+        if (numPages > knownPages) {
+            free.set(knownPages, numPages);
+            knownPages = numPages;
+            changed();
+        } else if (numPages < knownPages) {
+            // the file shrank (or the sidecar belongs to an older file)
+            free.clear(numPages, knownPages);
+            knownPages = numPages;
+            changed();
+        }
+    }
+
+    /**
+     * Return a page that probably has an empty slot.
+     *
+     * @param numPages the current number of pages in the heap file
+     * @return the page number of a page with room, or -1 if no page is known
+     *         to have room
+     */
+    public synchronized int findPageWithSpace(int numPages) {
+        extend(numPages);
+        final int pgno = free.nextSetBit(0);
+        return pgno < numPages ? pgno : -1;
+    }
+
+    /**
+     * Record whether the given page has an empty slot.
+     */
+    public synchronized void update(int pgno, boolean hasSpace) {
+        if (pgno >= knownPages) {
+            extend(pgno + 1);
+        }
+        if (free.get(pgno) != hasSpace) {
+            free.set(pgno, hasSpace);
+            changed();
+        }
+    }
+
+    /**
+     * Write the map to its sidecar file, marked clean, if it changed since
+     * it was loaded or last saved.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty && !inUse) {
+            return;
+        }
+        // the header must match the heap file, so cover pages appended behind the map's back
+        extend(heapPages());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            final byte[] bits = free.toByteArray();
+            out.writeInt(MAGIC);
+            out.writeBoolean(true);
+            out.writeInt(knownPages);
+            out.writeInt(bits.length);
+            out.write(bits);
+        }
+        dirty = false;
+        inUse = false;
+        stale = false;
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gather runs several plan fragments with the same TupleDesc in parallel,
+ * one worker thread each, and returns the union of their output in no
+ * particular order. A typical fragment is a {@link SeqScan} over a range of
+ * pages of a table, possibly with {@link Filter}s and a partial
+ * {@link Aggregate} on top.
+ * <p>
+ * Workers hand tuples to the consumer in chunks through a bounded queue, so
+ * a slow consumer throttles them instead of buffering the whole result. An
+ * error in any fragment is rethrown by the consumer's next call to
+ * hasNext() or next().
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+    static final int CHUNK_SIZE = 256;
+    static final int QUEUE_CHUNKS = 64;
+
+    private OpIterator[] fragments;
+    private final TupleDesc td;
+    private transient Run run;
+    private transient Iterator<Tuple> current;
+    private transient int running;
+
+    /**
+     * The state one execution of the fragments shares with its workers. A
+     * rewind starts a new Run, so stragglers of the old one cannot leak
+     * tuples into the new one.
+     */
+    private static class Run {
+        static final ArrayList<Tuple> END = new ArrayList<>(0);
+        final BlockingQueue<ArrayList<Tuple>> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        final ArrayList<Future<?>> workers = new ArrayList<>();
+        volatile boolean cancelled;
+        volatile Throwable failure;
+
+        /**
+         * @return false if the run was cancelled before the chunk was queued
+         */
+        boolean put(ArrayList<Tuple> chunk) throws InterruptedException {
+            while (!queue.offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param fragments
+     *            the plans to run in parallel; they must all have the same
+     *            TupleDesc and must not share any operator
+     */
+    public Gather(OpIterator[] fragments) {
+        if (fragments.length == 0) {
+            throw new IllegalArgumentException("Gather needs at least one fragment");
+        }
+        this.fragments = fragments;
+        this.td = fragments[0].getTupleDesc();
+    }
+
+    public String getName() {
+        return "gather(" + fragments.length + ")";
+    }
+
+    private static void produce(OpIterator fragment, Run run) {
+        try {
+            fragment.open();
+            ArrayList<Tuple> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (!run.cancelled && fragment.hasNext()) {
+                chunk.add(fragment.next());
+                if (chunk.size() == CHUNK_SIZE) {
+                    if (!run.put(chunk)) {
+                        return;
+                    }
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                run.put(chunk);
+            }
+        } catch (Throwable e) {
+            if (run.failure == null) {
+                run.failure = e;
+            }
+        } finally {
+            fragment.close();
+            try {
+                run.put(Run.END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    private void start() {
+        run = new Run();
+        current = Collections.emptyIterator();
+        running = fragments.length;
+        for (final OpIterator fragment : fragments) {
+            final Run r = run;
+            run.workers.add(WORKERS.submit(() -> produce(fragment, r)));
+        }
+    }
+
+    /**
+     * Cancel the current run and wait until every worker has closed its
+     * fragment, so that the fragments can safely be opened again.
+     */
+    private void stop() {
+        if (run == null) {
+            return;
+        }
+        run.cancelled = true;
+        run.queue.clear();
+        for (Future<?> worker : run.workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        run = null;
+        current = null;
+    }
+
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        final Throwable failure = run.failure;
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) failure;
+        }
+        if (failure instanceof DbException) {
+            throw (DbException) failure;
+        }
+        final DbException e = new DbException("parallel fragment failed: " + failure);
+        e.initCause(failure);
+        throw e;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (current.hasNext()) {
+                return current.next();
+            }
+            checkFailure();
+            if (running == 0) {
+                return null;
+            }
+            final ArrayList<Tuple> chunk;
+            try {
+                chunk = run.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for parallel fragments");
+            }
+            if (chunk == Run.END) {
+                running--;
+            } else {
+                current = chunk.iterator();
+            }
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return fragments;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.fragments = children;
+    }
+}
@@ -4,6 +4,19 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join: it builds a hash table on child1 and
+ * streams child2 past it. If child1 does not fit in the memory budget, both
+ * sides are split into {@link #PARTITIONS} partitions on the hash of the join
+ * key. Partitions that fit stay in memory and are joined while child2
+ * streams by; the others are spilled to {@link TupleSpillFile}s and joined
+ * pair by pair afterwards, re-partitioning any pair that is still too big.
+ * Each child is read once, whatever its size. Only if a single key
+ * overflows the budget at the deepest level does the join fall back to
+ * rescanning the probe side once per budget-sized chunk of the build side.
+ * <p>
+ * When both join keys are {@link Type#INT_TYPE} the in-memory table is an
+ * {@link IntJoinTable}, which keeps the keys unboxed.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,6 +24,8 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final int maxTuples;
+    private final int level;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
@@ -26,9 +41,25 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     * 
+     * @param maxTuples
+     *            The most child1 tuples to hold in memory at once
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples) {
+        this(p, child1, child2, maxTuples, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxTuples = maxTuples;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -51,50 +82,258 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** Default memory budget, in child1 tuples. */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions each side is split into when child1 spills. */
+    public final static int PARTITIONS = 16;
+    /** Deepest re-partitioning level before falling back to chunked rescans. */
+    final static int MAX_LEVEL = 3;
+
+    // replaces map when both join keys are INT_TYPE
+    transient private IntJoinTable intTable;
+    transient private int inMemory;
+    // true while child2 is being streamed against the in-memory table
+    transient private boolean probing;
+    // set once the deepest level overflows: child1 is then read a chunk at a time
+    transient private boolean chunked;
+    // spill state, null until child1 overflows the budget
+    transient private boolean[] resident;
+    transient private TupleSpillFile[] buildSpill;
+    transient private TupleSpillFile[] probeSpill;
+    transient private int nextPartition;
+    transient private HashEquiJoin partitionJoin;
+
+    /**
+     * Returns the partition of a join key. The level is mixed in so that a
+     * partition that is split again spreads over all partitions.
+     */
+    private int partitionOf(Field key) {
+        return partitionOf(key.hashCode());
+    }
+
+    private int partitionOf(int hash) {
+        int h = hash ^ (level + 1) * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % PARTITIONS;
+    }
+
+    private void put(Field key, Tuple t) {
+        inMemory++;
+        if (intTable != null) {
+            intTable.add(((IntField) key).getValue(), t);
+            return;
+        }
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(key, list);
+        }
+        list.add(t);
+    }
+
+    private void clearTable() {
+        map.clear();
+        if (intTable != null)
+            intTable.clear();
+        inMemory = 0;
+    }
 
+    /**
+     * Read child1 into the hash table, spilling partitions once it overflows
+     * the budget. In chunked mode, stops as soon as the table is full.
+     * 
+     * @return true if any child1 tuples were read
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
-        map.clear();
+        clearTable();
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            cnt++;
+            Field key = t1.getField(pred.getField1());
+            if (resident == null) {
+                put(key, t1);
+                if (inMemory > maxTuples) {
+                    if (chunked || level >= MAX_LEVEL) {
+                        chunked = true;
+                        return true;
+                    }
+                    spill();
+                }
+            } else {
+                int p = partitionOf(key);
+                if (resident[p]) {
+                    put(key, t1);
+                    if (inMemory > maxTuples)
+                        evict(p);
+                } else {
+                    buildSpill[p].add(t1);
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
         }
         return cnt > 0;
+    }
+
+    /**
+     * Switch to partitioned mode: partition 0 stays in memory (if it fits),
+     * every other partition is written out.
+     */
+    private void spill() throws DbException {
+        resident = new boolean[PARTITIONS];
+        buildSpill = new TupleSpillFile[PARTITIONS];
+        probeSpill = new TupleSpillFile[PARTITIONS];
+        Arrays.fill(resident, true);
+        for (int p = 1; p < PARTITIONS; p++)
+            evict(p);
+        if (inMemory > maxTuples)
+            evict(0);
+    }
+
+    /**
+     * Move the in-memory tuples of partition p to its spill file.
+     */
+    private void evict(int p) throws DbException {
+        resident[p] = false;
+        buildSpill[p] = new TupleSpillFile(child1.getTupleDesc());
+        probeSpill[p] = new TupleSpillFile(child2.getTupleDesc());
+        if (intTable != null) {
+            IntJoinTable kept = new IntJoinTable(intTable.size());
+            for (int i = 0; i < intTable.size(); i++) {
+                if (partitionOf(intTable.key(i)) == p)
+                    buildSpill[p].add(intTable.tuple(i));
+                else
+                    kept.add(intTable.key(i), intTable.tuple(i));
+            }
+            intTable = kept;
+            inMemory = kept.size();
+            return;
+        }
+        Iterator<Map.Entry<Object, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, ArrayList<Tuple>> e = it.next();
+            if (partitionOf((Field) e.getKey()) == p) {
+                for (Tuple t : e.getValue())
+                    buildSpill[p].add(t);
+                inMemory -= e.getValue().size();
+                it.remove();
+            }
+        }
+    }
 
+    /**
+     * Open the join of the next pair of spilled partitions that can produce
+     * output.
+     * 
+     * @return false if there are no more partitions
+     */
+    private boolean openNextPartition() throws DbException, TransactionAbortedException {
+        while (nextPartition < PARTITIONS) {
+            int p = nextPartition++;
+            if (resident[p])
+                continue;
+            if (buildSpill[p].size() == 0 || probeSpill[p].size() == 0) {
+                deletePartition(p);
+                continue;
+            }
+            partitionJoin = new HashEquiJoin(pred, buildSpill[p].iterator(),
+                    probeSpill[p].iterator(), maxTuples, level + 1);
+            partitionJoin.open();
+            return true;
+        }
+        return false;
+    }
+
+    private void deletePartition(int p) {
+        if (buildSpill[p] != null) {
+            buildSpill[p].delete();
+            buildSpill[p] = null;
+        }
+        if (probeSpill[p] != null) {
+            probeSpill[p].delete();
+            probeSpill[p] = null;
+        }
+    }
+
+    /**
+     * Drop the hash table and every spill file.
+     */
+    private void reset() {
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        if (resident != null) {
+            for (int p = 0; p < PARTITIONS; p++)
+                deletePartition(p);
+        }
+        resident = null;
+        buildSpill = null;
+        probeSpill = null;
+        chunked = false;
+        probing = false;
+        nextPartition = 0;
+        clearTable();
+        listIt = null;
+        intMatch = -1;
+        t1 = null;
+        t2 = null;
+    }
+
+    /**
+     * @return true if child1 overflowed the budget and was partitioned to disk
+     */
+    public boolean isSpilled() {
+        return resident != null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
+        reset();
+        boolean intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        intTable = intKeys ? new IntJoinTable() : null;
         loadMap();
+        probing = true;
         super.open();
     }
 
     public void close() {
         super.close();
+        reset();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
         child2.rewind();
+        listIt = null;
+        intMatch = -1;
+        if (resident == null && !chunked) {
+            // everything is still in memory: just stream child2 again
+            probing = true;
+            return;
+        }
+        reset();
+        child1.rewind();
+        loadMap();
+        probing = true;
     }
 
     transient Iterator<Tuple> listIt = null;
+    // next match in intTable, or -1
+    transient private int intMatch = -1;
+
+    private boolean hasMatch() {
+        if (intTable != null)
+            return intMatch != -1;
+        return listIt != null && listIt.hasNext();
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,7 +354,12 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        if (intTable != null) {
+            t1 = intTable.tuple(intMatch);
+            intMatch = intTable.next(intMatch);
+        } else {
+            t1 = listIt.next();
+        }
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -131,32 +375,62 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+        while (true) {
+            if (hasMatch()) {
+                return processList();
+            }
+            listIt = null;
 
-            return processList();
+            if (probing) {
+                // loop around child2
+                if (child2.hasNext()) {
+                    t2 = child2.next();
+                    Field key = t2.getField(pred.getField2());
+                    if (resident != null) {
+                        int p = partitionOf(key);
+                        if (!resident[p]) {
+                            probeSpill[p].add(t2);
+                            continue;
+                        }
+                    }
+                    // if match, create a combined tuple and fill it with the
+                    // values from both tuples
+                    if (intTable != null) {
+                        intMatch = intTable.first(((IntField) key).getValue());
+                    } else {
+                        ArrayList<Tuple> l = map.get(key);
+                        if (l != null)
+                            listIt = l.iterator();
+                    }
+                    continue;
+                }
 
-        }
+                // child2 is done: advance child1 if it did not fit in one chunk
+                if (chunked) {
+                    child2.rewind();
+                    if (loadMap())
+                        continue;
+                }
+                probing = false;
+                if (resident == null)
+                    return null;
+                clearTable();
+                nextPartition = 0;
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            if (resident == null)
+                return null;
+            // then join the spilled partitions, one pair at a time
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext())
+                    return partitionJoin.next();
+                partitionJoin.close();
+                partitionJoin = null;
+                deletePartition(nextPartition - 1);
+            }
+            if (!openNextPartition())
+                return null;
         }
-
-        return null;
     }
 
     @Override
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -16,8 +19,26 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages covered by one memory-mapped segment. */
+    static final int MAPPED_SEGMENT_PAGES = 1024;
+
+    /** Number of pages a bulk insert logs before it forces the log once and writes them. */
+    static final int LOAD_BATCH_PAGES = 64;
+
     private final TupleDesc tupleDesc;
     private final File file;
+    private final DbFileChannel channel;
+    private final boolean memoryMapped;
+    // memory-mapped segments, each MAPPED_SEGMENT_PAGES pages of mappedPageSize bytes
+    private final ArrayList<MappedByteBuffer> segments;
+    private int mappedPageSize;
+    // pages read out of the mappings that may still decode from them, by
+    // page number; they are detached before the page is written over
+    private final HashMap<Integer, List<WeakReference<HeapPage>>> mappedPages = new HashMap<>();
+    private volatile FreeSpaceMap freeSpaceMap;
+    private volatile PageLsnTable pageLsns;
+    // held while a page is appended, so two appenders never pick the same page number
+    private final Object extendLock = new Object();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,8 +48,39 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through memory-mapped segments of the file. In mapped mode
+     * a page is decoded straight out of a read-only view of the mapped
+     * region, with no read system call and no copy, which suits large scans
+     * of read-mostly tables. Writes still go through regular positional I/O
+     * and are visible through the mapping. Because HeapPage decodes its
+     * tuples lazily, writing a page first detaches every page read from the
+     * mapping at that position (see {@link HeapPage#detach}), so they copy
+     * their bytes before the write changes them.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true to read pages through memory-mapped segments
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
     	file = f;
     	tupleDesc = td;
+    	channel = new DbFileChannel(f);
+    	this.memoryMapped = memoryMapped;
+    	this.segments = new ArrayList<>();
+    }
+
+    /**
+     * @return true if pages of this file are read through memory mappings.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -65,27 +117,145 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         final int pageNumber = pid.getPageNumber();
-        final int offset = pageNumber * BufferPool.getPageSize();
-        byte[] data = new byte[BufferPool.getPageSize()];
+        final long offset = (long) pageNumber * BufferPool.getPageSize();
         try {
-            final RandomAccessFile rw = new RandomAccessFile(file, "rw");
-            rw.seek(offset);
-            final int read = rw.read(data) ;
-            rw.close();
             final HeapPageId heapPageId = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-            return new HeapPage(heapPageId, data);
+            HeapPage page = null;
+            if (memoryMapped) {
+                final ByteBuffer mapped = mappedPage(pageNumber);
+                if (mapped != null) {
+                    page = new HeapPage(heapPageId, mapped);
+                    registerMapped(page);
+                }
+            }
+            if (page == null) {
+                byte[] data = new byte[BufferPool.getPageSize()];
+                channel.read(data, offset);
+                page = new HeapPage(heapPageId, data);
+            }
+            page.setLSN(pageLsns().get(pageNumber));
+            return page;
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Returns a read-only view of the given page inside its memory-mapped
+     * segment, mapping or remapping the segment as needed, or null if the
+     * page is not entirely on disk yet.
+     */
+    private ByteBuffer mappedPage(int pageNumber) throws IOException {
+        final int pageSize = BufferPool.getPageSize();
+        final long offset = (long) pageNumber * pageSize;
+        final long fileLength = channel.size();
+        if (offset + pageSize > fileLength) {
+            return null;
+        }
+        synchronized (segments) {
+            if (pageSize != mappedPageSize) {
+                // segments are aligned to pages, so a new page size invalidates them all
+                segments.clear();
+                mappedPageSize = pageSize;
+            }
+            final int segment = pageNumber / MAPPED_SEGMENT_PAGES;
+            while (segments.size() <= segment) {
+                segments.add(null);
+            }
+            final long segmentStart = (long) segment * MAPPED_SEGMENT_PAGES * pageSize;
+            final int offsetInSegment = (int) (offset - segmentStart);
+            MappedByteBuffer mapped = segments.get(segment);
+            if (mapped == null || mapped.capacity() < offsetInSegment + pageSize) {
+                // not mapped yet, or this is the last segment and the file
+                // has grown past the end of its old mapping
+                final long length = Math.min((long) MAPPED_SEGMENT_PAGES * pageSize, fileLength - segmentStart);
+                mapped = channel.map(segmentStart, length);
+                segments.set(segment, mapped);
+            }
+            final ByteBuffer page = mapped.duplicate();
+            page.position(offsetInSegment);
+            page.limit(offsetInSegment + pageSize);
+            return page.slice();
+        }
+    }
+
+    /**
+     * Remember a page decoding from a mapping, so a write of its position
+     * can detach it.
+     */
+    private void registerMapped(HeapPage page) {
+        synchronized (mappedPages) {
+            List<WeakReference<HeapPage>> readers = mappedPages.get(page.getId().getPageNumber());
+            if (readers == null) {
+                readers = new ArrayList<>();
+                mappedPages.put(page.getId().getPageNumber(), readers);
+            }
+            for (Iterator<WeakReference<HeapPage>> it = readers.iterator(); it.hasNext(); ) {
+                if (it.next().get() == null) {
+                    it.remove();
+                }
+            }
+            readers.add(new WeakReference<>(page));
+        }
+    }
+
+    /**
+     * Detach every page read from the mapping at the given position, before
+     * the position is written over.
+     */
+    private void detachMapped(int pageNumber) {
+        final List<WeakReference<HeapPage>> readers;
+        synchronized (mappedPages) {
+            readers = mappedPages.remove(pageNumber);
+        }
+        if (readers != null) {
+            for (WeakReference<HeapPage> ref : readers) {
+                final HeapPage page = ref.get();
+                if (page != null) {
+                    page.detach();
+                }
+            }
+        }
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        randomAccessFile.seek(BufferPool.getPageSize() * page.getId().getPageNumber());
-        randomAccessFile.write(page.getPageData());
-        randomAccessFile.close();
+        final long lsn = page.getLSN();
+        if (memoryMapped) {
+            detachMapped(page.getId().getPageNumber());
+        }
+        channel.write(page.getPageData(), (long) BufferPool.getPageSize() * page.getId().getPageNumber());
+        // the page is forced, and its LSN recorded on disk, by the next sync
+        pageLsns().set(page.getId(), page.getId().getPageNumber(), lsn);
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        final PageLsnTable lsns = pageLsns;
+        if (lsns != null) {
+            lsns.sync(channel);
+        }
+    }
+
+    /**
+     * Sync the pages written since the last sync, save the free-space map
+     * and release the file handles.
+     */
+    public void close() throws IOException {
+        synchronized (segments) {
+            segments.clear();
+        }
+        final FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            fsm.save();
+        }
+        final PageLsnTable lsns = pageLsns;
+        if (lsns != null) {
+            lsns.sync(channel);
+            lsns.close();
+        }
+        channel.close();
     }
 
     /**
@@ -95,36 +265,196 @@ public class HeapFile implements DbFile {
     	return (int) Math.ceil(1.0 * file.length() / BufferPool.getPageSize());
     }
 
+    /**
+     * Returns the free-space map of this file, loading it on first use, or
+     * rebuilding it from the pages on disk if its sidecar file is stale.
+     */
+    FreeSpaceMap freeSpaceMap() {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm == null) {
+            synchronized (this) {
+                if (freeSpaceMap == null) {
+                    final FreeSpaceMap loaded = new FreeSpaceMap(file);
+                    if (loaded.isStale()) {
+                        rebuild(loaded);
+                    }
+                    freeSpaceMap = loaded;
+                }
+                fsm = freeSpaceMap;
+            }
+        }
+        return fsm;
+    }
+
+    private void rebuild(FreeSpaceMap fsm) {
+        final int pages = numPages();
+        for (int pgno = 0; pgno < pages; pgno++) {
+            final HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), pgno));
+            // an unreadable page is left marked free, as a page the map never saw
+            fsm.update(pgno, page == null || page.getNumEmptySlots() > 0);
+        }
+        try {
+            fsm.save();
+        } catch (IOException e) {
+            // the map is only a hint; it is rebuilt again next time
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Store the given tuple bytes in a slot of a page of this file, or empty
+     * the slot if tupleData is null, keeping the free-space map in step.
+     * Used by {@link LogFile} to roll back and recover INSERT and DELETE
+     * records.
+     */
+    void applySlotChange(HeapPage page, int slot, byte[] tupleData) {
+        if (tupleData == null) {
+            page.clearSlot(slot);
+        } else {
+            page.setSlot(slot, tupleData);
+        }
+        freeSpaceMap().update(page.getId().getPageNumber(), page.getNumEmptySlots() > 0);
+    }
+
+    /**
+     * Returns the page LSN table of this file, loading it on first use.
+     */
+    PageLsnTable pageLsns() {
+        PageLsnTable lsns = pageLsns;
+        if (lsns == null) {
+            synchronized (this) {
+                if (pageLsns == null) {
+                    pageLsns = new PageLsnTable(file);
+                }
+                lsns = pageLsns;
+            }
+        }
+        return lsns;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        final int numPages = numPages();
         final int id = getId();
         final BufferPool bufferPool = Database.getBufferPool();
+        final FreeSpaceMap fsm = freeSpaceMap();
+        final LogFile log = Database.getLogFile();
         HeapPage page = null;
-        int i;
-        for (i = 0; i < numPages; i++) {
-            page =(HeapPage) bufferPool.getPage(tid, new HeapPageId(id, i), Permissions.READ_WRITE);
-            if(page.getNumEmptySlots()>0){
-                page.insertTuple(t);
-                break;
+        // only pages the map says have room are fetched; a stale entry costs
+        // one page and is corrected on the spot
+        while (page == null) {
+            final int pgno = fsm.findPageWithSpace(numPages());
+            if (pgno == -1) {
+                // no page has room: append an empty one, which the map then
+                // offers like any other (another inserter may fill it first)
+                appendEmptyPage();
+                continue;
             }
-        }
-        if(i == numPages){
-        	page = new HeapPage(new HeapPageId(id, i), HeapPage.createEmptyPageData());
-            page.insertTuple(t);
-            writePage(page);
+            final HeapPage candidate = (HeapPage) bufferPool.getPage(tid, new HeapPageId(id, pgno), Permissions.READ_WRITE);
+            synchronized (candidate) {
+                if (candidate.getNumEmptySlots() > 0) {
+                    candidate.insertTuple(t);
+                    candidate.setLSN(log.logInsert(tid, t));
+                    page = candidate;
+                }
+            }
+            fsm.update(pgno, candidate.getNumEmptySlots() > 0);
         }
         final ArrayList<Page> pages = new ArrayList<>();
         pages.add(page);
         return pages;
     }
 
+    /**
+     * Extend the file by one empty page. The page number is chosen and
+     * written under the extend lock, so concurrent appenders get different
+     * pages. The empty page is not logged: an insert into it is logged like
+     * any other, and a page that was never filled is harmless.
+     */
+    private void appendEmptyPage() throws IOException {
+        synchronized (extendLock) {
+            writePage(new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData()));
+        }
+    }
+
+    /**
+     * Append a stream of tuples to this file in bulk. Tuples are packed into
+     * fresh pages that are written straight to the end of the file, so the
+     * load makes no BufferPool call per tuple and never touches existing
+     * pages. Each new page is logged (with an empty before image) under the
+     * given transaction before it is written, so aborting or recovering the
+     * transaction empties the pages again. Pages are logged in batches of
+     * {@link #LOAD_BATCH_PAGES}, with one log force per batch before its
+     * pages are written, and the file is synced once at the end of the
+     * load. The load holds the extend lock throughout, so inserts that need
+     * a new page wait for it.
+     *
+     * @param tid the transaction doing the load
+     * @param tuples the tuples to load; they must match this file's TupleDesc
+     * @return the number of tuples loaded
+     */
+    public int bulkInsert(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException {
+        final LogFile log = Database.getLogFile();
+        final FreeSpaceMap fsm = freeSpaceMap();
+        synchronized (extendLock) {
+            int pgno = numPages();
+            int count = 0;
+            final ArrayList<HeapPage> batch = new ArrayList<HeapPage>(LOAD_BATCH_PAGES);
+            HeapPage page = null;
+            while (tuples.hasNext()) {
+                if (page == null) {
+                    page = new HeapPage(new HeapPageId(getId(), pgno), HeapPage.createEmptyPageData());
+                }
+                page.insertTuple(tuples.next());
+                count++;
+                if (page.getNumEmptySlots() == 0) {
+                    batch.add(page);
+                    page = null;
+                    pgno++;
+                    if (batch.size() == LOAD_BATCH_PAGES) {
+                        appendLoadedPages(tid, log, fsm, batch);
+                    }
+                }
+            }
+            if (page != null) {
+                batch.add(page);
+            }
+            appendLoadedPages(tid, log, fsm, batch);
+            sync();
+            return count;
+        }
+    }
+
+    /**
+     * Log a batch of loaded pages, force the log once for the whole batch,
+     * then write the pages, unforced, and clear the batch.
+     */
+    private void appendLoadedPages(TransactionId tid, LogFile log, FreeSpaceMap fsm, List<HeapPage> batch)
+            throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (HeapPage page : batch) {
+            log.logWrite(tid, new HeapPage(page.getId(), HeapPage.createEmptyPageData()), page);
+        }
+        log.forceUpTo(batch.get(batch.size() - 1).getLSN());
+        for (HeapPage page : batch) {
+            writePage(page);
+            fsm.update(page.getId().getPageNumber(), page.getNumEmptySlots() > 0);
+        }
+        batch.clear();
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
-            TransactionAbortedException {
+            IOException, TransactionAbortedException {
         final HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        synchronized (page) {
+            page.deleteTuple(t);
+            page.setLSN(Database.getLogFile().logDelete(tid, t));
+        }
+        freeSpaceMap().update(page.getId().getPageNumber(), true);
         final ArrayList<Page> pages = new ArrayList<>();
         pages.add(page);
         return pages;
@@ -132,17 +462,63 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy the given
+     * predicate. The predicate is evaluated on each page's raw field values,
+     * so tuples that fail it are never decoded.
+     *
+     * @param predicate the filter to apply, or null to return every tuple
+     * @see HeapPage#iterator(Predicate)
+     */
+    public DbFileIterator iterator(TransactionId tid, final Predicate predicate) {
+        return iterator(tid, predicate, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples on a range of pages of this file,
+     * so that several scans can divide a table between them.
+     *
+     * @param predicate the filter to apply, or null to return every tuple
+     * @param firstPage the first page to read
+     * @param endPage one past the last page to read, or -1 to read to the
+     *                end of the file
+     */
+    public DbFileIterator iterator(TransactionId tid, final Predicate predicate,
+                                   final int firstPage, final int endPage) {
     	return new DbFileIterator() {
             public boolean closed = true;
             public Tuple next;
             public Iterator<Tuple> iterator;
             private int pid;
 
+            private BufferRing ring;
+
+            // large tables are read through a private ring of frames so the
+            // scan does not flush everybody else's pages out of the pool
+            private HeapPage fetchPage(int pgno) throws DbException, TransactionAbortedException {
+                return (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgno), Permissions.READ_ONLY, ring);
+            }
+
+            private int limit() {
+                return endPage < 0 ? numPages() : Math.min(endPage, numPages());
+            }
+
+            private Iterator<Tuple> firstPageIterator() throws DbException, TransactionAbortedException {
+                this.pid = firstPage;
+                if (pid >= limit()) {
+                    return Collections.emptyIterator();
+                }
+                return fetchPage(pid).iterator(predicate);
+            }
+
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                this.pid = 0;
-                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pid), Permissions.READ_ONLY);
-                this.iterator = heapPage.iterator();
+                final BufferPool bufferPool = Database.getBufferPool();
+                this.ring = BufferRing.useFor(numPages(), bufferPool.getNumPages()) ? new BufferRing() : null;
+                this.iterator = firstPageIterator();
                 this.next = null;
                 this.closed = false;
             }
@@ -157,9 +533,9 @@ public class HeapFile implements DbFile {
                     this.next = this.iterator.next();
                     return true;
                 }else {
-                    while (++this.pid < numPages()){
-                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pid), Permissions.READ_ONLY);
-                        iterator = page.iterator();
+                    while (++this.pid < limit()){
+                        HeapPage page = fetchPage(pid);
+                        iterator = page.iterator(predicate);
                         if(iterator.hasNext()){
                             this.next = this.iterator.next();
                             return true;
@@ -181,18 +557,16 @@ public class HeapFile implements DbFile {
 
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
-                this.pid = 0;
                 this.next = null;
-                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pid), Permissions.READ_ONLY);
-                this.iterator = heapPage.iterator();
+                this.iterator = firstPageIterator();
             }
 
             @Override
             public void close() {
                 this.closed = true;
+                this.ring = null;
             }
         };
     }
 
 }
-
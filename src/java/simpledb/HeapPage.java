@@ -2,11 +2,18 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily: the page keeps the raw bytes it was read from
+ * together with the header bitmap, and a slot is only turned into a
+ * {@link Tuple} when an iterator reaches it. {@link #getField(int, int)}
+ * decodes a single column, so a predicate can reject a slot without
+ * materializing the rest of the tuple.
  *
  * @see HeapFile
  * @see BufferPool
@@ -17,13 +24,22 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    // decoded (or inserted) tuples; null for a used slot means not decoded yet
     final Tuple tuples[];
     final int numSlots;
+    // the raw page this page was read from; used slots not present in
+    // tuples[] are decoded from here. Replaced by a private copy when the
+    // page is detached from a memory mapping, see detach()
+    private ByteBuffer data;
+    private final Object dataLock = new Object();
+    // byte offset of each field within a tuple
+    private final int fieldOffsets[];
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
     private boolean dirty;
     private TransactionId transactionId;
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -42,25 +58,42 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage by decoding the page straight out of a buffer, which
+     * may be a slice of a memory-mapped file, without first copying it into
+     * a byte array. The page layout is the one described in
+     * {@link #HeapPage(HeapPageId, byte[])}; data must hold exactly one page
+     * starting at index 0. The buffer is retained, not copied, and must not
+     * be modified afterwards, unless {@link #detach} is called first.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of tuples with the given TupleDesc, for pages of
+     * files that are not in the {@link Catalog} (e.g. the runs of an
+     * external sort).
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+            header[i] = data.get(i);
+
+        // the records themselves are decoded on first access
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
         setBeforeImage();
     }
@@ -92,6 +125,10 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            // no snapshot means the page has not changed since the last
+            // setBeforeImage(), so its current contents are the before image
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -101,10 +138,25 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents of this page its before image. The bytes
+     * are only serialized once the page is about to be modified, so pages
+     * that are only ever read never pay for the copy.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** Snapshot the before image if this is the first change since the
+        last call to setBeforeImage(). */
+    private void preModify() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
         }
     }
 
@@ -116,39 +168,128 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Byte offset of the given slot within the raw page.
+     */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Return the tuple in the given slot, decoding it from the raw page on
+     * first access, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
 
         // read fields in the tuple
-        Tuple t = new Tuple(td);
+        t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
+        final int offset = slotOffset(slotId);
+        synchronized (dataLock) {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                t.setField(j, td.getFieldType(j).parse(data, offset + fieldOffsets[j]));
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
+        tuples[slotId] = t;
         return t;
     }
 
+    /**
+     * Return a single field of the tuple in the given slot without
+     * materializing the whole tuple.
+     *
+     * @param slotId the slot to read; must be in use
+     * @param fieldIndex the index of the field to return
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        final Tuple t = tuples[slotId];
+        if (t != null) {
+            return t.getField(fieldIndex);
+        }
+        synchronized (dataLock) {
+            return td.getFieldType(fieldIndex).parse(data, slotOffset(slotId) + fieldOffsets[fieldIndex]);
+        }
+    }
+
+    /**
+     * @return true if the undecoded slots of this page are read straight out
+     * of a memory mapping of its file, without having been copied
+     */
+    boolean isMapped() {
+        synchronized (dataLock) {
+            return data.isDirect();
+        }
+    }
+
+    /**
+     * Copy the raw page out of the memory mapping it was read from, if any,
+     * so that later writes to the file do not change the undecoded slots of
+     * this page. Called by {@link HeapFile#writePage} before it overwrites
+     * the page on disk.
+     */
+    void detach() {
+        synchronized (dataLock) {
+            if (data.isDirect()) {
+                final byte[] copy = new byte[data.limit()];
+                final ByteBuffer mapped = data.duplicate();
+                mapped.position(0);
+                mapped.get(copy);
+                data = ByteBuffer.wrap(copy);
+            }
+        }
+    }
+
+    /**
+     * Decode the used slots of this page, starting at slot from, straight
+     * into the columns of a batch, without building Tuples, until the batch
+     * is full.
+     *
+     * @return the slot to continue from, or the number of slots on the page
+     *         if every used slot was copied
+     */
+    int copyInto(TupleBatch batch, int from) {
+        synchronized (dataLock) {
+            return copyIntoLocked(batch, from);
+        }
+    }
+
+    private int copyIntoLocked(TupleBatch batch, int from) {
+        for (int slot = from; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            if (batch.isFull()) {
+                return slot;
+            }
+            final int row = batch.addRow();
+            final Tuple t = tuples[slot];
+            final int offset = slotOffset(slot);
+            for (int j = 0; j < fieldOffsets.length; j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    batch.intColumn(j)[row] = t != null
+                            ? ((IntField) t.getField(j)).getValue()
+                            : data.getInt(offset + fieldOffsets[j]);
+                } else {
+                    final Field f = t != null ? t.getField(j)
+                            : Type.STRING_TYPE.parse(data, offset + fieldOffsets[j]);
+                    batch.stringColumn(j)[row] = ((StringField) f).getValue();
+                }
+            }
+        }
+        return numSlots;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -191,6 +332,22 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: copy its raw bytes
+            if (tuples[i] == null) {
+                byte[] raw = new byte[td.getSize()];
+                synchronized (dataLock) {
+                    ByteBuffer slot = data.duplicate();
+                    slot.position(slotOffset(i));
+                    slot.get(raw);
+                }
+                try {
+                    dos.write(raw);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -247,9 +404,10 @@ public class HeapPage implements Page {
         if( tupleNumber >= numSlots || !isSlotUsed(tupleNumber)){
             throw new DbException("tuple slot is already empty");
         }
-        if(!t.equals(tuples[tupleNumber])){
+        if(!t.equals(getTuple(tupleNumber))){
             throw new DbException("this tuple is not on this page");
         }
+    	preModify();
     	markSlotUsed(tupleNumber, false);
     }
 
@@ -280,11 +438,38 @@ public class HeapPage implements Page {
                 break;
             }
         }
+        preModify();
         markSlotUsed(slotIndex, true);
         t.setRecordId(new RecordId(pid, slotIndex));
         tuples[slotIndex] = t;
     }
 
+    /**
+     * Store a tuple, given in its on-page format, in the given slot, whether or not the slot is in use. Used to redo an
+     * insert or undo a delete, so applying it twice is harmless.
+     */
+    void setSlot(int slotId, byte[] tupleData) {
+        final ByteBuffer buf = ByteBuffer.wrap(tupleData);
+        final Tuple t = new Tuple(td);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(buf, fieldOffsets[j]));
+        }
+        t.setRecordId(new RecordId(pid, slotId));
+        preModify();
+        markSlotUsed(slotId, true);
+        tuples[slotId] = t;
+    }
+
+    /**
+     * Empty the given slot, whether or not it is in use. Used to redo a
+     * delete or undo an insert, so applying it twice is harmless.
+     */
+    void clearSlot(int slotId) {
+        preModify();
+        markSlotUsed(slotId, false);
+        tuples[slotId] = null;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -306,6 +491,14 @@ public class HeapPage implements Page {
         return null;
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -352,13 +545,53 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        final ArrayList<Tuple> tuples = new ArrayList<>();
-        for (int i = 0; i < numSlots; i++) {
-            if(isSlotUsed(i)){
-                tuples.add(this.tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy the
+     * given predicate, or over all tuples if it is null. The predicate is
+     * evaluated on the single field it references, so slots it rejects are
+     * never decoded into a Tuple.
+     * (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(final Predicate predicate) {
+        // only slots in use when the iterator was created are visited, so
+        // tuples inserted into this page while it is being scanned are not
+        final byte[] visible = header.clone();
+        return new Iterator<Tuple>() {
+            private int slot = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if ((visible[i / 8] >> (i % 8) & 1) != 0 && isSlotUsed(i) && (predicate == null
+                            || getField(i, predicate.getField()).compare(predicate.getOp(), predicate.getOperand()))) {
+                        return i;
+                    }
+                }
+                return numSlots;
             }
-        }
-        return tuples.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Tuple t = getTuple(slot);
+                slot = advance(slot + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
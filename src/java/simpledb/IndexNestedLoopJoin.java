@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer input with a table stored as a
+ * {@link BTreeFile} keyed on the inner join field. Instead of rescanning the
+ * inner table for every outer tuple, it searches the B+ tree for the
+ * matching keys with {@link BTreeFile#indexIterator}, so each outer tuple
+ * costs a descent of the tree plus the leaf pages holding its matches.
+ * <p>
+ * The inner side is given as a plan over the table: a {@link SeqScan} or
+ * {@link BTreeScan} of the B+ tree, possibly under {@link Filter}s. The scan
+ * only supplies the table and transaction; the filters, and the index
+ * predicate of a BTreeScan, are applied to the tuples each probe finds.
+ * See {@link #canProbe}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final BTreeFile index;
+    private final TransactionId tid;
+    private final ArrayList<Predicate> innerFilters;
+    // the predicate a probe applies to the index key, i.e. pred with its
+    // sides swapped
+    private final Predicate.Op probeOp;
+
+    transient private Tuple left;
+    transient private DbFileIterator probe;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE, with field2 the key of the B+ tree
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The right(inner) relation: a SeqScan or BTreeScan of a
+     *            BTreeFile, possibly under Filters
+     * @throws IllegalArgumentException
+     *             if child2 cannot be probed on field2 with the predicate
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canProbe(child2, p.getField2(), p.getOperator())) {
+            throw new IllegalArgumentException("cannot probe " + child2.getTupleDesc().getFieldName(p.getField2())
+                    + " with " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.innerFilters = new ArrayList<Predicate>();
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            innerFilters.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (it instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) it;
+            this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+            this.tid = scan.getTransactionId();
+            IndexPredicate ipred = scan.getIndexPredicate();
+            if (ipred != null) {
+                innerFilters.add(new Predicate(index.keyField(), ipred.getOp(), ipred.getField()));
+            }
+        } else {
+            SeqScan scan = (SeqScan) it;
+            this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+            this.tid = scan.getTransactionId();
+        }
+        this.probeOp = swap(p.getOperator());
+    }
+
+    /**
+     * @return the operator op' such that a op b exactly when b op' a
+     */
+    private static Predicate.Op swap(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * Return true if a plan is a scan of a B+ tree keyed on the given field
+     * (a full SeqScan, or a BTreeScan), possibly under filters, so that a
+     * join on that field with the given operator can probe the tree instead
+     * of running the plan.
+     */
+    public static boolean canProbe(OpIterator plan, int field, Predicate.Op op) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            return false;
+        }
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (plan instanceof BTreeScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((BTreeScan) plan).getTableId());
+            return ((BTreeFile) f).keyField() == field;
+        }
+        if (!(plan instanceof SeqScan)) {
+            return false;
+        }
+        SeqScan scan = (SeqScan) plan;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field
+                && scan.getFirstPage() == 0 && scan.getEndPage() == -1;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        left = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        child1.close();
+        left = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        left = null;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate p : innerFilters) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Like {@link Join}, each result is the concatenation of an
+     * outer tuple and a matching inner tuple; the results come in the order
+     * of the outer input.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                left = child1.next();
+                probe = index.indexIterator(tid, new IndexPredicate(probeOp, left.getField(pred.getField1())));
+                probe.open();
+            }
+            while (probe.hasNext()) {
+                Tuple t = probe.next();
+                if (passesFilters(t)) {
+                    return merge(left, t);
+                }
+            }
+            closeProbe();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntAggregateTable is the group-by hash table of {@link IntegerAggregator}
+ * and {@link BatchAggregate}. Groups are numbered densely in the order they
+ * are first seen, and every group carries one or more columns of
+ * accumulators, one column per aggregated field. A column keeps the
+ * accumulators of all the integer aggregates at once: COUNT, a long SUM that
+ * cannot overflow on any realistic input, MIN and MAX. A row therefore costs
+ * one probe and a few array updates per column whatever aggregates are asked
+ * for, and nothing is boxed.
+ * <p>
+ * INT_TYPE group keys are mapped to their group by an open-addressing table
+ * with linear probing. Callers with other keys map them to groups
+ * themselves and allocate groups with {@link #addGroup()}.
+ */
+public class IntAggregateTable {
+
+    private static final int EMPTY = -1;
+
+    // open-addressing slots: key and the group it belongs to
+    private int[] slotKeys;
+    private int[] slotGroups;
+
+    // accumulators, indexed by group * columns + column
+    private final int columns;
+    private int[] keys;
+    private long[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+    private int size;
+
+    public IntAggregateTable() {
+        this(16);
+    }
+
+    /**
+     * @param expectedGroups the number of groups the table is sized for
+     *                       initially; it grows as needed
+     */
+    public IntAggregateTable(int expectedGroups) {
+        this(1, expectedGroups);
+    }
+
+    /**
+     * @param columns        the number of accumulator columns per group
+     * @param expectedGroups the number of groups the table is sized for
+     *                       initially; it grows as needed
+     */
+    public IntAggregateTable(int columns, int expectedGroups) {
+        final int capacity = Math.max(16, expectedGroups);
+        this.columns = columns;
+        keys = new int[capacity];
+        counts = new long[capacity * columns];
+        sums = new long[capacity * columns];
+        mins = new int[capacity * columns];
+        maxs = new int[capacity * columns];
+        allocateSlots(Integer.highestOneBit(capacity - 1) << 2);
+    }
+
+    /**
+     * @return the number of accumulator columns per group
+     */
+    public int columns() {
+        return columns;
+    }
+
+    private void allocateSlots(int slots) {
+        slotKeys = new int[slots];
+        slotGroups = new int[slots];
+        Arrays.fill(slotGroups, EMPTY);
+    }
+
+    private int slotOf(int key) {
+        int h = key * 0x9E3779B9;
+        h ^= h >>> 16;
+        final int mask = slotGroups.length - 1;
+        int s = h & mask;
+        while (slotGroups[s] != EMPTY && slotKeys[s] != key) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    /**
+     * @return the group of the given key, which is added if it is new
+     */
+    public int findOrAdd(int key) {
+        int s = slotOf(key);
+        if (slotGroups[s] != EMPTY) {
+            return slotGroups[s];
+        }
+        if ((size + 1) * 2 > slotGroups.length) {
+            // keep the load factor at or below 1/2
+            final int[] oldKeys = slotKeys;
+            final int[] oldGroups = slotGroups;
+            allocateSlots(oldGroups.length * 2);
+            for (int i = 0; i < oldGroups.length; i++) {
+                if (oldGroups[i] != EMPTY) {
+                    final int t = slotOf(oldKeys[i]);
+                    slotKeys[t] = oldKeys[i];
+                    slotGroups[t] = oldGroups[i];
+                }
+            }
+            s = slotOf(key);
+        }
+        final int g = addGroup();
+        keys[g] = key;
+        slotKeys[s] = key;
+        slotGroups[s] = g;
+        return g;
+    }
+
+    /**
+     * Add a group that is not reachable through {@link #findOrAdd}, for
+     * callers that map their own keys to groups.
+     *
+     * @return the new group
+     */
+    public int addGroup() {
+        if (size == keys.length) {
+            final int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity * columns);
+            sums = Arrays.copyOf(sums, capacity * columns);
+            mins = Arrays.copyOf(mins, capacity * columns);
+            maxs = Arrays.copyOf(maxs, capacity * columns);
+        }
+        final int from = size * columns;
+        Arrays.fill(counts, from, from + columns, 0);
+        Arrays.fill(sums, from, from + columns, 0);
+        Arrays.fill(mins, from, from + columns, Integer.MAX_VALUE);
+        Arrays.fill(maxs, from, from + columns, Integer.MIN_VALUE);
+        return size++;
+    }
+
+    /**
+     * Fold a value into every accumulator of the first column of a group.
+     */
+    public void add(int group, int value) {
+        add(group, 0, value);
+    }
+
+    /**
+     * Fold a value into every accumulator of one column of a group.
+     */
+    public void add(int group, int column, int value) {
+        final int i = group * columns + column;
+        counts[i]++;
+        sums[i] += value;
+        if (value < mins[i]) mins[i] = value;
+        if (value > maxs[i]) maxs[i] = value;
+    }
+
+    /**
+     * Count a row in the first column of a group without a value, e.g. for
+     * COUNT over a non-integer field.
+     */
+    public void addCount(int group) {
+        addCount(group, 0);
+    }
+
+    public void addCount(int group, int column) {
+        counts[group * columns + column]++;
+    }
+
+    /**
+     * @return the number of groups; groups run from 0 to size() - 1 in the
+     *         order they were added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the key of a group added by {@link #findOrAdd}
+     */
+    public int key(int group) {
+        return keys[group];
+    }
+
+    public long count(int group) {
+        return counts[group * columns];
+    }
+
+    public long sum(int group) {
+        return sums[group * columns];
+    }
+
+    public int min(int group) {
+        return mins[group * columns];
+    }
+
+    public int max(int group) {
+        return maxs[group * columns];
+    }
+
+    public long count(int group, int column) {
+        return counts[group * columns + column];
+    }
+
+    public long sum(int group, int column) {
+        return sums[group * columns + column];
+    }
+
+    public int min(int group, int column) {
+        return mins[group * columns + column];
+    }
+
+    public int max(int group, int column) {
+        return maxs[group * columns + column];
+    }
+
+    /**
+     * Remove every group, keeping the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(slotGroups, EMPTY);
+        size = 0;
+    }
+}
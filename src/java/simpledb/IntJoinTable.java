@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntJoinTable is the build-side hash table {@link HashEquiJoin} uses when
+ * the join key is an {@link Type#INT_TYPE}. Keys are kept as primitive ints
+ * in an open-addressing table with linear probing. Each slot points at the
+ * most recently added tuple with its key, and the tuples that share a key
+ * are chained through a parallel array of tuple indexes, so building the
+ * table boxes nothing and allocates only when its arrays grow, and probing
+ * it allocates nothing at all.
+ * <p>
+ * A probe walks a chain of tuple indexes:
+ * <pre>
+ * for (int i = table.first(key); i != -1; i = table.next(i))
+ *     ... table.tuple(i) ...
+ * </pre>
+ */
+public class IntJoinTable {
+
+    private static final int EMPTY = -1;
+
+    // open-addressing slots: key, and index of the first tuple of its chain
+    private int[] slotKeys;
+    private int[] slotHeads;
+    private int distinctKeys;
+
+    // tuples in insertion order, with their keys and chain links
+    private Tuple[] tuples;
+    private int[] tupleKeys;
+    private int[] nextTuple;
+    private int size;
+
+    public IntJoinTable() {
+        this(16);
+    }
+
+    /**
+     * @param expectedTuples the number of tuples the table is sized for
+     *                       initially; it grows as needed
+     */
+    public IntJoinTable(int expectedTuples) {
+        int capacity = Math.max(16, expectedTuples);
+        tuples = new Tuple[capacity];
+        tupleKeys = new int[capacity];
+        nextTuple = new int[capacity];
+        allocateSlots(Integer.highestOneBit(capacity - 1) << 2);
+    }
+
+    private void allocateSlots(int slots) {
+        slotKeys = new int[slots];
+        slotHeads = new int[slots];
+        Arrays.fill(slotHeads, EMPTY);
+    }
+
+    private int slotOf(int key) {
+        int h = key * 0x9E3779B9;
+        h ^= h >>> 16;
+        final int mask = slotHeads.length - 1;
+        int s = h & mask;
+        while (slotHeads[s] != EMPTY && slotKeys[s] != key) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    /**
+     * Add a tuple under the given key.
+     */
+    public void add(int key, Tuple t) {
+        if (size == tuples.length) {
+            final int capacity = tuples.length * 2;
+            tuples = Arrays.copyOf(tuples, capacity);
+            tupleKeys = Arrays.copyOf(tupleKeys, capacity);
+            nextTuple = Arrays.copyOf(nextTuple, capacity);
+        }
+        if ((distinctKeys + 1) * 2 > slotHeads.length) {
+            // keep the load factor at or below 1/2
+            final int[] oldKeys = slotKeys;
+            final int[] oldHeads = slotHeads;
+            allocateSlots(oldHeads.length * 2);
+            for (int i = 0; i < oldHeads.length; i++) {
+                if (oldHeads[i] != EMPTY) {
+                    final int s = slotOf(oldKeys[i]);
+                    slotKeys[s] = oldKeys[i];
+                    slotHeads[s] = oldHeads[i];
+                }
+            }
+        }
+        final int s = slotOf(key);
+        if (slotHeads[s] == EMPTY) {
+            slotKeys[s] = key;
+            distinctKeys++;
+        }
+        tuples[size] = t;
+        tupleKeys[size] = key;
+        nextTuple[size] = slotHeads[s];
+        slotHeads[s] = size;
+        size++;
+    }
+
+    /**
+     * @return the index of the first tuple with the given key, or -1 if
+     *         there is none
+     */
+    public int first(int key) {
+        return slotHeads[slotOf(key)];
+    }
+
+    /**
+     * @return the index of the next tuple with the same key as tuple i, or
+     *         -1 if i is the last one
+     */
+    public int next(int i) {
+        return nextTuple[i];
+    }
+
+    /**
+     * @return the tuple with index i
+     */
+    public Tuple tuple(int i) {
+        return tuples[i];
+    }
+
+    /**
+     * @return the key of the tuple with index i
+     */
+    public int key(int i) {
+        return tupleKeys[i];
+    }
+
+    /**
+     * @return the number of tuples in the table; tuple indexes run from 0
+     *         to size() - 1 in insertion order
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove every tuple, keeping the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(tuples, 0, size, null);
+        Arrays.fill(slotHeads, EMPTY);
+        size = 0;
+        distinctKeys = 0;
+    }
+}
@@ -1,22 +1,44 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregates over a set of IntFields.
+ * <p>
+ * One aggregator computes any number of aggregates, grouped by any number
+ * of fields, in a single pass. Groups live in an {@link IntAggregateTable}
+ * with one accumulator column per distinct aggregated field, so merging a
+ * tuple is a single probe plus one update per column, and boxes nothing when
+ * the tuples are grouped by one INT_TYPE field (or not grouped). A SUM that
+ * does not fit in an INT_TYPE result is reported as an error instead of
+ * wrapping around.
+ * <p>
+ * Each aggregate yields one output field, except SUM_COUNT, which yields
+ * its sum and its count. SC_AVG reads the sums of SUM_COUNT output at its
+ * field and the counts at the field after it, so that averages can be
+ * computed from partial aggregates.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-	private final Op op;
-	private final int aField;
-	private final Type gbFieldType;
-	private final int gbField;
-	private final boolean hasGroup;
-	private final HashMap<Field, Integer> groupData;
-	private final HashMap<Field, Integer> groupCount;
+	private final Op[] ops;
+	private final int[] gbFields;
+	private final Type[] gbFieldTypes;
+	private final boolean intGroup;
+	// accumulator column of each aggregate's field (and, for SC_AVG, of the
+	// count field after it), and the field each column reads
+	private final int[] columnOf;
+	private final int[] countColumnOf;
+	private final int[] columnFields;
+	private final IntAggregateTable table;
+	// group of each key that is not a single INT_TYPE value, and the key of
+	// each such group: a Field, or a List<Field> for composite keys
+	private final HashMap<Object, Integer> groupIds;
+	private final ArrayList<Object> groupKeys;
 
 	/**
      * Aggregate constructor
@@ -34,15 +56,88 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-    	this.gbField = gbfield;
-    	this.gbFieldType = gbfieldtype;
-    	this.aField = afield;
-    	this.op = what;
-	    this.hasGroup = gbfield != NO_GROUPING;
-	    this.groupData = new HashMap<>();
-	    this.groupCount = new HashMap<>();
+    	this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+		    gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype},
+		    new int[]{afield}, new Op[]{what});
     }
 
+	/**
+	 * Aggregate constructor for several aggregates and group-by fields
+	 *
+	 * @param gbfields
+	 *            the 0-based indexes of the group-by fields in the tuple;
+	 *            empty if there is no grouping
+	 * @param gbfieldtypes
+	 *            the types of the group by fields
+	 * @param afields
+	 *            the 0-based index of the field of each aggregate
+	 * @param whats
+	 *            the operator of each aggregate
+	 */
+	public IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats) {
+		if(afields.length != whats.length || afields.length == 0){
+			throw new IllegalArgumentException("need one field for each of at least one aggregate");
+		}
+		this.gbFields = gbfields.clone();
+		this.gbFieldTypes = gbfieldtypes.clone();
+		this.ops = whats.clone();
+		this.intGroup = gbfields.length == 1 && gbfieldtypes[0] == Type.INT_TYPE;
+		this.columnOf = new int[whats.length];
+		this.countColumnOf = new int[whats.length];
+		final ArrayList<Integer> fields = new ArrayList<>();
+		for (int i = 0; i < whats.length; i++) {
+			columnOf[i] = columnFor(fields, afields[i]);
+			countColumnOf[i] = whats[i] == Op.SC_AVG ? columnFor(fields, afields[i] + 1) : -1;
+		}
+		this.columnFields = new int[fields.size()];
+		for (int c = 0; c < columnFields.length; c++) {
+			columnFields[c] = fields.get(c);
+		}
+		this.table = new IntAggregateTable(columnFields.length, 16);
+		this.groupIds = new HashMap<>();
+		this.groupKeys = new ArrayList<>();
+	}
+
+	/**
+	 * @return the accumulator column of a field, shared by all the
+	 *         aggregates over that field
+	 */
+	private static int columnFor(ArrayList<Integer> fields, int field) {
+		final int c = fields.indexOf(field);
+		if(c >= 0){
+			return c;
+		}
+		fields.add(field);
+		return fields.size() - 1;
+	}
+
+	private int groupOf(Tuple tup) {
+		if(gbFields.length == 0){
+			return table.size() == 0 ? table.addGroup() : 0;
+		}
+		if(intGroup){
+			return table.findOrAdd(((IntField) tup.getField(gbFields[0])).getValue());
+		}
+		final Object key;
+		if(gbFields.length == 1){
+			key = tup.getField(gbFields[0]);
+		}else {
+			final Field[] fields = new Field[gbFields.length];
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = tup.getField(gbFields[i]);
+			}
+			key = Arrays.asList(fields);
+		}
+		final Integer known = groupIds.get(key);
+		if(known != null){
+			return known;
+		}
+		final int group = table.addGroup();
+		groupIds.put(key, group);
+		groupKeys.add(key);
+		return group;
+	}
+
 	/**
 	 * Merge a new tuple into the aggregate, grouping as indicated in the
 	 * constructor
@@ -51,100 +146,101 @@ public class IntegerAggregator implements Aggregator {
 	 *            the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
-		final int cur = ((IntField) tup.getField(aField)).getValue();
-		Field key;
-		if(!hasGroup){
-			key = null;
-		}else {
-			key = tup.getField(gbField);
+		final int group = groupOf(tup);
+		for (int c = 0; c < columnFields.length; c++) {
+			final Field f = tup.getField(columnFields[c]);
+			if(f instanceof IntField){
+				table.add(group, c, ((IntField) f).getValue());
+			}else {
+				// only COUNT can be taken over other fields
+				table.addCount(group, c);
+			}
 		}
-		switch (op){
-			case MIN:
-				this.groupData.compute(key, (k,v)->{
-					if(v == null){
-						return cur;
-					}
-					if(cur < v){
-						return cur;
-					}
-					return v;
-				});
-				break;
-			case MAX:
-				this.groupData.compute(key, (k,v)->{
-					if(v == null){
-						return cur;
-					}
-					if(cur > v) {
-						return cur;
-					}
-					return v;
-				});
-				break;
-			case AVG:
-				this.groupCount.compute(key, (k,v)->{
-					if(v != null){
-						return v+1;
-					}else{
-						return 1;
-					}
-				});
-				this.groupData.compute(key, (k,v)->{
-					if(v == null){
-						return cur;
-					}else{
-						return v + cur;
-					}
-				});
-				break;
-			case SUM:
-				this.groupData.compute(key, (k,v)->{
-					if(v==null){
-						return cur;
-					}else {
-						return cur + v;
-					}
-				});
-				break;
-			case COUNT:
-				this.groupData.compute(key, (k,v)->{
-					if(v != null){
-						return v+1;
-					}else{
-						return 1;
-					}
-				});
-				break;
-			case SC_AVG:
-			case SUM_COUNT:
-				System.out.println("not implement");
+	}
+
+	/**
+	 * @return the number of fields the aggregates produce for each group
+	 */
+	private int numResultFields() {
+		int n = 0;
+		for (Op op : ops) {
+			n += op == Op.SUM_COUNT ? 2 : 1;
 		}
+		return n;
+	}
 
+	private int checkedSum(int group, int column) throws DbException {
+		final long sum = table.sum(group, column);
+		if(sum != (int) sum){
+			throw new DbException("SUM " + sum + " overflows INT_TYPE");
+		}
+		return (int) sum;
+	}
+
+	/**
+	 * Write the aggregate values of a group into a tuple.
+	 *
+	 * @throws DbException if a value does not fit in an INT_TYPE
+	 */
+	private void setResults(Tuple tuple, int group, int first) throws DbException {
+		int i = first;
+		for (int a = 0; a < ops.length; a++) {
+			final int c = columnOf[a];
+			final int value;
+			switch (ops[a]){
+				case MIN:
+					value = table.min(group, c);
+					break;
+				case MAX:
+					value = table.max(group, c);
+					break;
+				case COUNT:
+					value = (int) table.count(group, c);
+					break;
+				case AVG:
+					value = (int) (table.sum(group, c) / table.count(group, c));
+					break;
+				case SUM:
+					value = checkedSum(group, c);
+					break;
+				case SUM_COUNT:
+					tuple.setField(i++, new IntField(checkedSum(group, c)));
+					value = (int) table.count(group, c);
+					break;
+				case SC_AVG:
+					final long count = table.sum(group, countColumnOf[a]);
+					value = count == 0 ? 0 : (int) (table.sum(group, c) / count);
+					break;
+				default:
+					throw new DbException("not implement: " + ops[a]);
+			}
+			tuple.setField(i++, new IntField(value));
+		}
 	}
 
 	/**
 	 * Create a OpIterator over group aggregate results.
 	 *
-	 * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
-	 *         if using group, or a single (aggregateVal) if no grouping. The
-	 *         aggregateVal is determined by the type of aggregate specified in
-	 *         the constructor.
+	 * @return a OpIterator whose tuples are the group-by values followed by
+	 *         the aggregate values, or just the aggregate values if there is
+	 *         no grouping. The aggregate values are determined by the
+	 *         aggregates specified in the constructor.
 	 */
 	public OpIterator iterator() {
 		return new OpIterator() {
-			private Iterator<Field> keyIterator;
+			private int group;
 			private boolean opened;
 			@Override
 			public void open() throws DbException, TransactionAbortedException {
 				this.opened = true;
-				this.keyIterator = groupData.keySet().iterator();
+				this.group = 0;
 			}
 
 
 			@Override
 			public boolean hasNext() throws DbException, TransactionAbortedException
 			{
-				return this.keyIterator.hasNext();
+				return this.group < table.size();
 			}
 
 			@Override
@@ -152,39 +248,38 @@ public class IntegerAggregator implements Aggregator {
 				if(!opened){
 					throw new DbException("haven't been opened");
 				}
-				final Field key = this.keyIterator.next();
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				final int g = this.group++;
 				final Tuple tuple = new Tuple(getTupleDesc());
-				IntField result = null;
-				switch (op){
-					case SUM:
-					case MAX:
-					case MIN:
-						result = new IntField(groupData.get(key));
-						break;
-					case COUNT:
-						result = new IntField(groupData.get(key));
-						break;
-					case AVG:
-						final int i = groupData.get(key) / groupCount.get(key);
-						result = new IntField(i);
-						break;
+				if(intGroup){
+					tuple.setField(0, new IntField(table.key(g)));
+				}else if(gbFields.length == 1){
+					tuple.setField(0, (Field) groupKeys.get(g));
+				}else if(gbFields.length > 1){
+					@SuppressWarnings("unchecked")
+					final List<Field> key = (List<Field>) groupKeys.get(g);
+					for (int i = 0; i < key.size(); i++) {
+						tuple.setField(i, key.get(i));
+					}
 				}
-				tuple.setField(0, key);
-				tuple.setField(1, result);
+				setResults(tuple, g, gbFields.length);
 				return tuple;
 
 			}
 
 			@Override
 			public void rewind() throws DbException, TransactionAbortedException {
-				this.keyIterator = groupData.keySet().iterator();
+				this.group = 0;
 			}
 
 			@Override
 			public TupleDesc getTupleDesc() {
-				Type[] types = new Type[2];
-				types[0] = gbFieldType;
-				types[1] = Type.INT_TYPE;
+				final Type[] types = new Type[gbFields.length + numResultFields()];
+				for (int i = 0; i < types.length; i++) {
+					types[i] = i < gbFields.length ? gbFieldTypes[i] : Type.INT_TYPE;
+				}
 				return new TupleDesc(types);
 			}
 
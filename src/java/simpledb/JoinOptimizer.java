@@ -14,6 +14,24 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /**
+     * The ways of computing a join that the optimizer prices and chooses
+     * between.
+     */
+    public enum JoinMethod {
+        /** {@link Join}, or {@link ParallelHashEquiJoin} for an equality
+            join of inputs that are scanned in parallel */
+        NESTED_LOOPS,
+        /** {@link SortMergeJoin}, sorting the inputs not in join order */
+        SORT_MERGE,
+        /** {@link IndexNestedLoopJoin}, searching the B+ tree the right-hand
+            table is stored in */
+        INDEX_NESTED_LOOPS
+    }
+
+    // the method chosen for each join of the last order computed by orderJoins
+    private final HashMap<LogicalJoinNode, JoinMethod> methods = new HashMap<>();
+
     /**
      * Constructor
      * 
@@ -33,7 +51,11 @@ public class JoinOptimizer {
      * there is insufficient information to determine which plan should be the
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
-     * reason, the plan1
+     * reason, the operator is chosen from the shape of the subplans: an index
+     * join if plan2 is a scan of a B+ tree on the join field, a merge join if
+     * an input already arrives in join order, nested loops otherwise. Use
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator, JoinMethod)}
+     * with the method {@link #orderJoins} chose to follow the cost estimates.
      * 
      * @param lj
      *            The join being considered
@@ -44,9 +66,31 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, null);
+    }
+
+    /**
+     * Return an iterator computing a given logical join with the given
+     * method. If the subplans do not allow the method after all, e.g. an
+     * index join whose right-hand plan is not a scan of the index, the join
+     * is computed with nested loops.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param method
+     *            The method to use, as chosen by {@link #orderJoins} (see
+     *            {@link #getJoinMethod}), or null to choose one from the
+     *            shape of the subplans
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2, JoinMethod method)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
-        OpIterator j;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -68,10 +112,53 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        int parallelism = LogicalPlan.getParallelism();
+        boolean parallelHash = lj.p == Predicate.Op.EQUALS && parallelism > 1
+                && (Exchange.isParallel(plan1) || Exchange.isParallel(plan2));
+        boolean canProbe = !(lj instanceof LogicalSubplanJoinNode)
+                && IndexNestedLoopJoin.canProbe(plan2, t2id, lj.p);
+        boolean canMerge = SortMergeJoin.supports(lj.p);
+        if (method == null) {
+            if (parallelHash) {
+                // the inputs were judged large enough to scan in parallel, so
+                // build and probe the hash tables in parallel too
+                method = JoinMethod.NESTED_LOOPS;
+            } else if (canProbe) {
+                method = JoinMethod.INDEX_NESTED_LOOPS;
+            } else if (canMerge && (SortMergeJoin.sortedOn(plan1) == t1id
+                    || SortMergeJoin.sortedOn(plan2) == t2id)) {
+                method = JoinMethod.SORT_MERGE;
+            } else {
+                method = JoinMethod.NESTED_LOOPS;
+            }
+        }
 
-        return j;
+        if (method == JoinMethod.INDEX_NESTED_LOOPS && canProbe) {
+            // search the inner table instead of scanning it for every outer tuple
+            return new IndexNestedLoopJoin(p, plan1, plan2);
+        }
+        if (method == JoinMethod.SORT_MERGE && canMerge) {
+            // sort the inputs that do not arrive in join order, and merge
+            if (SortMergeJoin.sortedOn(plan1) != t1id) {
+                plan1 = new OrderBy(t1id, true, plan1);
+            }
+            if (SortMergeJoin.sortedOn(plan2) != t2id) {
+                plan2 = new OrderBy(t2id, true, plan2);
+            }
+            return new SortMergeJoin(p, plan1, plan2);
+        }
+        if (parallelHash) {
+            return new ParallelHashEquiJoin(p, plan1, plan2, parallelism);
+        }
+        return new Join(p, plan1, plan2);
+    }
 
+    /**
+     * @return the method {@link #orderJoins} chose for a join of the order
+     *         it returned last, or null if it did not plan the join
+     */
+    public JoinMethod getJoinMethod(LogicalJoinNode lj) {
+        return methods.get(lj);
     }
 
     /**
@@ -117,6 +204,96 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cost of a join, taking into account whether either input
+     * arrives sorted on its join field. If one does, a {@link SortMergeJoin}
+     * is considered as well: it reads each input once and, besides sorting
+     * the other input, only compares each tuple a few times (plus one step
+     * per result of a range join).
+     *
+     * @param sorted1
+     *            true if the left-hand side arrives sorted on its join field
+     * @param sorted2
+     *            true if the right-hand side arrives sorted on its join field
+     * @return An estimate of the cost of the cheapest way to compute the join
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        double nestedLoops = estimateJoinCost(j, card1, card2, cost1, cost2);
+        if (j instanceof LogicalSubplanJoinNode || !SortMergeJoin.supports(j.p)
+                || !(sorted1 || sorted2)) {
+            return nestedLoops;
+        }
+        double merge = cost1 + cost2 + card1 + card2;
+        if (!sorted1) {
+            merge += sortCost(card1);
+        }
+        if (!sorted2) {
+            merge += sortCost(card2);
+        }
+        if (j.p != Predicate.Op.EQUALS) {
+            merge += (double) card1 * card2 / 2;
+        }
+        return Math.min(nestedLoops, merge);
+    }
+
+    /**
+     * Estimate the cost of an index nested-loop join, which searches a B+
+     * tree on the right-hand join field once per left-hand tuple instead of
+     * scanning the right-hand table.
+     *
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card
+     *            Estimated cardinality of the join
+     * @param cost1
+     *            Estimated cost of one full scan of the left-hand side
+     * @param probeCost
+     *            Estimated cost of one search of the index, i.e. its height
+     *            times the cost of reading a page
+     * @return An estimate of the cost of this join
+     * @see IndexNestedLoopJoin
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card,
+            double cost1, double probeCost) {
+        return cost1 + card1 * probeCost + card;
+    }
+
+    /**
+     * @return the estimated cost of one search of the B+ tree a table is
+     *         stored in
+     */
+    private double probeCost(String tableAlias, Map<String, TableStats> stats) {
+        TableStats ts = stats.get(Database.getCatalog().getTableName(p.getTableId(tableAlias)));
+        return ts.estimateIndexScanCost(0);
+    }
+
+    /**
+     * @return the number of comparisons needed to sort card tuples
+     */
+    private static double sortCost(int card) {
+        return card < 2 ? card : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Return true if the specified table is a {@link BTreeFile} keyed on the
+     * specified field, so that scanning it yields its tuples in ascending
+     * order of the field, and it can be searched on the field.
+     */
+    private boolean isKeyedOn(String tableAlias, String field) {
+        if (tableAlias == null) {
+            return false;
+        }
+        int tableId = p.getTableId(tableAlias);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile)) {
+            return false;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        return field.equals(td.getFieldName(((BTreeFile) f).keyField()));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -240,6 +417,9 @@ public class JoinOptimizer {
         HashMap<String, Double> filterSelectivities, boolean explain)
         throws ParsingException {
         //Not necessary for labs 1--3
+        if (joins.isEmpty()) {
+            return new Vector<>();
+        }
         double bestSoFar = Double.MAX_VALUE;
         PlanCache planCache = new PlanCache();
 
@@ -258,13 +438,24 @@ public class JoinOptimizer {
                     }
                     final CostCard costCard = computeCostAndCardOfSubplan(stats, filterSelectivities, item, set, bestSoFar, planCache);
                     if (costCard != null) {
-                        planCache.addPlan(set, costCard.cost, costCard.card, costCard.plan);
+                        planCache.addPlan(set, costCard.cost, costCard.card, costCard.plan, costCard.method);
                         bestSoFar = costCard.cost;
                     }
                 }
             }
         }
-        return planCache.getOrder(new HashSet<>(joins));
+        final Vector<LogicalJoinNode> best = planCache.getOrder(new HashSet<>(joins));
+        // each prefix of the best order is the cached plan for its joins, so
+        // the method cached with it is the one chosen for its last join
+        methods.clear();
+        if (best != null) {
+            final Set<LogicalJoinNode> prefix = new HashSet<>();
+            for (LogicalJoinNode j : best) {
+                prefix.add(j);
+                methods.put(j, planCache.getMethod(prefix));
+            }
+        }
+        return best;
     }
 
 // ===================== Private Methods =================================
@@ -389,14 +580,44 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // only base relations are known to arrive in key order, or can be
+        // searched through an index
+        boolean t1keyed = !(j instanceof LogicalSubplanJoinNode)
+                && !doesJoin(prevBest, table1Alias) && isKeyedOn(table1Alias, j.f1PureName);
+        boolean t2keyed = !(j instanceof LogicalSubplanJoinNode)
+                && !doesJoin(prevBest, table2Alias) && isKeyedOn(table2Alias, j.f2PureName);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1keyed, t2keyed);
+        JoinMethod method1 = cost1 < estimateJoinCost(j, t1card, t2card, t1cost, t2cost)
+                ? JoinMethod.SORT_MERGE : JoinMethod.NESTED_LOOPS;
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2keyed, t1keyed);
+        JoinMethod method2 = cost2 < estimateJoinCost(j2, t2card, t1card, t2cost, t1cost)
+                ? JoinMethod.SORT_MERGE : JoinMethod.NESTED_LOOPS;
+        if ((t1keyed || t2keyed) && SortMergeJoin.supports(j.p)) {
+            int card = estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey, stats);
+            if (t2keyed) {
+                double indexCost = estimateIndexJoinCost(j, t1card, card, t1cost,
+                        probeCost(table2Alias, stats));
+                if (indexCost < cost1) {
+                    cost1 = indexCost;
+                    method1 = JoinMethod.INDEX_NESTED_LOOPS;
+                }
+            }
+            if (t1keyed) {
+                double indexCost = estimateIndexJoinCost(j2, t2card, card, t2cost,
+                        probeCost(table1Alias, stats));
+                if (indexCost < cost2) {
+                    cost2 = indexCost;
+                    method2 = JoinMethod.INDEX_NESTED_LOOPS;
+                }
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            method1 = method2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
@@ -409,6 +630,7 @@ public class JoinOptimizer {
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
             rightPkey, stats);
         cc.cost = cost1;
+        cc.method = method1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
         cc.plan.addElement(j); // prevbest is left -- add new join to end
         return cc;
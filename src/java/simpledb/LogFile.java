@@ -4,6 +4,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -42,6 +44,16 @@ must not be declared synchronized and must begin with a block like:
 <li> The first long integer of the file represents the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
+<li> The second long integer is the LSN base of the file.  The LSN of a
+record is the LSN base plus the offset where the record begins, so LSNs
+increase monotonically as records are appended.  Truncating the log
+raises the base by the number of bytes dropped, so records keep their
+LSNs, and a log that is started afresh continues from the LSNs of the
+log it replaces.  Every logged change stamps its LSN on the page it
+changes (see {@link Page#getLSN}); recovery does not redo a change whose
+page on disk already carries that LSN or a later one, and the BufferPool
+forces the log up to a page's LSN before writing the page.
+
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
@@ -51,24 +63,63 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, INSERT and DELETE
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  They are used for the
+first write of a page (a page appended to a file or bulk loaded), and
+for B+ tree pages.
+
+<li>INSERT and DELETE records describe a change to one slot of a heap
+page.  They consist of a compact page id (a byte kind, an integer
+table id and an integer page number), an integer slot number, and the
+tuple stored in, or removed from, the slot in its on-page format,
+preceded by its integer length.  Redo and undo both set or clear the
+slot, so applying a record twice is harmless.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction id
+and a long integer first record offset for each active transaction;
+then an integer count of dirty pages, and a compact page id and a long
+integer recLSN for each.
 
 </ul>
 
+<u> Fuzzy checkpoints: </u>
+<p>
+
+The log keeps a dirty page table: for every page with a logged change
+that is not yet on disk, the recLSN, i.e. the LSN of the oldest such
+change.  A page's entry is added when a change to it is logged and
+dropped when the DbFile has written the page and forced it to disk
+(see {@link #pageWritten}); an entry dropped on a write the OS still
+buffered would let truncation delete records a crash still needs.
+A checkpoint only writes the active transactions and the dirty page
+table; it does not flush the BufferPool, so transactions are held up
+only while the record is appended.  Recovery redoes from the smallest
+recLSN of the checkpoint (or from the checkpoint, if that is earlier),
+and truncation keeps the log from there.  After the checkpoint, the
+BufferPool writes the pages of the table in the background (see
+{@link BufferPool#writeInBackground}), so the next checkpoint can move
+the redo point forward.
+
+<u> Group commit: </u>
+<p>
+
+COMMIT records are appended under the log monitor but forced outside
+it.  A committer that finds no force in progress becomes the flusher
+for its group: it waits up to the configured max-wait for more commits
+(or until max-batch commits are pending), forces the log once, and
+wakes every committer whose record is now durable.  Committers that
+arrive while a force is running simply wait for the next one.  See
+{@link #setGroupCommitPolicy}.
 */
 
 public class LogFile {
@@ -82,16 +133,47 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int INSERT_RECORD = 6;
+    static final int DELETE_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /** Kind byte of a compact heap page id; B+ tree page ids are stored as
+        BTREE_PAGE_ID plus their page category. */
+    static final byte HEAP_PAGE_ID = 0;
+    static final byte BTREE_PAGE_ID = 1;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    /** Size of the file header: checkpoint offset and LSN base. */
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
 
     long currentOffset = -1;//protected by this
+    long lsnBase = 0; // LSN of offset 0; protected by this
+    private volatile long durableLsn = 0; // records below this LSN are forced
+    int redone = 0, redoSkipped = 0; // changes redone and skipped by the last recovery
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    /** Dirty page table: the recLSN and the last logged LSN of every page
+        with logged changes that may not be on disk.  Protected by this. */
+    HashMap<PageId,long[]> dirtyPages = new HashMap<PageId,long[]>();
+
+    /** Default longest time, in microseconds, a flusher waits for more
+        commits to join its group. */
+    public static final long DEFAULT_GROUP_COMMIT_WAIT_MICROS = 0;
+    /** Default number of pending commits that are forced without waiting
+        any longer. */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+
+    private final Object groupCommit = new Object();
+    long commitsQueued = 0; // COMMIT records appended; protected by this
+    private long commitsDurable = 0; // protected by groupCommit
+    private boolean flushing = false; // protected by groupCommit
+    private long maxWaitMicros = DEFAULT_GROUP_COMMIT_WAIT_MICROS; // protected by groupCommit
+    private int maxBatch = DEFAULT_GROUP_COMMIT_BATCH; // protected by groupCommit
+    private long commitCount = 0; // protected by groupCommit
+    private long commitForceCount = 0; // protected by groupCommit
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -127,14 +209,34 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
+            // continue the LSNs of the log being thrown away, which
+            // pages on disk may carry
+            long base = 0;
+            if (raf.length() >= HEADER_SIZE) {
+                raf.seek(LONG_SIZE);
+                base = Math.max(0, raf.readLong()) + raf.length();
+            }
             raf.seek(0);
             raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            writeHeader(NO_CHECKPOINT_ID, base);
         }
     }
 
+    /** Start an empty log file with the given header, leaving the file
+        pointer at its end. */
+    private void writeHeader(long cpLoc, long base) throws IOException {
+        raf.writeLong(cpLoc);
+        raf.writeLong(base);
+        lsnBase = base;
+        currentOffset = raf.getFilePointer();
+        durableLsn = 0;
+    }
+
+    /** @return the LSN the next record appended to the log will get */
+    public synchronized long nextLSN() {
+        return lsnBase + currentOffset;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -169,21 +271,148 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with the other
+        transactions committing at the same time (see the group commit
+        note above); this method returns once the record is durable.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long ticket;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            ticket = ++commitsQueued;
+        }
+        awaitDurable(ticket);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Wait until the COMMIT record with the given ticket has been
+        forced, forcing the log for the whole pending group if no other
+        committer is doing so. */
+    private void awaitDurable(long ticket) throws IOException {
+        synchronized (groupCommit) {
+            commitCount++;
+            // a flusher waiting for its batch to fill counts this commit
+            groupCommit.notifyAll();
+            while (commitsDurable < ticket && flushing) {
+                try {
+                    groupCommit.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted waiting for group commit");
+                }
+            }
+            if (commitsDurable >= ticket) {
+                return;
+            }
+            flushing = true;
+        }
+
+        long forced = 0;
+        try {
+            waitForBatch(ticket);
+            forced = forceCommits();
+        } finally {
+            synchronized (groupCommit) {
+                commitsDurable = Math.max(commitsDurable, forced);
+                flushing = false;
+                groupCommit.notifyAll();
+            }
+        }
+    }
+
+    /** Called by a flusher: wait until max-batch commits are pending or
+        max-wait has passed since the flusher's own commit. */
+    private void waitForBatch(long ticket) throws IOException {
+        synchronized (groupCommit) {
+            if (maxWaitMicros <= 0) {
+                return;
+            }
+            long deadline = System.nanoTime() + maxWaitMicros * 1000;
+            long remaining;
+            while (queuedCommits() - commitsDurable < maxBatch
+                   && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    groupCommit.wait(remaining / 1000000, (int) (remaining % 1000000));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted waiting for group commit");
+                }
+            }
+        }
+    }
+
+    private synchronized long queuedCommits() {
+        return commitsQueued;
+    }
+
+    /** Force every COMMIT record appended so far, without holding the log
+        monitor during the force, so other records can be appended
+        meanwhile.
+        @return the ticket of the last COMMIT record that is now durable */
+    private long forceCommits() throws IOException {
+        while (true) {
+            long target, lsn;
+            FileChannel channel;
+            synchronized (this) {
+                target = commitsQueued;
+                lsn = lsnBase + currentOffset;
+                channel = raf.getChannel();
+            }
+            try {
+                channel.force(true);
+            } catch (ClosedChannelException e) {
+                // the log was truncated and reopened under us; force the new file
+                continue;
+            }
+            synchronized (this) {
+                durableLsn = Math.max(durableLsn, lsn);
+            }
+            synchronized (groupCommit) {
+                commitForceCount++;
+            }
+            return target;
+        }
+    }
+
+    /** Set the group commit policy.
+        @param maxWaitMicros the longest time a flusher waits for more
+        commits to join its group before forcing the log; 0 forces as soon
+        as the previous force finishes
+        @param maxBatch the number of pending commits at which a flusher
+        forces without waiting any longer
+    */
+    public void setGroupCommitPolicy(long maxWaitMicros, int maxBatch) {
+        if (maxWaitMicros < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("invalid group commit policy: wait " +
+                                               maxWaitMicros + "us, batch " + maxBatch);
+        }
+        synchronized (groupCommit) {
+            this.maxWaitMicros = maxWaitMicros;
+            this.maxBatch = maxBatch;
+        }
+    }
+
+    /** @return the number of transactions committed through this log */
+    public long getCommitCount() {
+        synchronized (groupCommit) {
+            return commitCount;
+        }
+    }
+
+    /** @return the number of forces done to make COMMIT records durable;
+        with group commit this is lower than {@link #getCommitCount} when
+        transactions commit concurrently */
+    public long getCommitForceCount() {
+        synchronized (groupCommit) {
+            return commitForceCount;
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -192,6 +421,8 @@ public class LogFile {
         @param before The before image of the page
         @param after The after image of the page
 
+        The after image is stamped with the LSN of the record.
+
         @see simpledb.Page#getBeforeImage
     */
     public  synchronized void logWrite(TransactionId tid, Page before,
@@ -199,6 +430,8 @@ public class LogFile {
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        after.setLSN(lsnBase + currentOffset);
+        noteChange(after.getId(), lsnBase + currentOffset);
         /* update record conists of
 
            record type
@@ -218,6 +451,150 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an INSERT record for a tuple the specified transaction has
+        just stored in a heap page.
+        @param tid The transaction performing the insert
+        @param t The inserted tuple, with the RecordId it was stored at
+        @return the LSN of the record, to be stamped on the page
+    */
+    public long logInsert(TransactionId tid, Tuple t) throws IOException {
+        RecordId rid = t.getRecordId();
+        return logSlotChange(INSERT_RECORD, tid,
+                      new SlotChange(rid.getPageId(), rid.getTupleNumber(), tupleData(t)));
+    }
+
+    /** Write a DELETE record for a tuple the specified transaction has
+        just removed from a heap page.
+        @param tid The transaction performing the delete
+        @param t The deleted tuple, with the RecordId it was stored at
+        @return the LSN of the record, to be stamped on the page
+    */
+    public long logDelete(TransactionId tid, Tuple t) throws IOException {
+        RecordId rid = t.getRecordId();
+        return logSlotChange(DELETE_RECORD, tid,
+                      new SlotChange(rid.getPageId(), rid.getTupleNumber(), tupleData(t)));
+    }
+
+    private synchronized long logSlotChange(int type, TransactionId tid, SlotChange change)
+        throws IOException {
+        preAppend();
+        long lsn = lsnBase + currentOffset;
+        noteChange(change.pid, lsn);
+        // assembled in memory so the record costs a single write
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(type);
+        dos.writeLong(tid.getId());
+        writeSlotChange(dos, change);
+        dos.writeLong(currentOffset);
+        raf.write(baos.toByteArray());
+        currentOffset = raf.getFilePointer();
+        return lsn;
+    }
+
+    /** Add a logged change to the dirty page table. */
+    private void noteChange(PageId pid, long lsn) {
+        long[] entry = dirtyPages.get(pid);
+        if (entry == null) {
+            dirtyPages.put(pid, new long[] {lsn, lsn});
+        } else {
+            entry[1] = lsn;
+        }
+    }
+
+    /** Tell the log that a page was written to its file and forced to
+        disk, so the changes it carries no longer need redo.  Called by
+        the DbFile implementations when they sync the pages they wrote
+        (see DbFile#sync).
+        @param pid the page written
+        @param lsn the page LSN of the image written
+    */
+    public synchronized void pageWritten(PageId pid, long lsn) {
+        long[] entry = dirtyPages.get(pid);
+        if (entry == null) {
+            return;
+        }
+        if (entry[1] <= lsn) {
+            dirtyPages.remove(pid);
+        } else {
+            // a later change was logged after this image was taken
+            entry[0] = Math.max(entry[0], lsn + 1);
+        }
+    }
+
+    /** @return the smallest recLSN of the dirty page table, or
+        Long.MAX_VALUE if no page is dirty */
+    private long minRecLSN(Map<PageId,Long> dirty) {
+        long min = Long.MAX_VALUE;
+        for (long recLsn : dirty.values()) {
+            min = Math.min(min, recLsn);
+        }
+        return min;
+    }
+
+    /** A change to one slot of a heap page, as logged by INSERT and
+        DELETE records. */
+    static class SlotChange {
+        final PageId pid;
+        final int slot;
+        final byte[] tupleData;
+
+        SlotChange(PageId pid, int slot, byte[] tupleData) {
+            this.pid = pid;
+            this.slot = slot;
+            this.tupleData = tupleData;
+        }
+    }
+
+    /** @return the tuple's fields in their on-page format */
+    static byte[] tupleData(Tuple t) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(t.getTupleDesc().getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            t.getField(i).serialize(dos);
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    static void writeSlotChange(DataOutput out, SlotChange change) throws IOException {
+        writePageId(out, change.pid);
+        out.writeInt(change.slot);
+        out.writeInt(change.tupleData.length);
+        out.write(change.tupleData);
+    }
+
+    static SlotChange readSlotChange(DataInput in) throws IOException {
+        PageId pid = readPageId(in);
+        int slot = in.readInt();
+        byte[] tupleData = new byte[in.readInt()];
+        in.readFully(tupleData);
+        return new SlotChange(pid, slot, tupleData);
+    }
+
+    /** Write a page id as a kind byte, the table id and the page number. */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        if (pid instanceof BTreePageId) {
+            out.writeByte(BTREE_PAGE_ID + ((BTreePageId) pid).pgcateg());
+        } else if (pid instanceof HeapPageId) {
+            out.writeByte(HEAP_PAGE_ID);
+        } else {
+            throw new IOException("cannot log page id " + pid);
+        }
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.getPageNumber());
+    }
+
+    static PageId readPageId(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        int tableId = in.readInt();
+        int pgNo = in.readInt();
+        if (kind == HEAP_PAGE_ID) {
+            return new HeapPageId(tableId, pgNo);
+        }
+        return new BTreePageId(tableId, pgNo, kind - BTREE_PAGE_ID);
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -265,17 +642,21 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageConstructor(pageClass, idClass);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
             raf.read(pageData); //read before image
 
-            Object[] pageArgs = new Object[2];
+            Object[] pageArgs = new Object[pageConst.getParameterTypes().length];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
+            if (pageArgs.length == 3) {
+                // B+ tree leaf and internal pages also need the key field
+                pageArgs[2] = ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+            }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +676,23 @@ public class LogFile {
 
     }
 
+    /** Find the Page(PageId id, byte[] data) constructor of a page class,
+        or the Page(PageId id, byte[] data, int key) constructor of a B+
+        tree page keyed on a field; pages may declare other constructors
+        as well. */
+    private static Constructor<?> pageConstructor(Class<?> pageClass, Class<?> idClass)
+        throws ClassNotFoundException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if ((params.length == 2 || params.length == 3 && params[2] == int.class)
+                && params[0].isAssignableFrom(idClass)
+                && params[1] == byte[].class) {
+                return c;
+            }
+        }
+        throw new ClassNotFoundException("no (PageId, byte[]) constructor in " + pageClass.getName());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -316,44 +714,60 @@ public class LogFile {
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The
+        checkpoint is fuzzy: it records the active transactions and the
+        dirty page table without flushing any page, and then has the
+        BufferPool write the dirty pages in the background. Every file
+        is synced first, so pages written but not yet forced, e.g. by
+        eviction, leave the dirty page table. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        BufferPool.syncAllFiles();
+        Set<PageId> dirty;
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset, endCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            startCpOffset = raf.getFilePointer();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeInt(CHECKPOINT_RECORD);
+            dos.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            dos.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                dos.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                dos.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            dos.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,long[]> e : dirtyPages.entrySet()) {
+                writePageId(dos, e.getKey());
+                dos.writeLong(e.getValue()[0]);
             }
+            dos.writeLong(currentOffset);
+            raf.write(baos.toByteArray());
+            endCpOffset = raf.getFilePointer();
+            // the record must be on disk before the header points at it
+            force();
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.seek(endCpOffset);
+            currentOffset = endCpOffset;
+            dirty = new HashSet<PageId>(dirtyPages.keySet());
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
+        Database.getBufferPool().writeInBackground(dirty);
         logTruncate();
     }
 
@@ -386,13 +800,24 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            // redo starts at the oldest change not yet on disk
+            int numDirty = raf.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(raf);
+                long recOffset = raf.readLong() - lsnBase;
+                minLogRecord = Math.min(minLogRecord, Math.max(recOffset, HEADER_SIZE));
+            }
         }
 
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
         logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        logNew.writeLong((cpLoc - minLogRecord) + HEADER_SIZE);
+        // records keep their LSNs at their new offsets
+        long newBase = lsnBase + minLogRecord - HEADER_SIZE;
+        logNew.writeLong(newBase);
 
         raf.seek(minLogRecord);
 
@@ -416,6 +841,10 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case INSERT_RECORD:
+                case DELETE_RECORD:
+                    writeSlotChange(logNew, readSlotChange(raf));
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -423,7 +852,14 @@ public class LogFile {
                         long xid = raf.readLong();
                         long xoffset = raf.readLong();
                         logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                        logNew.writeLong((xoffset - minLogRecord) + HEADER_SIZE);
+                    }
+                    // recLSNs are LSNs, which truncation preserves
+                    int numDirty = raf.readInt();
+                    logNew.writeInt(numDirty);
+                    while (numDirty-- > 0) {
+                        writePageId(logNew, readPageId(raf));
+                        logNew.writeLong(raf.readLong());
                     }
                     break;
                 case BEGIN_RECORD:
@@ -449,7 +885,10 @@ public class LogFile {
         raf.seek(raf.length());
         newFile.delete();
 
+        lsnBase = newBase;
         currentOffset = raf.getFilePointer();
+        // records that committers already consider durable now live only in the new file
+        force();
         //print();
     }
 
@@ -466,19 +905,188 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+                }
+                List<LogRecord> changes = changesOf(Collections.singleton(tid.getId()), first);
+                for (int i = changes.size() - 1; i >= 0; i--) {
+                    undo(tid, changes.get(i), true);
+                }
+            }
+        }
+    }
+
+    /** One record read back from the log. */
+    static class LogRecord {
+        int type;
+        long tid;
+        long offset;
+        long lsn;
+        Page before, after; // UPDATE records
+        SlotChange change; // INSERT and DELETE records
+        HashMap<Long,Long> active; // CHECKPOINT records
+        HashMap<PageId,Long> dirty; // CHECKPOINT records: recLSN of each dirty page
+
+        boolean changesPage() {
+            return type == UPDATE_RECORD || type == INSERT_RECORD || type == DELETE_RECORD;
+        }
+    }
+
+    /** Read the record at the file pointer of raf.
+        @return the record, or null if the log ends, or ends in a
+        partially written record, at the file pointer; the file pointer
+        is then left where it was */
+    LogRecord readRecord() throws IOException {
+        long start = raf.getFilePointer();
+        try {
+            LogRecord r = new LogRecord();
+            r.offset = start;
+            r.lsn = lsnBase + start;
+            r.type = raf.readInt();
+            r.tid = raf.readLong();
+            switch (r.type) {
+            case UPDATE_RECORD:
+                r.before = readPageData(raf);
+                r.after = readPageData(raf);
+                break;
+            case INSERT_RECORD:
+            case DELETE_RECORD:
+                r.change = readSlotChange(raf);
+                break;
+            case CHECKPOINT_RECORD:
+                r.active = new HashMap<Long,Long>();
+                int count = raf.readInt();
+                while (count-- > 0) {
+                    long xid = raf.readLong();
+                    r.active.put(xid, raf.readLong());
+                }
+                r.dirty = new HashMap<PageId,Long>();
+                count = raf.readInt();
+                while (count-- > 0) {
+                    PageId pid = readPageId(raf);
+                    r.dirty.put(pid, raf.readLong());
+                }
+                break;
+            }
+            raf.readLong();
+            return r;
+        } catch (EOFException e) {
+            raf.seek(start);
+            return null;
+        }
+    }
+
+    /** Read the records of the given transactions that change pages,
+        from offset from up to currentOffset, leaving the file pointer at
+        currentOffset. */
+    private List<LogRecord> changesOf(Set<Long> tids, long from) throws IOException {
+        List<LogRecord> changes = new ArrayList<LogRecord>();
+        raf.seek(from);
+        LogRecord r;
+        while (raf.getFilePointer() < currentOffset && (r = readRecord()) != null) {
+            if (r.changesPage() && tids.contains(r.tid)) {
+                changes.add(r);
+            }
+        }
+        raf.seek(currentOffset);
+        return changes;
+    }
+
+    /** Reapply a logged change to the page on disk, unless the page
+        already carries the change. */
+    private void redo(LogRecord r) throws IOException {
+        if (r.type == UPDATE_RECORD) {
+            PageId pid = r.after.getId();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (diskLSN(file, pid) >= r.lsn) {
+                redoSkipped++;
+                return;
+            }
+            r.after.setLSN(r.lsn);
+            file.writePage(r.after);
+            Database.getBufferPool().discardPage(pid);
+        } else {
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(r.change.pid.getTableId());
+            HeapPage page = (HeapPage) file.readPage(r.change.pid);
+            if (page.getLSN() >= r.lsn) {
+                redoSkipped++;
+                return;
             }
+            applyToDisk(file, page, r.change, r.type == INSERT_RECORD, r.lsn);
         }
+        redone++;
+    }
+
+    /** @return the LSN of a page as it is on disk, or 0 if it is not on disk yet */
+    private static long diskLSN(DbFile file, PageId pid) {
+        try {
+            return file.readPage(pid).getLSN();
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /** Reverse a logged change of the given transaction, first logging
+        the reversal as a change of that transaction, so that a later
+        recovery repeats it instead of undoing the change again.
+        @param live true to change the page in the BufferPool, false to
+        change it on disk (during recovery) */
+    private void undo(TransactionId tid, LogRecord r, boolean live) throws IOException {
+        if (r.type == UPDATE_RECORD) {
+            logWrite(tid, r.after, r.before);
+            forceUpTo(r.before.getLSN());
+            DbFile file = Database.getCatalog().getDatabaseFile(r.before.getId().getTableId());
+            file.writePage(r.before);
+            Database.getBufferPool().discardPage(r.before.getId());
+            return;
+        }
+        boolean insert = r.type == DELETE_RECORD;
+        long lsn = logSlotChange(insert ? INSERT_RECORD : DELETE_RECORD, tid, r.change);
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(r.change.pid.getTableId());
+        if (!live) {
+            forceUpTo(lsn);
+            applyToDisk(file, (HeapPage) file.readPage(r.change.pid), r.change, insert, lsn);
+            return;
+        }
+        HeapPage page;
+        try {
+            page = (HeapPage) Database.getBufferPool().getPage(tid, r.change.pid, Permissions.READ_WRITE);
+        } catch (DbException e) {
+            throw new IOException("cannot roll back " + r.change.pid + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("cannot roll back " + r.change.pid + ": " + e.getMessage());
+        }
+        // no page latch: rollback holds the BufferPool, so the page cannot
+        // be written meanwhile, and latching here would invert the
+        // page-then-log order of HeapFile
+        file.applySlotChange(page, r.change.slot, insert ? r.change.tupleData : null);
+        page.setLSN(lsn);
+        page.markDirty(true, tid);
+    }
+
+    /** Set (insert) or clear a slot of a heap page read from disk, stamp
+        it with the LSN of the change and write it back. */
+    private void applyToDisk(HeapFile file, HeapPage page, SlotChange change, boolean insert, long lsn)
+        throws IOException {
+        file.applySlotChange(page, change.slot, insert ? change.tupleData : null);
+        page.setLSN(lsn);
+        file.writePage(page);
+        Database.getBufferPool().discardPage(change.pid);
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // checkpoints no longer flush, so flush first to leave nothing to redo
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -493,7 +1101,75 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                redone = redoSkipped = 0;
+                dirtyPages.clear();
+                if (raf.length() < HEADER_SIZE) {
+                    raf.seek(0);
+                    raf.setLength(0);
+                    writeHeader(NO_CHECKPOINT_ID, 0);
+                    return;
+                }
+
+                // transactions live at the checkpoint, if any, with their first records
+                HashMap<Long,Long> live = new HashMap<Long,Long>();
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                lsnBase = raf.readLong();
+                long redoStart = HEADER_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    LogRecord cp = readRecord();
+                    if (cp == null || cp.type != CHECKPOINT_RECORD) {
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    }
+                    live.putAll(cp.active);
+                    // the checkpoint did not flush: repeat history from
+                    // the oldest change that may not be on disk
+                    redoStart = Math.min(cpLoc, Math.max(minRecLSN(cp.dirty) - lsnBase, HEADER_SIZE));
+                }
+
+                // redo; records of transactions that finished before
+                // the checkpoint leave live untouched
+                raf.seek(redoStart);
+                LogRecord r;
+                while ((r = readRecord()) != null) {
+                    switch (r.type) {
+                    case BEGIN_RECORD:
+                        live.put(r.tid, r.offset);
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        live.remove(r.tid);
+                        break;
+                    case UPDATE_RECORD:
+                    case INSERT_RECORD:
+                    case DELETE_RECORD:
+                        redo(r);
+                        break;
+                    }
+                }
+                // drop a record torn by the crash
+                currentOffset = raf.getFilePointer();
+                raf.setLength(currentOffset);
+
+                // undo: roll back the transactions that never finished,
+                // logging the reversals and an abort for each
+                tidToFirstLogRecord.clear();
+                if (!live.isEmpty()) {
+                    List<LogRecord> changes = changesOf(live.keySet(), Collections.min(live.values()));
+                    for (int i = changes.size() - 1; i >= 0; i--) {
+                        undo(new TransactionId(changes.get(i).tid), changes.get(i), false);
+                    }
+                    for (long xid : live.keySet()) {
+                        raf.writeInt(ABORT_RECORD);
+                        raf.writeLong(xid);
+                        raf.writeLong(currentOffset);
+                        currentOffset = raf.getFilePointer();
+                    }
+                }
+                force();
+                // the pages redone and undone are written but not forced
+                BufferPool.syncAllFiles();
             }
          }
     }
@@ -505,6 +1181,19 @@ public class LogFile {
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        durableLsn = lsnBase + currentOffset;
+    }
+
+    /** Force the log if the record with the given LSN may not be on disk
+        yet; the write-ahead rule for writing a page with that page LSN.
+        @param lsn the LSN of a record, or 0 for a page no logged change
+        was made to
+    */
+    public void forceUpTo(long lsn) throws IOException {
+        if (lsn <= 0 || lsn < durableLsn) {
+            return;
+        }
+        force();
     }
 
 }
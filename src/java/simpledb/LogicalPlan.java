@@ -29,15 +29,34 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private ArrayList<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private ArrayList<String> aggOps = new ArrayList<>();
+    private ArrayList<String> aggFields = new ArrayList<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
 //    private Query owner;
 
+    /**
+     * A table is scanned in parallel only if every fragment gets at least
+     * this many pages.
+     */
+    public static final int MIN_PAGES_PER_FRAGMENT = 32;
+    private static int parallelism = Exchange.DEFAULT_PARALLELISM;
+
+    /**
+     * Set the most fragments a parallel scan is split into; 1 turns
+     * parallel plans off.
+     */
+    public static void setParallelism(int fragments) {
+        parallelism = Math.max(1, fragments);
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
     /**
      * Constructor -- generate an empty logical plan
      **/
@@ -187,23 +206,39 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All the aggregates of a query are computed together, grouped
+        by every field added via addGroupBy or passed here.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equals(op) && aggFields.get(i).equals(afield)) {
+                hasAgg = true;
+                return;
+            }
+        }
+        aggOps.add(op);
+        aggFields.add(afield);
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query. Groups are formed by the
+        combination of values of every GROUP BY field.
+        @param field the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String field) throws ParsingException {
+        field=disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.add(field);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -293,6 +328,7 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<>();
         HashMap<String,Double> filterSelectivities = new HashMap<>();
         HashMap<String,TableStats> statsMap = new HashMap<>();
+        HashMap<String,ArrayList<Predicate>> scanPredicates = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -339,6 +375,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            scanPredicates.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -347,6 +384,24 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            OpIterator indexScan = indexScan(t, table, s, scanPredicates.get(table.alias));
+            if (indexScan != null) {
+                subplanMap.put(table.alias, indexScan);
+                continue;
+            }
+            OpIterator parallelScan = parallelScan(t, table, s, scanPredicates.get(table.alias));
+            if (parallelScan != null) {
+                subplanMap.put(table.alias, parallelScan);
+                continue;
+            }
+            OpIterator filteredScan = filteredScan(t, table, 0, -1, scanPredicates.get(table.alias));
+            if (filteredScan != null) {
+                subplanMap.put(table.alias, filteredScan);
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -386,7 +441,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             OpIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,jo.getJoinMethod(lj));
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -418,29 +473,47 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
+                int agg = -1;
+                for (int j = 0; j < aggOps.size() && agg < 0; j++) {
+                    if (aggOps.get(j).equals(si.aggOp) && td.fieldNameToIndex(aggFields.get(j)) == id) {
+                        agg = j;
+                    }
+                }
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
-                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
-                    }
-                    outFields.add(0);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                     }
+                    int group = -1;
+                    for (int j = 0; j < groupByFields.size() && group < 0; j++) {
+                        try {
+                            if (td.fieldNameToIndex(groupByFields.get(j)) == id) {
+                                group = j;
+                            }
+                        } catch (NoSuchElementException e) {
+                            throw new ParsingException("Unknown field " +  groupByFields.get(j) + " in GROUP BY statement");
+                        }
+                    }
+                    if (group < 0) {
+                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
+                    }
+                    outFields.add(group);
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
@@ -464,12 +537,29 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            Operator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggOps.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                boolean partial = true;
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    ops[i] = getAggOp(aggOps.get(i));
+                    partial &= Aggregate.finalOp(ops[i]) != null;
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                }
+                if (node instanceof Gather && partial) {
+                    aggNode = parallelAggregate((Gather) node, afields, gfields, ops);
+                } else if (parallelism > 1 && Exchange.isParallel(node)
+                        && afields.length == 1 && gfields.length <= 1) {
+                    aggNode = new ParallelAggregate(node, afields[0],
+                            gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0], ops[0], parallelism);
+                } else {
+                    aggNode = new Aggregate(node, afields, gfields, ops);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -485,6 +575,143 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Choose an index scan as the access path of a base table. A filter can
+     * be answered by an index if it is on the key field of a table stored
+     * in a {@link BTreeFile}, priced with
+     * {@link TableStats#estimateIndexScanCost}, or on the field of a
+     * {@link SecondaryIndex} of the table, priced with
+     * {@link SecondaryIndex#estimateScanCost}; both use the filter's
+     * selectivity as estimated by the table's histograms. If the cheapest
+     * of these beats {@link TableStats#estimateScanCost}, the filter becomes
+     * the scan's index predicate and the other filters are applied above it.
+     *
+     * @return the index scan plan, or null if a sequential scan is cheaper
+     *         (or no filter can use an index)
+     */
+    private static OpIterator indexScan(TransactionId t, LogicalScanNode table, TableStats stats,
+                                        ArrayList<Predicate> predicates) {
+        if (stats == null || predicates == null) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        Predicate best = null;
+        SecondaryIndex bestIndex = null;
+        double bestCost = stats.estimateScanCost();
+        for (Predicate p : predicates) {
+            if (p.getOp() == Predicate.Op.NOT_EQUALS || p.getOp() == Predicate.Op.LIKE) {
+                continue;
+            }
+            double sel = stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            if (f instanceof BTreeFile && p.getField() == ((BTreeFile) f).keyField()
+                    && stats.estimateIndexScanCost(sel) < bestCost) {
+                best = p;
+                bestIndex = null;
+                bestCost = stats.estimateIndexScanCost(sel);
+            }
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+                if (index.getField() == p.getField() && index.estimateScanCost(stats, sel) < bestCost) {
+                    best = p;
+                    bestIndex = index;
+                    bestCost = index.estimateScanCost(stats, sel);
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        IndexPredicate ipred = new IndexPredicate(best.getOp(), best.getOperand());
+        OpIterator plan = bestIndex == null
+                ? new BTreeScan(t, table.t, table.alias, ipred)
+                : new SecondaryIndexScan(t, bestIndex, table.alias, ipred);
+        for (Predicate p : predicates) {
+            if (p != best) {
+                plan = new Filter(p, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Build a parallel scan of a base table: a {@link Gather} over one
+     * SeqScan per range of pages, each with the table's filters applied.
+     *
+     * @return the parallel plan, or null if the table is too small to be
+     *         worth splitting (or is not a heap file)
+     */
+    private static OpIterator parallelScan(TransactionId t, LogicalScanNode table, TableStats stats,
+                                           ArrayList<Predicate> predicates) {
+        if (stats == null || parallelism < 2
+                || !(Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile)) {
+            return null;
+        }
+        final int pages = stats.numPages();
+        final int n = Math.min(parallelism, pages / MIN_PAGES_PER_FRAGMENT);
+        if (n < 2) {
+            return null;
+        }
+        OpIterator[] fragments = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            // the last fragment also picks up pages appended after planning
+            int first = (int) ((long) pages * i / n);
+            int end = i == n - 1 ? -1 : (int) ((long) pages * (i + 1) / n);
+            fragments[i] = filteredScan(t, table, first, end, predicates);
+            if (fragments[i] == null) {
+                fragments[i] = new SeqScan(t, table.t, table.alias, first, end);
+            }
+        }
+        return new Gather(fragments);
+    }
+
+    /**
+     * Build a sequential scan of a range of pages of a heap table with the
+     * table's first filter pushed into the scan, so the tuples it rejects
+     * are never decoded, and the other filters applied above it.
+     *
+     * @return the plan, or null if the table has no filters (or is not a
+     *         heap file)
+     */
+    private static OpIterator filteredScan(TransactionId t, LogicalScanNode table, int first, int end,
+                                           ArrayList<Predicate> predicates) {
+        if (predicates == null || predicates.isEmpty()
+                || !(Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile)) {
+            return null;
+        }
+        OpIterator plan = new SeqScan(t, table.t, table.alias, first, end, predicates.get(0));
+        for (int i = 1; i < predicates.size(); i++) {
+            plan = new Filter(predicates.get(i), plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Push aggregates below a parallel scan: each fragment computes partial
+     * aggregates, and a final Aggregate above the Gather combines them, as
+     * given by {@link Aggregate#partialOp} and {@link Aggregate#finalOp}.
+     */
+    private static Operator parallelAggregate(Gather scan, int[] afields, int[] gfields, Aggregator.Op[] ops) {
+        Aggregator.Op[] partialOps = new Aggregator.Op[ops.length];
+        Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+        int[] partialFields = new int[ops.length];
+        int column = gfields.length;
+        for (int i = 0; i < ops.length; i++) {
+            partialOps[i] = Aggregate.partialOp(ops[i]);
+            finalOps[i] = Aggregate.finalOp(ops[i]);
+            partialFields[i] = column;
+            column += partialOps[i] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+        }
+        OpIterator[] fragments = scan.getChildren();
+        OpIterator[] partials = new OpIterator[fragments.length];
+        for (int i = 0; i < fragments.length; i++) {
+            partials[i] = new Aggregate(fragments[i], afields, gfields, partialOps);
+        }
+        int[] groups = new int[gfields.length];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = i;
+        }
+        return new Aggregate(new Gather(partials), partialFields, groups, finalOps);
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent reference lies furthest in the past; pages referenced
+ * fewer than K times are considered infinitely old and go first, oldest last
+ * reference first. A page touched once by a large scan is therefore evicted
+ * before a page that is probed over and over.
+ * <p>
+ * The reference history of recently evicted pages is retained (bounded by the
+ * capacity) so that a page coming back soon after eviction is not treated as
+ * cold again.
+ *
+ * @Threadsafe
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final HashMap<PageId, long[]> resident;
+    private final LinkedHashMap<PageId, long[]> retired;
+    private long clock;
+
+    /**
+     * @param capacity the number of frames in the buffer pool; also bounds
+     *                 the retained history of evicted pages
+     */
+    public LruKEvictionPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * @param capacity the number of frames in the buffer pool
+     * @param k        how many past references to remember per page
+     */
+    public LruKEvictionPolicy(final int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.resident = new HashMap<>();
+        this.retired = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.clock = 0;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        final long[] history = resident.get(pid);
+        if (history != null) {
+            touch(history);
+        }
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            history = retired.remove(pid);
+            if (history == null) {
+                history = new long[k];
+            }
+            resident.put(pid, history);
+        }
+        touch(history);
+    }
+
+    public synchronized void remove(PageId pid) {
+        resident.remove(pid);
+    }
+
+    public synchronized PageId evict() {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            final long[] history = e.getValue();
+            // history[0] is the most recent reference, history[k-1] the K-th;
+            // 0 means "never", i.e. an infinite backward distance
+            final long kth = history[k - 1];
+            final long last = history[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        if (victim != null) {
+            retired.put(victim, resident.remove(victim));
+        }
+        return victim;
+    }
+
+    private void touch(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+}
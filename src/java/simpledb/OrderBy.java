@@ -4,10 +4,29 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Input that fits in the memory budget is sorted in memory. Larger input is
+ * sorted externally: each budget-sized chunk of the child is sorted and
+ * written out as a run in HeapFile page format, and the runs are combined
+ * with a k-way merge over a heap, in several passes if there are more than
+ * {@link #MAX_FAN_IN} of them. With a limit, only the first N tuples are
+ * kept, in a bounded heap, and nothing is written to disk. The external sort
+ * itself is {@link ExternalSort}, which other callers use directly. Without
+ * a limit the sort is stable whether or not it spills: tuples with equal
+ * keys come out in input order.
+ * <p>
+ * The memory budget is a number of tuples, not bytes, so a table of wide
+ * tuples uses more memory for the same budget than one of narrow tuples.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in tuples (not bytes). */
+    public final static int MAX_TUPLES = 100000;
+    /** Most runs merged at once. */
+    public final static int MAX_FAN_IN = 64;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +34,11 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int maxTuples;
+    private final int limit;
+    private final TupleComparator comparator;
+    // the full sort; null with a limit, whose tuples are in childTups
+    private transient ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +51,37 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, MAX_TUPLES, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first limit tuples of
+     * the ordering.
+     * 
+     * @param limit
+     *            the number of tuples to return
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
+        this(orderbyField, asc, child, MAX_TUPLES, limit);
+    }
+
+    /**
+     * Creates a new OrderBy node with an explicit memory budget.
+     * 
+     * @param maxTuples
+     *            the most tuples to sort in memory at once
+     * @param limit
+     *            the number of tuples to return, or -1 for all of them
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int maxTuples, int limit) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.maxTuples = maxTuples;
+        this.limit = limit;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
     
     public boolean isASC()
@@ -48,29 +98,86 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return the number of tuples returned, or -1 if there is no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open
+     */
+    public int getNumRuns() {
+        return sort == null ? 0 : sort.getNumRuns();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        childTups.clear();
+        closeSort();
+        if (limit >= 0) {
+            loadTopN();
+        } else {
+            sort = new ExternalSort(td, comparator, maxTuples);
+            while (child.hasNext()) {
+                sort.add(child.next());
+            }
+            sort.finish();
+        }
+        it = iterator();
         super.open();
     }
 
+    /**
+     * Keep only the first limit tuples of the ordering, in a heap that has
+     * the last of them on top.
+     */
+    private void loadTopN() throws DbException, TransactionAbortedException {
+        PriorityQueue<Tuple> top = new PriorityQueue<Tuple>(Math.max(1, limit),
+                Collections.reverseOrder(comparator));
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (top.size() < limit) {
+                top.add(t);
+            } else if (limit > 0 && comparator.compare(t, top.peek()) < 0) {
+                top.poll();
+                top.add(t);
+            }
+        }
+        childTups.addAll(top);
+        Collections.sort(childTups, comparator);
+    }
+
+    private Iterator<Tuple> iterator() throws DbException {
+        if (sort == null)
+            return childTups.iterator();
+        return sort.iterator();
+    }
+
+    private void closeSort() {
+        if (sort != null) {
+            sort.close();
+            sort = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        closeSort();
+        childTups.clear();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        it = iterator();
     }
 
     /**
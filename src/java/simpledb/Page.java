@@ -7,7 +7,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -56,4 +56,22 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Return the page LSN: the LSN of the last log record describing a
+     * change to this page, or 0 if no logged change was ever made to it.
+     *
+     * @see LogFile
+     */
+    public long getLSN();
+
+    /**
+     * Set the page LSN, after logging a change to this page.
+     * <p>
+     * The page's monitor is its latch: a logged change, its log record and
+     * the new LSN are made while holding it, and the BufferPool holds it
+     * while writing the page, so no image carrying an unlogged change
+     * reaches disk.
+     */
+    public void setLSN(long lsn);
 }
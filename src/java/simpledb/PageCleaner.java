@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * PageCleaner is the background writer of a {@link BufferPool}. It writes
+ * dirty pages to disk on a daemon thread, so that neither the threads
+ * asking for the writes, e.g. a checkpoint, nor the query threads that
+ * need a free frame wait for them.
+ * <p>
+ * The cleaner writes two kinds of pages:
+ * <ul>
+ * <li>pages requested with {@link #request}, which are written first;</li>
+ * <li>when fewer than the target percentage of the pool's frames are
+ * clean (free, or holding a page that is not dirty), enough dirty pages
+ * to reach the target, so eviction finds clean victims and does not
+ * write synchronously. See {@link #setTargetCleanPercent}.</li>
+ * </ul>
+ * Each batch is written in (table, page number) order, so pages that are
+ * adjacent on disk are written one after the other. After every batch the
+ * cleaner pauses, so it does not starve foreground reads of the disk; see
+ * {@link #setRateLimit}. Every write goes through the BufferPool, which
+ * forces the log up to the page's LSN first; a page that was written or
+ * evicted in the meantime is skipped. The writes are not forced one by
+ * one: each file written in a batch is synced once at the end of the batch
+ * (see {@link DbFile#sync}).
+ * <p>
+ * Only pages with logged changes are cleaned to reach the target; a page
+ * with no LSN is left for eviction to write. The BufferPool also skips B+
+ * tree pages in the middle of an insert or delete, whose changes are not
+ * logged yet; they are written once the operation is over.
+ *
+ * @Threadsafe
+ */
+public class PageCleaner implements Runnable {
+
+    /** Default number of pages written between two pauses. */
+    public static final int DEFAULT_BATCH_SIZE = 16;
+    /** Default length of the pause between two batches, in milliseconds. */
+    public static final long DEFAULT_PAUSE_MILLIS = 5;
+    /** Default percentage of the pool's frames kept clean. */
+    public static final int DEFAULT_TARGET_CLEAN_PERCENT = 10;
+    /** How often an idle cleaner checks the pool, in milliseconds. */
+    static final long IDLE_CHECK_MILLIS = 10;
+
+    /** Orders page ids by table, then by page number. */
+    static final Comparator<PageId> DISK_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId()) {
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            }
+            if (a.getPageNumber() != b.getPageNumber()) {
+                return a.getPageNumber() < b.getPageNumber() ? -1 : 1;
+            }
+            // B+ tree pages of different categories may share a number
+            return category(a) - category(b);
+        }
+    };
+
+    private static int category(PageId pid) {
+        return pid instanceof BTreePageId ? ((BTreePageId) pid).pgcateg() : 0;
+    }
+
+    private final BufferPool pool;
+    private final TreeSet<PageId> pending = new TreeSet<PageId>(DISK_ORDER); // protected by this
+    private boolean busy = false; // a batch is being written; protected by this
+    private boolean stopped = false; // protected by this
+    private long pagesWritten = 0; // protected by this
+    private int batchSize = DEFAULT_BATCH_SIZE; // protected by this
+    private long pauseMillis = DEFAULT_PAUSE_MILLIS; // protected by this
+    private int targetCleanPercent = DEFAULT_TARGET_CLEAN_PERCENT; // protected by this
+    private final Thread thread;
+
+    /**
+     * Create a cleaner for the given pool and start its thread.
+     */
+    public PageCleaner(BufferPool pool) {
+        this.pool = pool;
+        this.thread = new Thread(this, "page-cleaner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Ask for the given pages to be written. Pages that are not resident or
+     * not dirty by the time the cleaner gets to them are skipped.
+     */
+    public synchronized void request(Collection<PageId> pids) {
+        if (pids.isEmpty()) {
+            return;
+        }
+        pending.addAll(pids);
+        notifyAll();
+    }
+
+    /**
+     * Limit the rate at which the cleaner writes.
+     *
+     * @param batchSize the number of pages written between two pauses
+     * @param pauseMillis the length of the pause, in milliseconds
+     */
+    public synchronized void setRateLimit(int batchSize, long pauseMillis) {
+        if (batchSize < 1 || pauseMillis < 0) {
+            throw new IllegalArgumentException("bad rate limit: " + batchSize + " pages every " + pauseMillis + " ms");
+        }
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Set the percentage of the pool's frames the cleaner keeps clean.
+     *
+     * @param percent the target, from 0 (only write requested pages) to 100
+     */
+    public synchronized void setTargetCleanPercent(int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("bad clean frame target: " + percent + "%");
+        }
+        this.targetCleanPercent = percent;
+    }
+
+    /**
+     * @return the number of pages this cleaner has written
+     */
+    public synchronized long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * Wait until every requested page has been written or skipped.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if the cleaner is idle
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while ((busy || !pending.isEmpty()) && !stopped) {
+            final long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return !busy && pending.isEmpty();
+    }
+
+    /**
+     * Stop the cleaner, dropping pages not written yet, and wait for its
+     * thread to finish the page it is writing.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            pending.clear();
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the next batch of requested pages, empty if none were
+        requested for a while, or null once stopped */
+    private synchronized List<PageId> nextBatch() throws InterruptedException {
+        busy = false;
+        notifyAll();
+        if (pending.isEmpty() && !stopped) {
+            wait(IDLE_CHECK_MILLIS);
+        }
+        if (stopped) {
+            return null;
+        }
+        final List<PageId> batch = new ArrayList<PageId>(batchSize);
+        while (batch.size() < batchSize && !pending.isEmpty()) {
+            batch.add(pending.pollFirst());
+        }
+        busy = !batch.isEmpty();
+        return batch;
+    }
+
+    /** @return the dirty pages to write to bring the pool up to the clean
+        frame target, at most one batch, in disk order */
+    private List<PageId> cleaningBatch() {
+        final int target, limit;
+        synchronized (this) {
+            target = targetCleanPercent;
+            limit = batchSize;
+        }
+        final List<PageId> batch = new ArrayList<PageId>();
+        if (target == 0) {
+            return batch;
+        }
+        final List<Page> dirty = pool.getDirtyPages();
+        final int wanted = (int) Math.ceil(pool.getNumPages() * target / 100.0);
+        final int clean = pool.getNumPages() - dirty.size();
+        if (clean >= wanted) {
+            return batch;
+        }
+        for (Page page : dirty) {
+            if (page.getLSN() > 0) {
+                batch.add(page.getId());
+            }
+        }
+        Collections.sort(batch, DISK_ORDER);
+        return batch.subList(0, Math.min(batch.size(), Math.min(limit, wanted - clean)));
+    }
+
+    public void run() {
+        try {
+            List<PageId> batch;
+            while ((batch = nextBatch()) != null) {
+                if (batch.isEmpty()) {
+                    batch = cleaningBatch();
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                }
+                final Set<Integer> written = new HashSet<Integer>();
+                for (PageId pid : batch) {
+                    synchronized (this) {
+                        if (stopped) {
+                            break;
+                        }
+                    }
+                    try {
+                        if (pool.flushPage(pid)) {
+                            written.add(pid.getTableId());
+                            synchronized (this) {
+                                pagesWritten++;
+                            }
+                        }
+                    } catch (IOException e) {
+                        // the page stays dirty; eviction or a later request writes it
+                        e.printStackTrace();
+                    }
+                }
+                try {
+                    BufferPool.syncFiles(written);
+                } catch (IOException e) {
+                    // the pages stay in the dirty page table; a later sync forces them
+                    e.printStackTrace();
+                }
+                synchronized (this) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                final long pause;
+                synchronized (this) {
+                    pause = pauseMillis;
+                }
+                Thread.sleep(pause);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } finally {
+            synchronized (this) {
+                busy = false;
+                notifyAll();
+            }
+        }
+    }
+}
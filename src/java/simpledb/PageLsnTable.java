@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PageLsnTable stores the page LSN of every page of a {@link DbFile}: the
+ * LSN of the last log record whose change is reflected in the page as it is
+ * on disk (see {@link Page#getLSN}). Recovery compares it with the LSN of a
+ * record to tell whether the change still has to be redone.
+ * <p>
+ * The page formats of SimpleDB have no spare header bytes, and adding some
+ * would change the number of tuples or entries per page, so the LSNs are
+ * kept in a sidecar file next to the data file (the data file name plus
+ * {@link #SUFFIX}), eight bytes per page number. Writing a page only
+ * records its LSN in memory; {@link #sync} forces the data file once for
+ * every page written since the last sync, and only then writes their LSNs to
+ * the sidecar and tells the log the pages no longer need redo. The table
+ * therefore never claims a change the page on disk does not have, even
+ * after a crash, and a batch of writes costs one fsync. A missing or stale
+ * entry only makes recovery redo a change again, which is harmless because
+ * redo is idempotent. The sidecar is only created once a logged page is
+ * synced.
+ *
+ * @Threadsafe
+ */
+public class PageLsnTable {
+
+    /** Suffix appended to the data file name to name the sidecar file. */
+    public static final String SUFFIX = ".lsn";
+
+    private final File file;
+    private RandomAccessFile raf;
+    private long[] lsns;
+    // logged pages written since the last sync: page id to {index, LSN}
+    private final HashMap<PageId, long[]> unsynced = new HashMap<PageId, long[]>();
+
+    /**
+     * Create the LSN table of a data file, loading the sidecar file if there
+     * is one.
+     *
+     * @param dataFile the data file whose pages this table describes
+     */
+    public PageLsnTable(File dataFile) {
+        this.file = new File(dataFile.getPath() + SUFFIX);
+        this.lsns = new long[0];
+        load();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final long[] loaded = new long[(int) (file.length() / LogFile.LONG_SIZE)];
+            for (int i = 0; i < loaded.length; i++) {
+                loaded[i] = in.readLong();
+            }
+            lsns = loaded;
+        } catch (IOException e) {
+            // without the table every logged change is redone, which is safe
+            lsns = new long[0];
+        }
+    }
+
+    /**
+     * @return the LSN of the given page as last written, or 0 if unknown
+     */
+    public synchronized long get(int pgno) {
+        return pgno < lsns.length ? lsns[pgno] : 0;
+    }
+
+    /**
+     * Record the LSN of a page that was just written to the data file, but
+     * not forced. The LSN is kept in memory, for pages read back before the
+     * next sync, and reaches the sidecar at the next {@link #sync}. A page
+     * with no logged change (LSN 0) claims nothing, so its entry is written
+     * right away.
+     *
+     * @param pid the page written
+     * @param pgno the index of the page in this table
+     * @param lsn the page LSN of the image written
+     */
+    public synchronized void set(PageId pid, int pgno, long lsn) throws IOException {
+        if (lsn > 0) {
+            unsynced.put(pid, new long[] {pgno, lsn});
+        } else {
+            unsynced.remove(pid);
+        }
+        if (get(pgno) == lsn) {
+            return;
+        }
+        if (pgno >= lsns.length) {
+            final long[] grown = new long[Math.max(pgno + 1, lsns.length * 2)];
+            System.arraycopy(lsns, 0, grown, 0, lsns.length);
+            lsns = grown;
+        }
+        lsns[pgno] = lsn;
+        if (lsn == 0) {
+            writeEntry(pgno, lsn);
+        }
+    }
+
+    /**
+     * Force the data file, then write the LSNs of the pages written before
+     * the force to the sidecar and tell the log those pages are on disk.
+     * The sidecar entries themselves are not forced: an entry lost in a
+     * crash is stale, which only costs redo.
+     *
+     * @param channel the data file
+     */
+    public void sync(DbFileChannel channel) throws IOException {
+        final Map<PageId, long[]> written;
+        synchronized (this) {
+            if (unsynced.isEmpty()) {
+                return;
+            }
+            written = new HashMap<PageId, long[]>(unsynced);
+            unsynced.clear();
+        }
+        try {
+            channel.force();
+        } catch (IOException e) {
+            synchronized (this) {
+                // try again at the next sync, unless the page was written again
+                for (Map.Entry<PageId, long[]> w : written.entrySet()) {
+                    if (!unsynced.containsKey(w.getKey())) {
+                        unsynced.put(w.getKey(), w.getValue());
+                    }
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            for (long[] entry : written.values()) {
+                writeEntry((int) entry[0], entry[1]);
+            }
+        }
+        for (Map.Entry<PageId, long[]> e : written.entrySet()) {
+            Database.getLogFile().pageWritten(e.getKey(), e.getValue()[1]);
+        }
+    }
+
+    private void writeEntry(int pgno, long lsn) throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.seek((long) pgno * LogFile.LONG_SIZE);
+        raf.writeLong(lsn);
+    }
+
+    /**
+     * Release the sidecar file handle.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
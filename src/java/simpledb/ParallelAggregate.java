@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.*;
+
+import static simpledb.Aggregator.NO_GROUPING;
+
+/**
+ * ParallelAggregate computes the same result as {@link Aggregate} using
+ * several worker threads. Its input is hash-partitioned on the group-by
+ * field, so every group lives in exactly one partition and each worker's
+ * {@link Aggregate} produces final results for its groups, which a
+ * {@link Gather} collects.
+ * <p>
+ * Without grouping the input is dealt out round-robin instead: each worker
+ * computes a partial aggregate and a final Aggregate combines them, as
+ * given by {@link Aggregate#partialOp} and {@link Aggregate#finalOp}.
+ */
+public class ParallelAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final int gField;
+    private final int aField;
+    private final Aggregator.Op aop;
+    private final int partitions;
+    private OpIterator child;
+    private transient TuplePartitions parts;
+    private transient OpIterator result;
+
+    /**
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @param partitions
+     *            The number of partitions, and so of worker threads
+     */
+    public ParallelAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int partitions) {
+        if (child.getTupleDesc().getFieldType(afield) != Type.INT_TYPE && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("only COUNT is supported over a string field");
+        }
+        this.child = child;
+        this.aField = afield;
+        this.gField = gfield;
+        this.aop = aop;
+        this.partitions = gfield == NO_GROUPING && Aggregate.finalOp(aop) == null ? 1 : partitions;
+    }
+
+    public int groupField() {
+        return gField;
+    }
+
+    public String groupFieldName() {
+        return gField == NO_GROUPING ? null : child.getTupleDesc().getFieldName(gField);
+    }
+
+    public int aggregateField() {
+        return aField;
+    }
+
+    public String aggregateFieldName() {
+        return child.getTupleDesc().getFieldName(aField);
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    /**
+     * @return the number of partitions the input is split into
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        parts = new TuplePartitions(child.getTupleDesc(), gField, partitions,
+                HashEquiJoin.MAP_SIZE * partitions);
+        child.open();
+        try {
+            parts.addAll(child);
+        } finally {
+            child.close();
+        }
+        final boolean partial = partitions > 1 && gField == NO_GROUPING;
+        final OpIterator[] aggregates = new OpIterator[partitions];
+        for (int i = 0; i < partitions; i++) {
+            aggregates[i] = new Aggregate(parts.partition(i), aField, gField,
+                    partial ? Aggregate.partialOp(aop) : aop);
+        }
+        if (partitions == 1) {
+            result = aggregates[0];
+        } else if (partial) {
+            result = new Aggregate(new Gather(aggregates), 0, NO_GROUPING, Aggregate.finalOp(aop));
+        } else {
+            result = new Gather(aggregates);
+        }
+        result.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (result.hasNext()) {
+            return result.next();
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        result.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        final TupleDesc td = child.getTupleDesc();
+        if (gField == NO_GROUPING) {
+            return new TupleDesc(new Type[]{Type.INT_TYPE});
+        }
+        return new TupleDesc(new Type[]{td.getFieldType(gField), Type.INT_TYPE});
+    }
+
+    public void close() {
+        super.close();
+        if (result != null) {
+            result.close();
+            result = null;
+        }
+        if (parts != null) {
+            parts.delete();
+            parts = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
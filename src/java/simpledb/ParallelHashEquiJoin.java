@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ParallelHashEquiJoin is a partitioned parallel hash join. Both children
+ * are hash-partitioned on their join keys into the same number of
+ * partitions, so matching tuples always meet in the same pair. Each pair is
+ * then joined by its own {@link HashEquiJoin} on a worker thread, and a
+ * {@link Gather} collects the results.
+ * <p>
+ * Partitioning happens on the calling thread while the children are read;
+ * the build and probe work, which dominates, is spread over the workers.
+ * Partitions that do not fit in the memory budget spill to disk, and each
+ * worker's join spills on its own if its pair is still too large.
+ */
+public class ParallelHashEquiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int partitions;
+    private final int maxTuples;
+    private transient TuplePartitions left, right;
+    private transient Gather gather;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param partitions
+     *            The number of partitions, and so of worker threads
+     */
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int partitions) {
+        this(p, child1, child2, partitions, HashEquiJoin.MAP_SIZE * partitions);
+    }
+
+    /**
+     * @param maxTuples
+     *            The most tuples of each child to hold in memory while
+     *            partitioning; each partition's join gets an equal share
+     */
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                                int partitions, int maxTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("ParallelHashEquiJoin only supports EQUALS");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.partitions = partitions;
+        this.maxTuples = maxTuples;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return the number of partitions the join is split into
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        left = partition(child1, pred.getField1());
+        right = partition(child2, pred.getField2());
+        final int budget = Math.max(1, maxTuples / partitions);
+        final ArrayList<OpIterator> joins = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            // a pair with an empty side cannot produce any tuple
+            if (left.size(i) > 0 && right.size(i) > 0) {
+                joins.add(new HashEquiJoin(pred, left.partition(i), right.partition(i), budget));
+            }
+        }
+        if (!joins.isEmpty()) {
+            gather = new Gather(joins.toArray(new OpIterator[0]));
+            gather.open();
+        }
+        super.open();
+    }
+
+    private TuplePartitions partition(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        final TuplePartitions parts = new TuplePartitions(child.getTupleDesc(), field, partitions, maxTuples);
+        child.open();
+        try {
+            parts.addAll(child);
+        } finally {
+            child.close();
+        }
+        return parts;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (gather != null && gather.hasNext()) {
+            return gather.next();
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the partitions are kept, only the joins run again
+        if (gather != null) {
+            gather.rewind();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (gather != null) {
+            gather.close();
+            gather = null;
+        }
+        if (left != null) {
+            left.delete();
+            right.delete();
+            left = null;
+            right = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
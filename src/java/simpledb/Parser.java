@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +184,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +205,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +215,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,12 +236,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
@@ -492,7 +487,158 @@ public class Parser {
         return curtrans;
     }
 
+    // COPY is not SQL that Zql understands, so it is matched before parsing
+    static final Pattern COPY_STATEMENT = Pattern.compile(
+            "\\s*COPY\\s+(\\w+)\\s+FROM\\s+'([^']*)'\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Handle a COPY table FROM 'file' statement by bulk-loading the rows of
+     * a comma-separated file into the named table.
+     *
+     * @see HeapFile#bulkInsert
+     * @see BTreeFile#bulkLoad
+     */
+    public void handleCopyStatement(String tableName, String fileName) {
+        if (!this.inUserTrans) {
+            curtrans = new Transaction();
+            curtrans.start();
+            System.out.println("Started a new transaction tid = "
+                    + curtrans.getId().getId());
+        }
+        CsvTupleIterator rows = null;
+        try {
+            int tableId;
+            try {
+                tableId = Database.getCatalog().getTableId(tableName);
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table " + tableName);
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            rows = new CsvTupleIterator(new File(fileName), file.getTupleDesc(), ',');
+            int count;
+            if (file instanceof HeapFile)
+                count = ((HeapFile) file).bulkInsert(curtrans.getId(), rows);
+            else if (file instanceof BTreeFile)
+                count = ((BTreeFile) file).bulkLoad(curtrans.getId(), rows);
+            else
+                throw new DbException("Table " + tableName + " does not support COPY");
+            System.out.println(count + " rows loaded into " + tableName + ".");
+
+            if (!inUserTrans && curtrans != null) {
+                curtrans.commit();
+                System.out.println("Transaction "
+                        + curtrans.getId().getId() + " committed.");
+            }
+        } catch (Exception e) {
+            try {
+                if (curtrans != null) {
+                    curtrans.abort();
+                    System.out.println("Transaction "
+                            + curtrans.getId().getId()
+                            + " aborted because of unhandled error");
+                }
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            this.inUserTrans = false;
+            System.out.println("COPY failed: " + e.getMessage());
+        } finally {
+            if (rows != null)
+                rows.close();
+            if (!inUserTrans)
+                curtrans = null;
+        }
+    }
+
+    static final Pattern CREATE_INDEX_STATEMENT = Pattern.compile(
+            "\\s*CREATE\\s+INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Handle a CREATE INDEX name ON table (field) statement by building a
+     * secondary B+ tree index on a heap table and registering it with the
+     * catalog. The index is stored in name.idx next to the table's file; a
+     * leftover file of that name is replaced.
+     *
+     * @see SecondaryIndex
+     */
+    public void handleCreateIndexStatement(String indexName, String tableName, String fieldName) {
+        if (!this.inUserTrans) {
+            curtrans = new Transaction();
+            curtrans.start();
+            System.out.println("Started a new transaction tid = "
+                    + curtrans.getId().getId());
+        }
+        SecondaryIndex index = null;
+        try {
+            int tableId;
+            try {
+                tableId = Database.getCatalog().getTableId(tableName);
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table " + tableName);
+            }
+            int field;
+            try {
+                field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldName);
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown field " + fieldName);
+            }
+            try {
+                Database.getCatalog().getIndex(indexName);
+                throw new simpledb.ParsingException("Index " + indexName + " already exists");
+            } catch (NoSuchElementException e) {
+                // the name is free
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            if (!(file instanceof HeapFile))
+                throw new DbException("Table " + tableName + " does not support secondary indexes");
+            File indexFile = new File(((HeapFile) file).getFile().getAbsoluteFile().getParentFile(),
+                    indexName + ".idx");
+            if (indexFile.exists() && !indexFile.delete())
+                throw new IOException("Unable to replace " + indexFile);
+            index = new SecondaryIndex(indexName, tableId, field, indexFile);
+            Database.getCatalog().addIndex(index);
+            int count = index.build(curtrans.getId());
+            System.out.println("Index " + indexName + " created with " + count + " entries.");
+
+            if (!inUserTrans && curtrans != null) {
+                curtrans.commit();
+                System.out.println("Transaction "
+                        + curtrans.getId().getId() + " committed.");
+            }
+        } catch (Exception e) {
+            try {
+                if (curtrans != null) {
+                    curtrans.abort();
+                    System.out.println("Transaction "
+                            + curtrans.getId().getId()
+                            + " aborted because of unhandled error");
+                }
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            if (index != null)
+                Database.getCatalog().removeIndex(index);
+            this.inUserTrans = false;
+            System.out.println("CREATE INDEX failed: " + e.getMessage());
+        } finally {
+            if (!inUserTrans)
+                curtrans = null;
+        }
+    }
+
     public void processNextStatement(String s) {
+        Matcher copy = COPY_STATEMENT.matcher(s);
+        if (copy.matches()) {
+            handleCopyStatement(copy.group(1), copy.group(2));
+            return;
+        }
+        Matcher createIndex = CREATE_INDEX_STATEMENT.matcher(s);
+        if (createIndex.matches()) {
+            handleCreateIndexStatement(createIndex.group(1), createIndex.group(2), createIndex.group(3));
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -581,7 +727,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy", "create index" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -674,7 +820,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -683,8 +828,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -759,3 +903,75 @@ class TupleArrayIterator implements OpIterator {
     }
 
 }
+
+/**
+ * Reads the rows of a delimited text file as tuples of the given TupleDesc,
+ * one row per line. Used by COPY.
+ */
+class CsvTupleIterator implements Iterator<Tuple> {
+    private final BufferedReader reader;
+    private final TupleDesc td;
+    private final String separator;
+    private String line;
+    private int lineNo;
+
+    public CsvTupleIterator(File f, TupleDesc td, char separator) throws IOException {
+        this.reader = new BufferedReader(new FileReader(f));
+        this.td = td;
+        this.separator = Pattern.quote(String.valueOf(separator));
+        this.lineNo = 0;
+    }
+
+    public boolean hasNext() {
+        try {
+            while (line == null) {
+                line = reader.readLine();
+                if (line == null)
+                    return false;
+                lineNo++;
+                if (line.trim().isEmpty())
+                    line = null;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Tuple next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        String[] values = line.split(separator, -1);
+        line = null;
+        if (values.length != td.numFields())
+            throw new IllegalArgumentException("line " + lineNo + ": expected "
+                    + td.numFields() + " fields, found " + values.length);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; i++) {
+            String v = values[i].trim();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(v)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("line " + lineNo
+                            + ": bad integer " + v);
+                }
+            } else {
+                t.setField(i, new StringField(v, Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class PlanCache {
     HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<>();
     HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
     HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
+    HashMap<Set<LogicalJoinNode>,JoinOptimizer.JoinMethod> bestMethods = new HashMap<>();
     
     /**
      * Add a new cost, cardinality and ordering for a particular join set.
@@ -21,11 +22,15 @@ public class PlanCache {
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
         @param order the ordering of the joins in the plan
+        @param method the method the cost was estimated for, for the last
+               join of the order
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
+    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order,
+                 JoinOptimizer.JoinMethod method) {
         bestOrders.put(s,order);                        
         bestCosts.put(s,cost);
         bestCardinalities.put(s,card);
+        bestMethods.put(s,method);
     }
     
     /** Find the best join order in the cache for the specified plan 
@@ -51,4 +56,13 @@ public class PlanCache {
     int getCard(Set<LogicalJoinNode> s) {
         return bestCardinalities.get(s);
     }
+
+    /** Find the method of the last join of the best join order in the cache
+        for the specified plan
+        @param s the set of joins to look up the method for
+        @return the method of the last join in the best order for s
+    */
+    JoinOptimizer.JoinMethod getMethod(Set<LogicalJoinNode> s) {
+        return bestMethods.get(s);
+    }
 }
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * RowAdapter presents a {@link BatchIterator} as a row-at-a-time
+ * {@link OpIterator}, returning the selected rows of each batch as Tuples.
+ * It lets a batch plan be used anywhere an existing operator is expected.
+ */
+public class RowAdapter implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+    private transient boolean open;
+
+    public RowAdapter(BatchIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch iterator this adapter reads from
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        pos = 0;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("RowAdapter not yet open");
+        }
+        while (batch == null || pos >= batch.numSelected()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.getTuple(batch.selectedRow(pos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+        pos = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        open = false;
+    }
+}
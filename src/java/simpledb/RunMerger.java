@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * K-way merge of sorted runs, using a heap keyed on each run's current
+ * tuple. Ties go to the run that comes first in the list, so merging runs
+ * cut from consecutive chunks of the input is stable, like the in-memory
+ * sort.
+ */
+class RunMerger implements Iterator<Tuple> {
+    private final Comparator<Tuple> comparator;
+    private final PriorityQueue<RunCursor> heap;
+
+    private static class RunCursor {
+        final Iterator<Tuple> it;
+        final int index;
+        Tuple current;
+
+        RunCursor(Iterator<Tuple> it, int index) {
+            this.it = it;
+            this.index = index;
+        }
+    }
+
+    public RunMerger(List<SortRun> runs, Comparator<Tuple> comparator) throws DbException {
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<RunCursor>(Math.max(1, runs.size()), new Comparator<RunCursor>() {
+            public int compare(RunCursor a, RunCursor b) {
+                int cmp = RunMerger.this.comparator.compare(a.current, b.current);
+                return cmp != 0 ? cmp : a.index - b.index;
+            }
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            RunCursor c = new RunCursor(runs.get(i).iterator(), i);
+            if (c.it.hasNext()) {
+                c.current = c.it.next();
+                heap.add(c);
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    public Tuple next() {
+        RunCursor c = heap.poll();
+        if (c == null)
+            throw new NoSuchElementException();
+        Tuple t = c.current;
+        if (c.it.hasNext()) {
+            c.current = c.it.next();
+            heap.add(c);
+        }
+        return t;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        heap.clear();
+    }
+}
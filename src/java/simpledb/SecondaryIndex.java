@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A secondary B+ tree index on one field of a {@link HeapFile} table. The
+ * index is a {@link BTreeFile} of entries (key, page number, slot number),
+ * keyed on the first field, each naming the heap tuple with that key.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex} and kept up to date
+ * by {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ * Entries are changed through the BufferPool under the same transaction as
+ * the heap page. Every index page an entry change touches is logged as a
+ * before and after image (see {@link BTreeFile#insertTuple}), so aborting
+ * or recovering the transaction restores the index with the heap.
+ */
+public class SecondaryIndex {
+
+    private final String name;
+    private final int tableid;
+    private final int field;
+    private final BTreeFile file;
+
+    /**
+     * Returns the TupleDesc of the entries of an index on a field of the
+     * given type.
+     */
+    public static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[]{keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "page", "slot"});
+    }
+
+    /**
+     * Open the index stored in the given file.
+     *
+     * @param name the name of the index
+     * @param tableid the id of the indexed table
+     * @param field the index of the indexed field in the table's TupleDesc
+     * @param f the file holding the index entries; may be empty
+     */
+    public SecondaryIndex(String name, int tableid, int field, File f) {
+        this.name = name;
+        this.tableid = tableid;
+        this.field = field;
+        Type keyType = Database.getCatalog().getTupleDesc(tableid).getFieldType(field);
+        this.file = new BTreeFile(f, 0, entryDesc(keyType));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the indexed field of the table
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the B+ tree holding the index entries
+     */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    private Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(2, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /**
+     * Add the entry of a heap tuple to the index.
+     *
+     * @param tid the transaction inserting the tuple
+     * @param t the tuple, with the RecordId it was stored at
+     * @return the index pages that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.insertTuple(tid, entry(t));
+    }
+
+    /**
+     * Remove the entry of a heap tuple from the index.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t the tuple, with its RecordId
+     * @return the index pages that were modified
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        DbFileIterator it = file.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, t.getField(field)));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                if (((IntField) e.getField(1)).getValue() == rid.getPageId().getPageNumber()
+                        && ((IntField) e.getField(2)).getValue() == rid.getTupleNumber()) {
+                    return file.deleteTuple(tid, e);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        throw new DbException("index " + name + " has no entry for " + rid);
+    }
+
+    /**
+     * Fill an empty index with the entries of every tuple in the table,
+     * loading them in bulk (see {@link BTreeFile#bulkLoad}).
+     *
+     * @return the number of entries loaded
+     */
+    public int build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        final DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        try {
+            if (!it.hasNext()) {
+                return 0;
+            }
+            // the entries are streamed into the load, which sorts them externally
+            return file.bulkLoad(tid, new Iterator<Tuple>() {
+                public boolean hasNext() {
+                    try {
+                        return it.hasNext();
+                    } catch (DbException | TransactionAbortedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                public Tuple next() {
+                    try {
+                        return entry(it.next());
+                    } catch (DbException | TransactionAbortedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Returns an iterator over the heap tuples whose indexed field satisfies
+     * the given predicate, in key order. Each match reads the heap page it
+     * is on through the BufferPool.
+     */
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+        return new SecondaryIndexIterator(this, tid, ipred);
+    }
+
+    /**
+     * Estimate the cost of reading the tuples a predicate selects through
+     * this index: one descent of the tree, then a heap page per matching
+     * tuple, since the heap is not stored in key order.
+     *
+     * @param stats the statistics of the indexed table
+     * @param selectivity the fraction of the table the predicate selects
+     */
+    public double estimateScanCost(TableStats stats, double selectivity) {
+        double pageCost = stats.estimateScanCost() / Math.max(1, stats.numPages());
+        return (file.estimateHeight() + selectivity * stats.totalTuples()) * pageCost;
+    }
+}
+
+/**
+ * Iterates over the heap tuples named by the entries of a SecondaryIndex
+ * that match a predicate.
+ */
+class SecondaryIndexIterator extends AbstractDbFileIterator {
+
+    private final SecondaryIndex index;
+    private final TransactionId tid;
+    private final IndexPredicate ipred;
+    private DbFileIterator entries;
+
+    SecondaryIndexIterator(SecondaryIndex index, TransactionId tid, IndexPredicate ipred) {
+        this.index = index;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        // an index on a table that was empty when it was built has no pages yet
+        if (index.getFile().getFile().length() > 0) {
+            entries = index.getFile().indexIterator(tid, ipred);
+            entries.open();
+        }
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException, NoSuchElementException {
+        while (entries != null && entries.hasNext()) {
+            Tuple e = entries.next();
+            HeapPageId pid = new HeapPageId(index.getTableId(), ((IntField) e.getField(1)).getValue());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            Tuple t = page.getTuple(((IntField) e.getField(2)).getValue());
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (entries != null) {
+            entries.close();
+            entries = null;
+        }
+    }
+}
@@ -17,6 +17,9 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private final TransactionId tid;
     private String tableAlias;
+    private final int firstPage;
+    private final int endPage;
+    private final Predicate predicate;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -38,10 +41,82 @@ public class SeqScan implements OpIterator {
     	this.tid = tid;
     	this.tableId = tableid;
     	this.tableAlias = tableAlias;
+    	this.firstPage = 0;
+    	this.endPage = -1;
+    	this.predicate = null;
         DbFile tableFile = Database.getCatalog().getDatabaseFile(tableid);
         this.iterator = tableFile.iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan over a range of pages of a {@link HeapFile},
+     * so that a table can be split between several scans running in
+     * parallel (see {@link Gather}).
+     *
+     * @param firstPage
+     *            the first page to scan
+     * @param endPage
+     *            one past the last page to scan, or -1 to scan to the end of
+     *            the file
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, firstPage, endPage, null);
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of a {@link HeapFile}
+     * that only returns the tuples satisfying a predicate. The predicate is
+     * evaluated on each page's raw field values, so tuples it rejects are
+     * never decoded.
+     *
+     * @param predicate
+     *            the filter to apply, on a field index of the table, or null
+     *            to return every tuple
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     * @see HeapFile#iterator(TransactionId, Predicate, int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage,
+                   Predicate predicate) {
+    	this.tid = tid;
+    	this.tableId = tableid;
+    	this.tableAlias = tableAlias;
+    	this.firstPage = firstPage;
+    	this.endPage = endPage;
+    	this.predicate = predicate;
+    	this.iterator = rangeIterator(tableid);
+    }
+
+    private DbFileIterator rangeIterator(int tableid) {
+        DbFile tableFile = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(tableFile instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be scanned by page range");
+        }
+        return ((HeapFile) tableFile).iterator(tid, predicate, firstPage, endPage);
+    }
+
+    /**
+     * @return the first page this scan reads
+     */
+    public int getFirstPage() {
+        return firstPage;
+    }
+
+    /**
+     * @return one past the last page this scan reads, or -1 if it reads to
+     *         the end of the file
+     */
+    public int getEndPage() {
+        return endPage;
+    }
+
+    /**
+     * @return the predicate applied inside the scan, or null if none is
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -51,6 +126,20 @@ public class SeqScan implements OpIterator {
     	return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -74,7 +163,11 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
     	this.tableId = tableid;
     	this.tableAlias = tableAlias;
-    	this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+    	if (firstPage == 0 && endPage == -1 && predicate == null) {
+    	    this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+    	} else {
+    	    this.iterator = rangeIterator(tableid);
+    	}
     }
 
     public SeqScan(TransactionId tid, int tableId) {
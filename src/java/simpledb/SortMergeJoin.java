@@ -0,0 +1,305 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that both arrive sorted in ascending order
+ * on their join fields, such as the output of an ascending {@link OrderBy}
+ * or a scan of a {@link BTreeFile} keyed on the join field (see
+ * {@link #sortedOn}).
+ * <p>
+ * An equality join streams both inputs side by side and only holds the
+ * child2 tuples that share the current key, so it runs in one pass and
+ * (apart from heavy duplicates) constant memory. A range join (&lt;, &lt;=,
+ * &gt;, &gt;=) matches each child1 tuple with a prefix or suffix of child2,
+ * whose boundary only moves forward as child1 advances; child2 is read into
+ * memory once so the matching range can be revisited. Inputs that turn out
+ * not to be sorted are reported as an error rather than silently producing
+ * a wrong answer.
+ * <p>
+ * The output is sorted in ascending order on the child1 join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    transient private Tuple left;
+    // equality joins: child2 tuples with the current key, and the next one
+    transient private ArrayList<Tuple> group;
+    transient private Tuple nextRight;
+    // range joins: all of child2, and the end of the prefix of child2 that
+    // lies below the current child1 key
+    transient private ArrayList<Tuple> right;
+    transient private int bound;
+    // the range of group or right left to pair with the current child1 tuple
+    transient private int pos, end;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on. Both children must be sorted in ascending order on their
+     * join fields.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *             if the predicate cannot be evaluated by merging
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a join with the given operator can be computed by
+     *         merging sorted inputs
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Returns the field the output of an iterator is known to be sorted on
+     * in ascending order, looking through operators that keep the order of
+     * their input.
+     *
+     * @return the field index, or -1 if the order is unknown
+     */
+    public static int sortedOn(OpIterator it) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() ? o.getOrderByField() : -1;
+        }
+        if (it instanceof Filter) {
+            return sortedOn(((Filter) it).getChildren()[0]);
+        }
+        if (it instanceof SortMergeJoin) {
+            return ((SortMergeJoin) it).pred.getField1();
+        }
+        String table = null;
+        if (it instanceof SeqScan) {
+            table = ((SeqScan) it).getTableName();
+        } else if (it instanceof BTreeScan) {
+            table = ((BTreeScan) it).getTableName();
+        }
+        if (table != null) {
+            DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(table));
+            if (f instanceof BTreeFile) {
+                return ((BTreeFile) f).keyField();
+            }
+        }
+        return -1;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        left = null;
+        pos = 0;
+        end = 0;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            group = new ArrayList<Tuple>();
+            nextRight = readRight(null);
+            right = null;
+        } else {
+            right = new ArrayList<Tuple>();
+            Tuple t = null;
+            while ((t = readRight(t)) != null) {
+                right.add(t);
+            }
+            bound = 0;
+        }
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        left = null;
+        group = null;
+        right = null;
+        nextRight = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            child2.rewind();
+            start();
+        } else {
+            // child2 is already in memory
+            left = null;
+            pos = 0;
+            end = 0;
+            bound = 0;
+        }
+    }
+
+    /**
+     * Read the next child2 tuple, checking that child2 is sorted.
+     *
+     * @param prev the previous child2 tuple, or null
+     */
+    private Tuple readRight(Tuple prev) throws DbException, TransactionAbortedException {
+        if (!child2.hasNext()) {
+            return null;
+        }
+        Tuple t = child2.next();
+        if (prev != null && key2(t).compare(Predicate.Op.LESS_THAN, key2(prev))) {
+            throw new DbException("input of sort-merge join is not sorted on " + getJoinField2Name());
+        }
+        return t;
+    }
+
+    private Field key1(Tuple t) {
+        return t.getField(pred.getField1());
+    }
+
+    private Field key2(Tuple t) {
+        return t.getField(pred.getField2());
+    }
+
+    /**
+     * Move to the next child1 tuple, checking that child1 is sorted.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean advanceLeft() throws DbException, TransactionAbortedException {
+        if (!child1.hasNext()) {
+            return false;
+        }
+        Tuple t = child1.next();
+        if (left != null && key1(t).compare(Predicate.Op.LESS_THAN, key1(left))) {
+            throw new DbException("input of sort-merge join is not sorted on " + getJoinField1Name());
+        }
+        left = t;
+        return true;
+    }
+
+    /**
+     * Find the child2 tuples with the same key as the current child1 tuple,
+     * reusing the current group when the key repeats.
+     */
+    private void matchEqual() throws DbException, TransactionAbortedException {
+        Field key = key1(left);
+        if (group.isEmpty() || !key2(group.get(0)).equals(key)) {
+            group.clear();
+            while (nextRight != null && key2(nextRight).compare(Predicate.Op.LESS_THAN, key)) {
+                nextRight = readRight(nextRight);
+            }
+            while (nextRight != null && key2(nextRight).equals(key)) {
+                group.add(nextRight);
+                nextRight = readRight(nextRight);
+            }
+        }
+        pos = 0;
+        end = group.size();
+    }
+
+    /**
+     * Find the range of child2 that satisfies the predicate with the current
+     * child1 tuple, moving the boundary forward past the child2 keys below
+     * the child1 key (and those equal to it, for &lt; and &gt;=).
+     */
+    private void matchRange() {
+        Field key = key1(left);
+        Predicate.Op op = pred.getOperator();
+        // child2 keys in right[0, bound) are < key for LESS_THAN_OR_EQ and
+        // GREATER_THAN, and <= key for LESS_THAN and GREATER_THAN_OR_EQ
+        Predicate.Op below = op == Predicate.Op.LESS_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+                ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+        while (bound < right.size() && key2(right.get(bound)).compare(below, key)) {
+            bound++;
+        }
+        if (op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ) {
+            pos = bound;
+            end = right.size();
+        } else {
+            pos = 0;
+            end = bound;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Like {@link Join}, each result is the concatenation of a
+     * child1 tuple and a matching child2 tuple.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        boolean equals = pred.getOperator() == Predicate.Op.EQUALS;
+        while (pos >= end) {
+            if (equals && nextRight == null && group.isEmpty()) {
+                // nothing left in child2 to match
+                return null;
+            }
+            if (!advanceLeft()) {
+                return null;
+            }
+            if (equals) {
+                matchEqual();
+            } else {
+                matchRange();
+            }
+        }
+        return merge(left, equals ? group.get(pos++) : right.get(pos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
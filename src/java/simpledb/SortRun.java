@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A sorted run of an external sort, stored as a file of full HeapFile pages
+ * written in order. The file is private to the sort: it is not in the
+ * Catalog, and its pages are read and written directly rather than through
+ * the BufferPool.
+ */
+class SortRun {
+    private final TupleDesc td;
+    private final File file;
+    private final DbFileChannel channel;
+    private final int slotsPerPage;
+    private final int headerSize;
+    private final ByteArrayOutputStream body;
+    private final DataOutputStream out;
+    private int onPage;
+    private int numPages;
+
+    public SortRun(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("sortrun", ".dat");
+        } catch (IOException e) {
+            throw new DbException("could not create sort run: " + e.getMessage());
+        }
+        this.file.deleteOnExit();
+        this.channel = new DbFileChannel(file);
+        // same layout as HeapPage
+        this.slotsPerPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        this.body = new ByteArrayOutputStream(BufferPool.getPageSize());
+        this.out = new DataOutputStream(body);
+    }
+
+    /**
+     * Append a tuple; tuples must be added in sorted order.
+     */
+    public void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+        if (++onPage == slotsPerPage)
+            flushPage();
+    }
+
+    private void flushPage() throws DbException {
+        if (onPage == 0)
+            return;
+        byte[] page = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < onPage; i++)
+            page[i / 8] |= (byte) (1 << (i % 8));
+        byte[] tuples = body.toByteArray();
+        System.arraycopy(tuples, 0, page, headerSize, tuples.length);
+        try {
+            channel.write(page, (long) numPages * page.length);
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+        numPages++;
+        body.reset();
+        onPage = 0;
+    }
+
+    /**
+     * Finish writing and return an iterator over the run. Tuples come back
+     * in the order they were added.
+     */
+    public Iterator<Tuple> iterator() throws DbException {
+        flushPage();
+        final int tableId = file.getAbsoluteFile().hashCode();
+        return new Iterator<Tuple>() {
+            private int pgno = 0;
+            private Iterator<Tuple> page = null;
+
+            public boolean hasNext() {
+                while (page == null || !page.hasNext()) {
+                    if (pgno >= numPages)
+                        return false;
+                    byte[] data = new byte[BufferPool.getPageSize()];
+                    try {
+                        channel.read(data, (long) pgno * data.length);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    page = new HeapPage(new HeapPageId(tableId, pgno), ByteBuffer.wrap(data), td).iterator();
+                    pgno++;
+                }
+                return true;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return page.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void delete() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+}
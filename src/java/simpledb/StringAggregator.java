@@ -1,20 +1,15 @@
 package simpledb;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * COUNT is the only aggregate over strings, and counting does not look at
+ * the values, so the groups are kept by an {@link IntegerAggregator}.
  */
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-	private final Op op;
-	private final int afield;
-	private final Type gbFieldType;
-	private final int gbField;
-	private final HashMap<Field, Integer> groupData;
+	private final IntegerAggregator counts;
 
 	/**
      * Aggregate constructor
@@ -26,90 +21,44 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-    	this.gbField = gbfield;
-    	this.gbFieldType = gbfieldtype;
-    	this.afield = afield;
-    	this.op = what;
-    	if(what != Op.COUNT){
-    		throw new IllegalArgumentException();
-	    }
-	    this.groupData = new HashMap<>();
+    	this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+		    gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype},
+		    new int[]{afield}, new Op[]{what});
     }
 
+	/**
+	 * Aggregate constructor for several aggregates and group-by fields
+	 * @param gbfields the 0-based indexes of the group-by fields in the tuple; empty if there is no grouping
+	 * @param gbfieldtypes the types of the group by fields
+	 * @param afields the 0-based index of the field of each aggregate
+	 * @param whats the operator of each aggregate -- only supports COUNT
+	 * @throws IllegalArgumentException if any of whats != COUNT
+	 */
+	public StringAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats) {
+		for (Op what : whats) {
+			if(what != Op.COUNT){
+				throw new IllegalArgumentException("only COUNT is supported over a string field");
+			}
+		}
+		this.counts = new IntegerAggregator(gbfields, gbfieldtypes, afields, whats);
+	}
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-    	Field key;
-    	if(gbField == NO_GROUPING){
-			key = null;
-	    }else{
-		    key = tup.getField(gbField);
-	    }
-	    groupData.compute(key, (k,v)->{
-			if(v == null){
-				return 1;
-			}
-			return v + 1;
-	    });
+		counts.mergeTupleIntoGroup(tup);
     }
 
     /**
      * Create a OpIterator over group aggregate results.
      *
-     * @return a OpIterator whose tuples are the pair (groupVal,
-     *   aggregateVal) if using group, or a single (aggregateVal) if no
-     *   grouping. The aggregateVal is determined by the type of
-     *   aggregate specified in the constructor.
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *   the counts, or just the counts if there is no grouping.
      */
     public OpIterator iterator() {
-    	return new OpIterator() {
-		    private Iterator<Field> keyIterator;
-		    private boolean opened;
-		    @Override
-		    public void open() throws DbException, TransactionAbortedException {
-				opened = true;
-				keyIterator = groupData.keySet().iterator();
-		    }
-
-		    @Override
-		    public boolean hasNext() throws DbException, TransactionAbortedException {
-		    	if(!opened) throw new DbException("not opened");
-			    return keyIterator.hasNext();
-		    }
-
-		    @Override
-		    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-		    	if(hasNext()){
-				    final Field key = keyIterator.next();
-				    final Tuple tuple = new Tuple(getTupleDesc());
-				    tuple.setField(0, key);
-				    tuple.setField(1, new IntField(groupData.get(key)));
-				    return tuple;
-			    }
-			    throw new NoSuchElementException();
-		    }
-
-		    @Override
-		    public void rewind() throws DbException, TransactionAbortedException {
-				if(!opened) throw new DbException("not opened");
-				keyIterator = groupData.keySet().iterator();
-		    }
-
-		    @Override
-		    public TupleDesc getTupleDesc() {
-		    	Type[] types = new Type[2];
-		    	types[0] = gbFieldType;
-		    	types[1] = Type.INT_TYPE;
-			    return new TupleDesc(types);
-		    }
-
-		    @Override
-		    public void close() {
-				opened = false;
-		    }
-	    };
+    	return counts.iterator();
     }
 
 }
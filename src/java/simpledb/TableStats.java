@@ -197,8 +197,38 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
+        return numPages() * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on
+     * the key field of a table stored in a {@link BTreeFile}: one descent
+     * from the root to a leaf (see {@link BTreeFile#estimateHeight}), then
+     * the fraction of the leaf pages that hold matching tuples. Uses the
+     * same per-page cost as {@link #estimateScanCost}.
+     *
+     * @param selectivity the fraction of the table the predicate selects;
+     *        0 gives the cost of a single search
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the table
+     *         is not a BTreeFile
+     */
+    public double estimateIndexScanCost(double selectivity) {
         final DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableid);
-        return ((HeapFile) databaseFile).numPages() * ioCostPerPage;
+        if (!(databaseFile instanceof BTreeFile)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (((BTreeFile) databaseFile).estimateHeight() + selectivity * numPages()) * ioCostPerPage;
+    }
+
+    /**
+     * @return the number of pages a sequential scan of the table reads
+     */
+    public int numPages() {
+        final DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableid);
+        if (databaseFile instanceof BTreeFile) {
+            return ((BTreeFile) databaseFile).numPages();
+        }
+        return ((HeapFile) databaseFile).numPages();
     }
 
     /**
@@ -261,8 +291,7 @@ public class TableStats {
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return count;
     }
 
 }
@@ -0,0 +1,188 @@
+package simpledb;
+
+/**
+ * TupleBatch is the unit of work of batch execution ({@link BatchIterator}):
+ * up to capacity() rows stored column by column, with each
+ * {@link Type#INT_TYPE} column held as an int[] and each
+ * {@link Type#STRING_TYPE} column as a String[].
+ * <p>
+ * A batch also has a selection vector listing which of its rows are live.
+ * Operators such as {@link BatchFilter} drop rows by shrinking the selection
+ * instead of copying the survivors; consumers must only look at the rows
+ * returned by {@link #selectedRow}. A batch with no selection vector has
+ * every row selected.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private int size;
+    // live rows; null when every row in [0, size) is live
+    private int[] selection;
+    private int numSelected;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                strings[i] = new String[capacity];
+            }
+        }
+    }
+
+    /**
+     * Create a batch over existing column arrays, e.g. to project columns
+     * of another batch without copying them.
+     */
+    TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings,
+            int size, int[] selection, int numSelected) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.size = size;
+        this.selection = selection;
+        this.numSelected = numSelected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the most rows this batch can hold
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows in this batch, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by row
+     */
+    public int[] intColumn(int field) {
+        return ints[field];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE column, indexed by row
+     */
+    public String[] stringColumn(int field) {
+        return strings[field];
+    }
+
+    /**
+     * @return the number of live rows
+     */
+    public int numSelected() {
+        return selection == null ? size : numSelected;
+    }
+
+    /**
+     * @return the row index of the i-th live row
+     */
+    public int selectedRow(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * Replace the selection vector.
+     *
+     * @param selection the live rows, in increasing order
+     * @param n the number of entries of selection that are used
+     */
+    public void setSelection(int[] selection, int n) {
+        this.selection = selection;
+        this.numSelected = n;
+    }
+
+    /**
+     * Add an empty row, to be filled in through the column arrays.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        if (selection != null) {
+            selection[numSelected++] = size;
+        }
+        return size++;
+    }
+
+    /**
+     * Append a row holding the values of a tuple.
+     */
+    public void appendTuple(Tuple t) {
+        final int row = addRow();
+        for (int i = 0; i < td.numFields(); i++) {
+            setField(i, row, t.getField(i));
+        }
+    }
+
+    /**
+     * Copy the values of a field into a row.
+     */
+    public void setField(int field, int row, Field f) {
+        if (ints[field] != null) {
+            ints[field][row] = ((IntField) f).getValue();
+        } else {
+            strings[field][row] = ((StringField) f).getValue();
+        }
+    }
+
+    /**
+     * @return the value of a field of a row, as a Field
+     */
+    public Field getField(int field, int row) {
+        if (ints[field] != null) {
+            return new IntField(ints[field][row]);
+        }
+        return new StringField(strings[field][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return a row of this batch as a Tuple
+     */
+    public Tuple getTuple(int row) {
+        final Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+
+    /**
+     * Remove every row, making the batch ready to be filled again.
+     */
+    public void clear() {
+        size = 0;
+        selection = null;
+        numSelected = 0;
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * TuplePartitions hash-partitions a stream of tuples on one field, so that
+ * the partitions can be processed independently, e.g. by the workers of a
+ * {@link ParallelHashEquiJoin} or {@link ParallelAggregate}. Tuples with
+ * equal keys always land in the same partition.
+ * <p>
+ * Partitions are kept in memory until together they exceed a budget; the
+ * largest resident partition is then moved to a {@link TupleSpillFile}, and
+ * later tuples of a spilled partition go straight to its file.
+ */
+public class TuplePartitions {
+
+    private final TupleDesc td;
+    private final int field;
+    private final int maxInMemory;
+    private final ArrayList<ArrayList<Tuple>> resident;
+    private final TupleSpillFile[] spilled;
+    private int inMemory;
+    private int next;
+
+    /**
+     * @param field
+     *            the field to partition on, or -1 to deal tuples out
+     *            round-robin
+     * @param n
+     *            the number of partitions
+     * @param maxInMemory
+     *            the most tuples to hold in memory over all partitions
+     */
+    public TuplePartitions(TupleDesc td, int field, int n, int maxInMemory) {
+        this.td = td;
+        this.field = field;
+        this.maxInMemory = maxInMemory;
+        this.resident = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            resident.add(new ArrayList<>());
+        }
+        this.spilled = new TupleSpillFile[n];
+    }
+
+    /**
+     * @return the number of partitions
+     */
+    public int numPartitions() {
+        return spilled.length;
+    }
+
+    /**
+     * Returns the partition of a key. The hash is mixed with a different
+     * constant from the one {@link HashEquiJoin} partitions with, so that a
+     * join of one partition can still split its input evenly.
+     */
+    static int partitionOf(Field key, int n) {
+        int h = key.hashCode() * 0xCC9E2D51;
+        h = Integer.rotateLeft(h, 15) * 0x1B873593;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % n;
+    }
+
+    public void add(Tuple t) throws DbException {
+        final int p;
+        if (field < 0) {
+            p = next;
+            next = (next + 1) % spilled.length;
+        } else {
+            p = partitionOf(t.getField(field), spilled.length);
+        }
+        if (spilled[p] != null) {
+            spilled[p].add(t);
+            return;
+        }
+        resident.get(p).add(t);
+        inMemory++;
+        if (inMemory > maxInMemory) {
+            spillLargest();
+        }
+    }
+
+    /**
+     * Add every tuple of an iterator, which must already be open.
+     */
+    public void addAll(OpIterator it) throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            add(it.next());
+        }
+    }
+
+    private void spillLargest() throws DbException {
+        int victim = -1;
+        for (int i = 0; i < spilled.length; i++) {
+            if (spilled[i] == null && (victim < 0 || resident.get(i).size() > resident.get(victim).size())) {
+                victim = i;
+            }
+        }
+        final TupleSpillFile file = new TupleSpillFile(td);
+        for (Tuple t : resident.get(victim)) {
+            file.add(t);
+        }
+        inMemory -= resident.get(victim).size();
+        resident.set(victim, new ArrayList<>());
+        spilled[victim] = file;
+    }
+
+    /**
+     * @return the number of tuples in partition i
+     */
+    public int size(int i) {
+        return spilled[i] != null ? spilled[i].size() : resident.get(i).size();
+    }
+
+    /**
+     * @return true if any partition had to be moved to disk
+     */
+    public boolean isSpilled() {
+        for (TupleSpillFile file : spilled) {
+            if (file != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return an iterator over partition i; no more tuples can be added to a
+     *         spilled partition once it has been requested
+     */
+    public OpIterator partition(int i) throws DbException {
+        if (spilled[i] != null) {
+            return spilled[i].iterator();
+        }
+        return new TupleIterator(td, resident.get(i));
+    }
+
+    /**
+     * Release every partition, deleting any spill files.
+     */
+    public void delete() {
+        for (int i = 0; i < spilled.length; i++) {
+            if (spilled[i] != null) {
+                spilled[i].delete();
+                spilled[i] = null;
+            }
+            resident.set(i, new ArrayList<>());
+        }
+        inMemory = 0;
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleSpillFile is a temporary, append-only file of tuples for operators
+ * that run out of memory, such as a {@link HashEquiJoin} whose build side
+ * does not fit in its budget. Tuples are written sequentially in their
+ * serialized form and read back in the same order. Spill files belong to a
+ * single operator: they are not registered in the {@link Catalog} and their
+ * I/O does not go through the {@link BufferPool}.
+ */
+public class TupleSpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Create an empty spill file for tuples with the given TupleDesc.
+     */
+    public TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        this.size = 0;
+        try {
+            this.file = File.createTempFile("spill", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append a tuple to the end of the file.
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new DbException("spill file is no longer writable");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in this file
+     */
+    public int size() {
+        return size;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private void finish() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Stop writing and return an iterator over the tuples of this file. No
+     * tuples can be added once an iterator has been requested.
+     */
+    public OpIterator iterator() throws DbException {
+        finish();
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            private DataInputStream in;
+            private int read;
+
+            public void open() throws DbException {
+                try {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                } catch (IOException e) {
+                    throw new DbException("could not open spill file: " + e.getMessage());
+                }
+                read = 0;
+            }
+
+            public boolean hasNext() {
+                return in != null && read < size;
+            }
+
+            public Tuple next() throws DbException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++) {
+                        t.setField(i, td.getFieldType(i).parse(in));
+                    }
+                } catch (java.text.ParseException e) {
+                    throw new DbException("corrupt spill file: " + e.getMessage());
+                }
+                read++;
+                return t;
+            }
+
+            public void rewind() throws DbException {
+                close();
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Delete the file. The spill file cannot be used afterwards.
+     */
+    public void delete() {
+        try {
+            finish();
+        } catch (DbException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Newly admitted pages enter a small
+ * FIFO queue (A1in); when they fall out of it only their id is remembered in
+ * a ghost queue (A1out). A page that is referenced again while its id is in
+ * A1out is promoted to the main LRU queue (Am). Pages that are only ever seen
+ * once, as in a large sequential scan, cycle through A1in and never push the
+ * hot pages out of Am.
+ *
+ * @Threadsafe
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+
+    private final int kIn;
+    private final int kOut;
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashMap<PageId, Boolean> am;
+
+    /**
+     * Creates a 2Q policy with the recommended tuning: A1in holds a quarter
+     * of the frames and A1out remembers half as many ids as there are frames.
+     *
+     * @param capacity the number of frames in the buffer pool
+     */
+    public TwoQEvictionPolicy(int capacity) {
+        this(Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param kIn  target size of the A1in FIFO, in pages
+     * @param kOut number of page ids remembered in the A1out ghost queue
+     */
+    public TwoQEvictionPolicy(int kIn, int kOut) {
+        this.kIn = kIn;
+        this.kOut = kOut;
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        // a hit in A1in is deliberately ignored: correlated references
+        // right after admission do not make a page hot
+        am.get(pid);
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        if (am.containsKey(pid)) {
+            am.get(pid);
+        } else if (a1out.remove(pid)) {
+            am.put(pid, Boolean.TRUE);
+        } else if (!a1in.contains(pid)) {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    public synchronized PageId evict() {
+        if (!a1in.isEmpty() && (a1in.size() > kIn || am.isEmpty())) {
+            final PageId victim = removeFirst(a1in.iterator());
+            a1out.add(victim);
+            if (a1out.size() > kOut) {
+                removeFirst(a1out.iterator());
+            }
+            return victim;
+        }
+        if (!am.isEmpty()) {
+            return removeFirst(am.keySet().iterator());
+        }
+        return null;
+    }
+
+    private static PageId removeFirst(Iterator<PageId> it) {
+        final PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+}
@@ -176,6 +176,57 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for several aggregates computed by one Aggregate
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.COUNT });
+    assertEquals(Utility.getTupleDesc(4), op.getTupleDesc());
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 12, 2, 3,
+                    3, 12, 2, 3,
+                    5, 7, 7, 1 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for grouping by more than one field
+   */
+  @Test public void multipleGroupFields() throws Exception {
+    OpIterator input = TestUtil.createTupleList(3,
+        new Object[] { 1, "a", 2,
+                    1, "b", 4,
+                    1, "a", 6,
+                    3, "a", 2 });
+    Aggregate op = new Aggregate(input, new int[] { 2, 1 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.COUNT });
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(4,
+        new Object[] { 1, "a", 6, 2,
+                    1, "b", 4, 1,
+                    3, "a", 2, 1 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for an AVG computed from partial SUM_COUNT aggregates with
+   * SC_AVG
+   */
+  @Test public void partialAvg() throws Exception {
+    Aggregate partial = new Aggregate(scan1, 1, 0,
+        Aggregate.partialOp(Aggregator.Op.AVG));
+    assertEquals(Utility.getTupleDesc(3), partial.getTupleDesc());
+    Aggregate op = new Aggregate(partial, 1, 0,
+        Aggregate.finalOp(Aggregator.Op.AVG));
+    op.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, op);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,51 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+
+    /**
+     * A load larger than the sort budget is sorted through runs on disk and
+     * still builds a tree holding every tuple, in key order.
+     */
+    @Test public void loadLargerThanSortBudget() throws Exception {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        ArrayList<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 3000, 0, 1000);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (Tuple t : tuples) {
+            expected.add(((IntField) t.getField(0)).getValue());
+        }
+        Collections.sort(expected);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples.size(), bf.bulkLoad(tid, tuples.iterator(), 500));
+
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        assertEquals(expected, keys);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+    }
+}
@@ -172,6 +172,80 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().getPageNumber() == 2 || otherPage.getId().getPageNumber() == 2);
 	}
 
+	@Test
+	public void testConcurrentInserts() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		// keep every page of the tree resident, so that no page is evicted
+		// while another thread is changing it
+		Database.resetBufferPool(1000);
+		final BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		final int threads = 4;
+		final int perThread = 3000;
+		final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+
+		ArrayList<Thread> workers = new ArrayList<Thread>();
+		for(int i = 0; i < threads; i++) {
+			final Random rand = new Random(i);
+			workers.add(new Thread() {
+				public void run() {
+					try {
+						for(int j = 0; j < perThread; j++) {
+							Tuple t = BTreeUtility.getBTreeTuple(rand.nextInt(BTreeUtility.MAX_RAND_VALUE), 2);
+							Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+						}
+					} catch(Throwable e) {
+						synchronized(errors) {
+							errors.add(e);
+						}
+					}
+				}
+			});
+		}
+		// a reader scanning the leaves while they split must always see keys in order
+		workers.add(new Thread() {
+			public void run() {
+				try {
+					for(int i = 0; i < 20; i++) {
+						DbFileIterator it = bf.iterator(tid);
+						it.open();
+						Field prev = null;
+						while(it.hasNext()) {
+							Field key = it.next().getField(0);
+							assertTrue(prev == null || key.compare(Op.GREATER_THAN_OR_EQ, prev));
+							prev = key;
+						}
+						it.close();
+					}
+				} catch(Throwable e) {
+					synchronized(errors) {
+						errors.add(e);
+					}
+				}
+			}
+		});
+
+		for(Thread w : workers) {
+			w.start();
+		}
+		for(Thread w : workers) {
+			w.join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+
+		int count = 0;
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while(it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		assertEquals(threads * perThread, count);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
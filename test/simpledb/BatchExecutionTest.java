@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Checks that batch plans produce the same rows as the equivalent row plans.
+ * Batches are kept small so that rows straddle batch and page boundaries.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static final int CAPACITY = 37;
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    private static ArrayList<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(3, 2500, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private BatchSeqScan batchScan() {
+        return new BatchSeqScan(tid, table.getId(), "t", CAPACITY);
+    }
+
+    @Test public void scan() throws Exception {
+        assertEquals(drain(new SeqScan(tid, table.getId(), "t")), drain(new RowAdapter(batchScan())));
+        assertEquals(tuples.size(), drain(new RowAdapter(batchScan())).size());
+        assertEquals(new SeqScan(tid, table.getId(), "t").getTupleDesc(), batchScan().getTupleDesc());
+
+        BatchSeqScan scan = batchScan();
+        scan.open();
+        int rows = 0;
+        TupleBatch b;
+        while ((b = scan.nextBatch()) != null) {
+            rows += b.numSelected();
+        }
+        assertNull(scan.nextBatch());
+        scan.rewind();
+        while ((b = scan.nextBatch()) != null) {
+            rows -= b.numSelected();
+        }
+        assertEquals(0, rows);
+        scan.close();
+    }
+
+    @Test public void filterAndProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(40));
+            assertEquals(drain(new Filter(p, new SeqScan(tid, table.getId(), "t"))),
+                    drain(new RowAdapter(new BatchFilter(p, batchScan()))));
+        }
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        assertEquals(drain(new Project(fields, types, new Filter(p, new SeqScan(tid, table.getId(), "t")))),
+                drain(new RowAdapter(new BatchProject(fields, types, new BatchFilter(p, batchScan())))));
+    }
+
+    @Test public void stringFilter() throws Exception {
+        Object[] data = new Object[2 * 100];
+        for (int i = 0; i < 100; i++) {
+            data[2 * i] = i;
+            data[2 * i + 1] = "s" + i;
+        }
+        Predicate p = new Predicate(1, Predicate.Op.LIKE, new StringField("7", Type.STRING_LEN));
+        assertEquals(drain(new Filter(p, TestUtil.createTupleList(2, data))),
+                drain(new RowAdapter(new BatchFilter(p, new BatchAdapter(TestUtil.createTupleList(2, data), CAPACITY)))));
+    }
+
+    @Test public void join() throws Exception {
+        ArrayList<ArrayList<Integer>> other = new ArrayList<ArrayList<Integer>>();
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 800, 100, null, other);
+        JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        ArrayList<String> expected = drain(new HashEquiJoin(pred,
+                new SeqScan(tid, table.getId(), "t"), new SeqScan(tid, right.getId(), "r")));
+        BatchHashEquiJoin join = new BatchHashEquiJoin(pred, batchScan(),
+                new BatchSeqScan(tid, right.getId(), "r", CAPACITY), CAPACITY);
+        RowAdapter rows = new RowAdapter(join);
+        assertEquals(expected, drain(rows));
+        assertEquals(join.getTupleDesc(), rows.getTupleDesc());
+    }
+
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX}) {
+            assertEquals(drain(new Aggregate(new SeqScan(tid, table.getId(), "t"), 2, 0, op)),
+                    drain(new RowAdapter(new BatchAggregate(batchScan(), 2, 0, op, CAPACITY))));
+        }
+
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples) {
+            sum += t.get(1);
+        }
+        ArrayList<String> total = drain(new RowAdapter(
+                new BatchAggregate(batchScan(), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM)));
+        assertEquals(1, total.size());
+        assertEquals(Long.toString(sum), total.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /**
+     * The ring recycles its frames round-robin.
+     */
+    @Test public void ringRecyclesFrames() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferRing ring = new BufferRing(2);
+        Page p0 = hf.readPage(new HeapPageId(hf.getId(), 0));
+        Page p1 = hf.readPage(new HeapPageId(hf.getId(), 1));
+        Page p2 = hf.readPage(new HeapPageId(hf.getId(), 2));
+        ring.put(p0);
+        ring.put(p1);
+        assertSame(p0, ring.get(p0.getId()));
+        ring.put(p2);
+        assertNull(ring.get(p0.getId()));
+        assertSame(p1, ring.get(p1.getId()));
+        assertSame(p2, ring.get(p2.getId()));
+    }
+
+    /**
+     * A scan over a table much larger than the pool goes through a ring and
+     * leaves pages cached by other queries resident.
+     */
+    @Test public void largeScanKeepsHotPages() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+        TransactionId tid = new TransactionId();
+        HeapPageId hot = new HeapPageId(small.getId(), 0);
+
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(1, bp.getMissCount());
+
+        SeqScan scan = new SeqScan(tid, large.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 40, count);
+        assertTrue(bp.getRingMissCount() >= 40);
+        assertEquals(1, bp.getMissCount());
+
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+        assertEquals(1, bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
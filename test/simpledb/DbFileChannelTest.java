@@ -0,0 +1,72 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    private File file;
+    private DbFileChannel channel;
+
+    @Before public void createChannel() throws Exception {
+        file = File.createTempFile("channel", ".dat");
+        file.deleteOnExit();
+        channel = new DbFileChannel(file);
+    }
+
+    @After public void closeChannel() throws Exception {
+        channel.close();
+    }
+
+    /**
+     * Positional writes land at the requested offset and extend the file.
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        channel.write(new byte[] {1, 2, 3, 4}, 8);
+        assertEquals(12, channel.size());
+        assertEquals(12, file.length());
+
+        byte[] buf = new byte[4];
+        assertEquals(4, channel.read(buf, 8));
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, buf);
+
+        assertEquals(12L, channel.append(new byte[] {5}));
+    }
+
+    /**
+     * Reads at the end of the file report -1, short reads the bytes read.
+     */
+    @Test public void readPastEnd() throws Exception {
+        channel.write(new byte[] {7, 7}, 0);
+        byte[] buf = new byte[4];
+        assertEquals(2, channel.read(buf, 0));
+        assertEquals(-1, channel.read(buf, 2));
+    }
+
+    /**
+     * A closed channel is reopened on the next access.
+     */
+    @Test public void reopenAfterClose() throws Exception {
+        channel.write(new byte[] {9}, 0);
+        channel.close();
+        byte[] buf = new byte[1];
+        assertEquals(1, channel.read(buf, 0));
+        assertEquals(9, buf[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
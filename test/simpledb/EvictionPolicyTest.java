@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgno) {
+        return new HeapPageId(1, pgno);
+    }
+
+    /**
+     * CLOCK gives a referenced page a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy clock = new ClockEvictionPolicy(3);
+        for (int i = 0; i < 3; i++)
+            clock.recordInsert(pid(i));
+        // first sweep clears every reference bit, so page 0 goes first
+        assertEquals(pid(0), clock.evict());
+        clock.recordInsert(pid(3));
+        clock.recordAccess(pid(1));
+        assertEquals(pid(2), clock.evict());
+    }
+
+    /**
+     * LRU-K prefers pages seen fewer than K times over hot pages.
+     */
+    @Test public void lruKEvictsColdPages() {
+        EvictionPolicy lruk = new LruKEvictionPolicy(3);
+        lruk.recordInsert(pid(0));
+        lruk.recordAccess(pid(0));
+        lruk.recordInsert(pid(1));
+        lruk.recordInsert(pid(2));
+        assertEquals(pid(1), lruk.evict());
+        assertEquals(pid(2), lruk.evict());
+        assertEquals(pid(0), lruk.evict());
+        assertNull(lruk.evict());
+    }
+
+    /**
+     * A scan streaming through 2Q never pushes out a page that was promoted
+     * to the main queue.
+     */
+    @Test public void twoQIsScanResistant() {
+        EvictionPolicy twoq = new TwoQEvictionPolicy(1, 4);
+        twoq.recordInsert(pid(0));
+        assertEquals(pid(0), twoq.evict());
+        twoq.recordInsert(pid(0)); // re-reference from A1out: promoted to Am
+        for (int i = 100; i < 200; i++) {
+            twoq.recordInsert(pid(i));
+            twoq.recordInsert(pid(i + 1));
+            assertFalse(pid(0).equals(twoq.evict()));
+            twoq.remove(pid(i + 1));
+        }
+    }
+
+    /**
+     * remove() makes a page invisible to evict().
+     */
+    @Test public void removeForgetsPage() {
+        EvictionPolicy[] policies = new EvictionPolicy[] {
+                new ClockEvictionPolicy(2), new LruKEvictionPolicy(2), new TwoQEvictionPolicy(2)
+        };
+        for (EvictionPolicy p : policies) {
+            p.recordInsert(pid(0));
+            p.recordInsert(pid(1));
+            p.remove(pid(0));
+            assertEquals(pid(1), p.evict());
+            assertNull(p.evict());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FilterPushdownTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private HashMap<String, TableStats> stats;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(table, "heap");
+        stats = new HashMap<String, TableStats>();
+        stats.put("heap", new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The first filter on a heap table is evaluated inside its SeqScan and
+     * the others above it, with the same result as filtering every tuple.
+     */
+    @Test public void firstFilterIsPushedIntoTheScan() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "50");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN_OR_EQ, "20");
+        lp.addProjectField("*", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+
+        OpIterator it = ((Operator) plan).getChildren()[0];
+        assertTrue(it instanceof Filter);
+        it = ((Filter) it).getChildren()[0];
+        assertTrue(it instanceof SeqScan);
+        assertNotNull(((SeqScan) it).getPredicate());
+
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50 && t.get(1) >= 20) {
+                expected++;
+            }
+        }
+        assertEquals(expected, count(plan));
+    }
+
+    /**
+     * Without filters the scan returns every tuple.
+     */
+    @Test public void noFilterScansEverything() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        OpIterator it = ((Operator) plan).getChildren()[0];
+        assertTrue(it instanceof SeqScan);
+        assertNull(((SeqScan) it).getPredicate());
+        assertEquals(tuples.size(), count(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FilterPushdownTest.class);
+    }
+}
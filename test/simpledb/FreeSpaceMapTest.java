@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File file;
+
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("fsm", ".dat");
+        file.deleteOnExit();
+    }
+
+    @After public void deleteSidecar() {
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).delete();
+    }
+
+    /**
+     * Pages the map has never seen are assumed to have room.
+     */
+    @Test public void unknownPagesMayHaveRoom() {
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        assertEquals(-1, fsm.findPageWithSpace(0));
+        assertEquals(0, fsm.findPageWithSpace(3));
+        fsm.update(0, false);
+        fsm.update(1, false);
+        assertEquals(2, fsm.findPageWithSpace(3));
+        fsm.update(2, false);
+        assertEquals(-1, fsm.findPageWithSpace(3));
+        fsm.update(1, true);
+        assertEquals(1, fsm.findPageWithSpace(3));
+    }
+
+    /**
+     * A saved map is reloaded by the next map over the same file.
+     */
+    @Test public void saveAndReload() throws Exception {
+        setPages(4);
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        fsm.findPageWithSpace(4);
+        fsm.update(0, false);
+        fsm.update(1, false);
+        fsm.update(3, false);
+        fsm.save();
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(file);
+        assertFalse(reloaded.isStale());
+        assertEquals(2, reloaded.findPageWithSpace(4));
+        reloaded.update(2, false);
+        assertEquals(4, reloaded.findPageWithSpace(5));
+    }
+
+    /**
+     * Once a page fills up, inserts go to a page that was freed rather than
+     * growing the file.
+     */
+    @Test public void heapFileReusesFreedSlot() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        Tuple first = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            Page p = hf.insertTuple(tid, Utility.getHeapTuple(i, 2)).get(0);
+            if (first == null) {
+                first = ((HeapPage) p).iterator().next();
+            }
+        }
+        assertEquals(2, hf.numPages());
+
+        hf.deleteTuple(tid, first);
+        Page p = hf.insertTuple(tid, Utility.getHeapTuple(7, 2)).get(0);
+        assertEquals(0, p.getId().getPageNumber());
+        assertEquals(2, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A sidecar left in use by a crash is not trusted: the map is rebuilt
+     * from the pages, so a page emptied after the sidecar was saved is used
+     * again. How old the sidecar is does not matter.
+     */
+    @Test public void sidecarInUseIsRebuilt() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2; ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        hf.freeSpaceMap().save();
+        File sidecar = new File(file.getPath() + FreeSpaceMap.SUFFIX);
+        sidecar.setLastModified(file.lastModified() + 10000);
+        assertFalse(new FreeSpaceMap(file).isStale());
+
+        // empty a slot and crash before the map is saved again
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(new FreeSpaceMap(file).isStale());
+
+        HeapFile reopened = new HeapFile(file, hf.getTupleDesc());
+        assertEquals(0, reopened.freeSpaceMap().findPageWithSpace(reopened.numPages()));
+        assertFalse(new FreeSpaceMap(file).isStale());
+    }
+
+    /**
+     * A sidecar covering a different number of pages than the heap file
+     * has, e.g. one copied with another version of the file, is not trusted.
+     */
+    @Test public void sidecarOfOtherLengthIsStale() throws Exception {
+        setPages(2);
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        fsm.update(0, false);
+        fsm.save();
+        assertFalse(new FreeSpaceMap(file).isStale());
+        setPages(3);
+        assertTrue(new FreeSpaceMap(file).isStale());
+    }
+
+    private void setPages(int pages) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength((long) pages * BufferPool.getPageSize());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
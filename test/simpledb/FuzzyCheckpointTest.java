@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("fuzzycp", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        pid = new HeapPageId(hf.getId(), 0);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+        t.commit();
+    }
+
+    @After public void deleteSidecars() {
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).delete();
+        new File(file.getPath() + PageLsnTable.SUFFIX).delete();
+    }
+
+    private void insertCommitted(int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(value, 2));
+        t.commit();
+    }
+
+    private int count(int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int count = 0;
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value) {
+                count++;
+            }
+        }
+        it.close();
+        t.commit();
+        return count;
+    }
+
+    /**
+     * A checkpoint does not need the BufferPool, so it completes while
+     * another thread holds the pool.
+     */
+    @Test public void checkpointDoesNotWaitForThePool() throws Exception {
+        insertCommitted(2);
+        final Object held = new Object();
+        final boolean[] holding = new boolean[1];
+        Thread holder = new Thread() {
+            public void run() {
+                synchronized (Database.getBufferPool()) {
+                    synchronized (held) {
+                        holding[0] = true;
+                        held.notifyAll();
+                        try {
+                            held.wait(10000);
+                        } catch (InterruptedException e) {
+                            // release the pool
+                        }
+                    }
+                }
+            }
+        };
+        synchronized (held) {
+            holder.start();
+            while (!holding[0]) {
+                held.wait();
+            }
+        }
+        Database.getLogFile().logCheckpoint();
+        assertTrue(holder.isAlive());
+        synchronized (held) {
+            held.notifyAll();
+        }
+        holder.join();
+    }
+
+    /**
+     * The pages dirty at a checkpoint are written in the background, which
+     * empties the dirty page table.
+     */
+    @Test public void cleanerWritesDirtyPages() throws Exception {
+        insertCommitted(2);
+        assertTrue(Database.getLogFile().dirtyPages.containsKey(pid));
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getBufferPool().getCleaner().awaitIdle(10000));
+        assertFalse(Database.getLogFile().dirtyPages.containsKey(pid));
+        int onDisk = 0;
+        for (Iterator<Tuple> it = ((HeapPage) hf.readPage(pid)).iterator(); it.hasNext(); it.next()) {
+            onDisk++;
+        }
+        assertEquals(2, onDisk);
+    }
+
+    /**
+     * Writing a page does not force it: it leaves the dirty page table, and
+     * its LSN reaches the sidecar, only once its file is synced.
+     */
+    @Test public void writtenPageLeavesDirtyTableOnSync() throws Exception {
+        final long synced = new PageLsnTable(file).get(0);
+        insertCommitted(2);
+        assertTrue(Database.getBufferPool().flushPage(pid));
+        assertTrue(Database.getLogFile().dirtyPages.containsKey(pid));
+        assertEquals(synced, new PageLsnTable(file).get(0));
+
+        hf.sync();
+        assertFalse(Database.getLogFile().dirtyPages.containsKey(pid));
+        assertTrue(new PageLsnTable(file).get(0) > synced);
+    }
+
+    /**
+     * A change logged before the checkpoint but not on disk is redone by
+     * recovery, which starts at the recLSN of the page.
+     */
+    @Test public void recoveryRedoesFromRecLSN() throws Exception {
+        insertCommitted(2);
+        synchronized (Database.getBufferPool()) {
+            Database.getLogFile().logCheckpoint();
+            // lose the dirty page before the cleaner can write it
+            Database.getBufferPool().discardPage(pid);
+        }
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertTrue(Database.getLogFile().redone > 0);
+        assertEquals(1, count(1));
+        assertEquals(1, count(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GatherTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private TransactionId tid;
+
+    private static ArrayList<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static ArrayList<String> run(OpIterator it) throws Exception {
+        it.open();
+        ArrayList<String> out = drain(it);
+        it.close();
+        return out;
+    }
+
+    @Before public void createTable() throws Exception {
+        // about 74 pages of three-int tuples
+        table = SystemTestUtil.createRandomHeapFile(3, 25000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(table, "gathered");
+        tid = new TransactionId();
+    }
+
+    @After public void resetParallelism() {
+        LogicalPlan.setParallelism(Exchange.DEFAULT_PARALLELISM);
+    }
+
+    private Gather rangeScans() {
+        int pages = table.numPages();
+        return new Gather(new OpIterator[]{
+                new SeqScan(tid, table.getId(), "t", 0, pages / 3),
+                new SeqScan(tid, table.getId(), "t", pages / 3, 2 * pages / 3),
+                new SeqScan(tid, table.getId(), "t", 2 * pages / 3, -1)});
+    }
+
+    /**
+     * Scans of disjoint page ranges together return the whole table.
+     */
+    @Test public void gatherRanges() throws Exception {
+        ArrayList<String> expected = run(new SeqScan(tid, table.getId(), "t"));
+        assertEquals(25000, expected.size());
+        assertEquals(expected, run(rangeScans()));
+    }
+
+    /**
+     * A rewind in the middle of a run discards it and starts over.
+     */
+    @Test public void rewindAndClose() throws Exception {
+        ArrayList<String> expected = run(new SeqScan(tid, table.getId(), "t"));
+        Gather gather = rangeScans();
+        gather.open();
+        for (int i = 0; i < 1000; i++) {
+            gather.next();
+        }
+        gather.rewind();
+        assertEquals(expected, drain(gather));
+        gather.rewind();
+        gather.next();
+        gather.close();
+        assertEquals(expected, run(gather));
+    }
+
+    /**
+     * An error in a fragment is reported to the consumer.
+     */
+    @Test public void fragmentFailure() throws Exception {
+        OpIterator broken = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)),
+                new SeqScan(tid, table.getId(), "t")) {
+            private static final long serialVersionUID = 1L;
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("broken fragment");
+            }
+        };
+        Gather gather = new Gather(new OpIterator[]{new SeqScan(tid, table.getId(), "t"), broken});
+        gather.open();
+        try {
+            drain(gather);
+            fail("expected the fragment's DbException");
+        } catch (DbException e) {
+            assertEquals("broken fragment", e.getMessage());
+        } catch (NoSuchElementException e) {
+            fail("fragment failure was swallowed");
+        }
+        gather.close();
+    }
+
+    private OpIterator plan(String aggOp, boolean group) throws Exception {
+        TableStats.setTableStats("gathered", new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "100");
+        if (group) {
+            lp.addProjectField("t.c0", null);
+        }
+        lp.addProjectField("t.c2", aggOp);
+        lp.addAggregate(aggOp, "t.c2", group ? "t.c0" : null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("gathered", TableStats.getTableStats("gathered"));
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    private static boolean containsGather(OpIterator it) {
+        if (it instanceof Gather) {
+            return true;
+        }
+        if (it instanceof Operator) {
+            for (OpIterator child : ((Operator) it).getChildren()) {
+                if (child != null && containsGather(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A large table gets a parallel plan, with partial aggregates where they
+     * can be combined, and the answer matches the serial plan.
+     */
+    @Test public void parallelPlans() throws Exception {
+        for (String op : new String[]{"count", "sum", "min", "max", "avg"}) {
+            for (boolean group : new boolean[]{false, true}) {
+                LogicalPlan.setParallelism(1);
+                OpIterator serial = plan(op, group);
+                assertTrue(!containsGather(serial));
+                LogicalPlan.setParallelism(4);
+                OpIterator parallel = plan(op, group);
+                assertTrue(containsGather(parallel));
+                assertEquals(run(serial), run(parallel));
+            }
+        }
+    }
+
+    /**
+     * Several aggregates grouped by two fields are pushed below the Gather
+     * together and give the same answer as the serial plan.
+     */
+    @Test public void parallelMultiAggregate() throws Exception {
+        ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>();
+        for (int fragments : new int[]{1, 4}) {
+            LogicalPlan.setParallelism(fragments);
+            TableStats.setTableStats("gathered", new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(table.getId(), "t");
+            lp.addProjectField("t.c2", "avg");
+            lp.addProjectField("t.c1", null);
+            lp.addProjectField("t.c2", "count");
+            lp.addProjectField("t.c0", null);
+            lp.addAggregate("count", "t.c2", null);
+            lp.addAggregate("avg", "t.c2", null);
+            lp.addGroupBy("t.c0");
+            lp.addGroupBy("t.c1");
+            HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+            stats.put("gathered", TableStats.getTableStats("gathered"));
+            OpIterator it = lp.physicalPlan(tid, stats, false);
+            assertEquals(fragments > 1, containsGather(it));
+            assertEquals(4, it.getTupleDesc().numFields());
+            results.add(run(it));
+        }
+        assertEquals(results.get(0), results.get(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 50;
+
+    /**
+     * Commit transactions from several threads at once and return the log.
+     */
+    private LogFile commitConcurrently(long maxWaitMicros, int maxBatch) throws Exception {
+        File f = File.createTempFile("grouplog", ".log");
+        f.deleteOnExit();
+        final LogFile log = new LogFile(f);
+        log.setGroupCommitPolicy(maxWaitMicros, maxBatch);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        ArrayList<Thread> committers = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            committers.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : committers) {
+            t.start();
+        }
+        for (Thread t : committers) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        return log;
+    }
+
+    /**
+     * A lone committer forces the log itself.
+     */
+    @Test public void singleCommitForces() throws Exception {
+        File f = File.createTempFile("grouplog", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertEquals(1, log.getCommitCount());
+        assertEquals(1, log.getCommitForceCount());
+    }
+
+    /**
+     * Concurrent committers share forces, so there are fewer forces than
+     * commits; waiting for a batch to fill shares them further.
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        LogFile log = commitConcurrently(2000, THREADS);
+        assertEquals(THREADS * COMMITS_PER_THREAD, log.getCommitCount());
+        assertTrue(log.getCommitForceCount() < log.getCommitCount());
+        assertEquals(THREADS * COMMITS_PER_THREAD * 2, log.getTotalRecords());
+    }
+
+    /**
+     * With a batch of one, every flusher forces right away.
+     */
+    @Test public void batchOfOneDoesNotWait() throws Exception {
+        LogFile log = commitConcurrently(1000000, 1);
+        assertEquals(THREADS * COMMITS_PER_THREAD, log.getCommitCount());
+        assertTrue(log.getCommitForceCount() <= log.getCommitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBatch() throws Exception {
+        File f = File.createTempFile("grouplog", ".log");
+        f.deleteOnExit();
+        new LogFile(f).setGroupCommitPolicy(0, 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private TupleIterator left;
+    private TupleIterator right;
+    private ArrayList<String> expected;
+
+    private static TupleIterator randomTuples(int width, int rows, int maxKey, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i % width == 0) ? r.nextInt(maxKey) : r.nextInt();
+        }
+        return TestUtil.createTupleList(width, data);
+    }
+
+    private static ArrayList<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    @Before public void createInputs() throws Exception {
+        Random r = new Random(42);
+        left = randomTuples(2, 3000, 500, r);
+        right = randomTuples(3, 2000, 500, r);
+        Join nl = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+        nl.open();
+        expected = drain(nl);
+        nl.close();
+        left.open();
+        right.open();
+    }
+
+    /**
+     * With a budget larger than the build side, the join stays in memory.
+     */
+    @Test public void inMemory() throws Exception {
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+        join.open();
+        assertEquals(expected, drain(join));
+        assertFalse(join.isSpilled());
+        join.rewind();
+        assertEquals(expected, drain(join));
+        join.close();
+    }
+
+    /**
+     * A build side larger than the budget is partitioned to disk and still
+     * produces the same result, including after a rewind.
+     */
+    @Test public void spillsPartitions() throws Exception {
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right, 100);
+        join.open();
+        assertEquals(expected, drain(join));
+        assertTrue(join.isSpilled());
+        join.rewind();
+        assertEquals(expected, drain(join));
+        join.close();
+    }
+
+    /**
+     * A single key that is larger than the budget falls back to reading the
+     * build side in chunks.
+     */
+    @Test public void skewedKey() throws Exception {
+        int[] l = new int[2 * 300];
+        int[] rt = new int[2 * 40];
+        for (int i = 0; i < 300; i++) {
+            l[2 * i] = 7;
+            l[2 * i + 1] = i;
+        }
+        for (int i = 0; i < 40; i++) {
+            rt[2 * i] = i % 2 == 0 ? 7 : 1000 + i;
+            rt[2 * i + 1] = i;
+        }
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Join nl = new Join(pred, TestUtil.createTupleList(2, l), TestUtil.createTupleList(2, rt));
+        nl.open();
+        ArrayList<String> skewed = drain(nl);
+        assertEquals(300 * 20, skewed.size());
+
+        HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createTupleList(2, l),
+                TestUtil.createTupleList(2, rt), 50);
+        join.open();
+        assertEquals(skewed, drain(join));
+        join.close();
+    }
+
+    /**
+     * String keys go through the generic table, in memory and spilled.
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] l = new Object[2 * 200];
+        Object[] rt = new Object[2 * 100];
+        for (int i = 0; i < 200; i++) {
+            l[2 * i] = "k" + (i % 50);
+            l[2 * i + 1] = i;
+        }
+        for (int i = 0; i < 100; i++) {
+            rt[2 * i] = "k" + i;
+            rt[2 * i + 1] = i;
+        }
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Join nl = new Join(pred, TestUtil.createTupleList(2, l), TestUtil.createTupleList(2, rt));
+        nl.open();
+        ArrayList<String> strings = drain(nl);
+        assertEquals(200, strings.size());
+
+        for (int budget : new int[] {HashEquiJoin.MAP_SIZE, 20}) {
+            HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createTupleList(2, l),
+                    TestUtil.createTupleList(2, rt), budget);
+            join.open();
+            assertEquals(strings, drain(join));
+            join.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
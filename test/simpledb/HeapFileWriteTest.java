@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,79 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserters that need a new page at the same time each get their own,
+     * so no insert is lost to another one writing the same page number.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final int threads = 4, perThread = 600;
+        final Exception[] failure = new Exception[1];
+        Thread[] inserters = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int base = i * perThread;
+            inserters[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < perThread; j++) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(base + j, 2));
+                            t.commit();
+                        }
+                    } catch (Exception e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            inserters[i].start();
+        }
+        for (Thread t : inserters) {
+            t.join();
+        }
+        assertNull(failure[0]);
+
+        boolean[] seen = new boolean[threads * perThread];
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            seen[((IntField) it.next().getField(0)).getValue()] = true;
+            count++;
+        }
+        it.close();
+        assertEquals(threads * perThread, count);
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+    }
+
+    /**
+     * A bulk insert spanning several batches syncs the file once it is done,
+     * so every loaded page has its LSN on disk and needs no redo.
+     */
+    @Test public void bulkInsertSyncsLoadedPages() throws Exception {
+        final int pages = HeapFile.LOAD_BATCH_PAGES + 1;
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * (pages - 1) + 10; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        final int first = empty.numPages();
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(tuples.size(), empty.bulkInsert(t.getId(), tuples.iterator()));
+        t.commit();
+        assertEquals(first + pages, empty.numPages());
+
+        PageLsnTable lsns = new PageLsnTable(empty.getFile());
+        for (int pgno = first; pgno < first + pages; pgno++) {
+            assertFalse(Database.getLogFile().dirtyPages.containsKey(new HeapPageId(empty.getId(), pgno)));
+            assertTrue(lsns.get(pgno) > 0);
+        }
+        new File(empty.getFile().getPath() + PageLsnTable.SUFFIX).delete();
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,44 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField(): single columns are readable without
+     * decoding the whole tuple.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+            assertEquals(null, page.tuples[i]);
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate): only matching slots are
+     * decoded.
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10000));
+        Iterator<Tuple> it = page.iterator(p);
+
+        int matches = 0;
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() < 10000);
+            matches++;
+        }
+        assertEquals(4, matches);
+        assertEquals(null, page.tuples[0]);
+    }
+
+    /**
+     * Undecoded slots serialize back to their original bytes.
+     */
+    @Test public void lazyPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
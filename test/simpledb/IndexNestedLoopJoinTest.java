@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private BTreeFile index;
+    private TransactionId tid;
+
+    private static TupleIterator randomTuples(int width, int rows, int maxKey, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i % width == 0) ? r.nextInt(maxKey) : r.nextInt();
+        }
+        return TestUtil.createTupleList(width, data);
+    }
+
+    private static ArrayList<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    @Before public void createIndex() throws Exception {
+        // several leaf pages, with duplicate keys
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 3000, 300, null,
+                new ArrayList<ArrayList<Integer>>(), 0);
+        // reopen with field names, for the optimizer
+        index = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(index, "indexed");
+        tid = new TransactionId();
+    }
+
+    /**
+     * Probing the index gives the same answer as rescanning the table, for
+     * equality and range joins, with and without filters on the table.
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        TupleIterator outer = randomTuples(2, 200, 350, new Random(3));
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ}) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            OpIterator inner = new SeqScan(tid, index.getId(), "b");
+            ArrayList<String> expected = drain(new Join(pred, outer, inner));
+            assertEquals(op.toString(), expected, drain(new IndexNestedLoopJoin(pred, outer, inner)));
+
+            Predicate filter = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0));
+            expected = drain(new Join(pred, outer, new Filter(filter, inner)));
+            assertEquals(op.toString(), expected,
+                    drain(new IndexNestedLoopJoin(pred, outer, new Filter(filter, inner))));
+        }
+    }
+
+    /**
+     * The optimizer probes the index when the inner table is a B+ tree on
+     * the join field, and only then.
+     */
+    @Test public void instantiateJoin() throws Exception {
+        OpIterator outer = new SeqScan(tid, index.getId(), "a");
+        LogicalJoinNode onKey = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+        assertTrue(JoinOptimizer.instantiateJoin(onKey, outer,
+                new SeqScan(tid, index.getId(), "b")) instanceof IndexNestedLoopJoin);
+
+        LogicalJoinNode offKey = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.EQUALS);
+        assertTrue(!(JoinOptimizer.instantiateJoin(offKey, outer,
+                new SeqScan(tid, index.getId(), "b")) instanceof IndexNestedLoopJoin));
+    }
+
+    /**
+     * Plan a join of a new heap table with the given number of rows and the
+     * indexed table, and check that it gives the same answer as nested loops.
+     *
+     * @return the join operator of the plan
+     */
+    private OpIterator planJoin(int smallRows) throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, smallRows, 300, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(small, "small");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("small", new TableStats(small.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("indexed", new TableStats(index.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(index.getId(), "i");
+        lp.addJoin("s.c0", "i.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator join = ((Operator) plan).getChildren()[0];
+        assertEquals(drain(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, index.getId(), "i"))), drain(join));
+        return join;
+    }
+
+    /**
+     * A very small table joined with a large indexed one is planned as probes
+     * of the index.
+     */
+    @Test public void plannedAsInner() throws Exception {
+        assertTrue(planJoin(2) instanceof IndexNestedLoopJoin);
+    }
+
+    /**
+     * The planner instantiates the method the cost estimates chose, not the
+     * first one the inputs allow: with more outer tuples, one probe per tuple
+     * costs more than merging with the index scan.
+     */
+    @Test public void plannedByCost() throws Exception {
+        assertTrue(planJoin(20) instanceof SortMergeJoin);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexScanPlanTest extends SimpleDbTestBase {
+
+    private BTreeFile index;
+    private HashMap<String, TableStats> stats;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createIndex() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 5000, 1000, null, tuples, 0);
+        // reopen with field names, for the parser
+        index = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(index, "indexed");
+        stats = new HashMap<String, TableStats>();
+        stats.put("indexed", new TableStats(index.getId(), TableStats.IOCOSTPERPAGE));
+    }
+
+    private OpIterator plan(String field, Predicate.Op op, String constant) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(index.getId(), "t");
+        lp.addFilter(field, op, constant);
+        lp.addProjectField("*", null);
+        return lp.physicalPlan(new TransactionId(), stats, false);
+    }
+
+    private static OpIterator access(OpIterator plan) {
+        OpIterator it = ((Operator) plan).getChildren()[0];
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        return it;
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A selective filter on the key is answered by searching the index,
+     * and returns the same tuples a scan would.
+     */
+    @Test public void selectiveKeyFilterUsesIndex() throws Exception {
+        int key = tuples.get(0).get(0);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key) {
+                expected++;
+            }
+        }
+        OpIterator p = plan("t.c0", Predicate.Op.EQUALS, Integer.toString(key));
+        assertTrue(access(p) instanceof BTreeScan);
+        assertEquals(expected, count(p));
+
+        p = plan("t.c0", Predicate.Op.LESS_THAN, "10");
+        assertTrue(access(p) instanceof BTreeScan);
+    }
+
+    /**
+     * Filters that select most of the table, or are not on the key, scan
+     * the table.
+     */
+    @Test public void unselectiveFilterScans() throws Exception {
+        assertTrue(access(plan("t.c0", Predicate.Op.GREATER_THAN, "-1")) instanceof SeqScan);
+        assertTrue(access(plan("t.c1", Predicate.Op.EQUALS, "5")) instanceof SeqScan);
+        assertTrue(access(plan("t.c0", Predicate.Op.NOT_EQUALS, "5")) instanceof SeqScan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanPlanTest.class);
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntAggregateTableTest extends SimpleDbTestBase {
+
+    /**
+     * Each key gets one group, across growth of the table, and every
+     * accumulator of a group is maintained at once.
+     */
+    @Test public void groupsByKey() {
+        IntAggregateTable table = new IntAggregateTable(4);
+        for (int i = 0; i < 10000; i++) {
+            int g = table.findOrAdd(i % 1000 - 500);
+            table.add(g, i);
+        }
+        assertEquals(1000, table.size());
+        for (int g = 0; g < table.size(); g++) {
+            int key = table.key(g);
+            int first = key + 500;
+            assertEquals(g, table.findOrAdd(key));
+            assertEquals(10, table.count(g));
+            assertEquals(10L * first + 1000L * 45, table.sum(g));
+            assertEquals(first, table.min(g));
+            assertEquals(first + 9000, table.max(g));
+        }
+    }
+
+    /**
+     * Sums are kept in a long, so they do not wrap around.
+     */
+    @Test public void longSums() {
+        IntAggregateTable table = new IntAggregateTable();
+        int g = table.addGroup();
+        for (int i = 0; i < 4; i++) {
+            table.add(g, Integer.MAX_VALUE);
+        }
+        table.addCount(g);
+        assertEquals(4L * Integer.MAX_VALUE, table.sum(g));
+        assertEquals(5, table.count(g));
+        assertEquals(1, table.size());
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.findOrAdd(7));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntAggregateTableTest.class);
+    }
+}
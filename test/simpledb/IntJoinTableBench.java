@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Timing harness comparing the two build-side tables of
+ * {@link HashEquiJoin}: the primitive {@link IntJoinTable} used for
+ * INT_TYPE keys, and the boxed HashMap from key Field to a list of tuples
+ * used for the other key types. Each round builds a table over the same
+ * build tuples and probes it with the same probe keys, counting matches.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ * java -cp ... simpledb.IntJoinTableBench [buildTuples] [probes] [distinctKeys] [rounds]
+ * </pre>
+ */
+public class IntJoinTableBench {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        final int buildTuples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int probes = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        final int distinctKeys = args.length > 2 ? Integer.parseInt(args[2]) : 250000;
+        final int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        final Random rand = new Random(0);
+        final TupleDesc td = Utility.getTupleDesc(2);
+        final Tuple[] build = new Tuple[buildTuples];
+        final int[] buildKeys = new int[buildTuples];
+        for (int i = 0; i < buildTuples; i++) {
+            buildKeys[i] = rand.nextInt(distinctKeys);
+            build[i] = new Tuple(td);
+            build[i].setField(0, new IntField(buildKeys[i]));
+            build[i].setField(1, new IntField(i));
+        }
+        final int[] probeKeys = new int[probes];
+        for (int i = 0; i < probes; i++) {
+            probeKeys[i] = rand.nextInt(distinctKeys * 2);
+        }
+
+        System.out.printf("build %d tuples (%d distinct keys), probe %d keys, %d rounds%n",
+                buildTuples, distinctKeys, probes, rounds);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runPrimitive(build, buildKeys, probeKeys);
+            runBoxed(build, probeKeys);
+        }
+
+        long primitiveNanos = 0, boxedNanos = 0;
+        long primitiveMatches = 0, boxedMatches = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            primitiveMatches = runPrimitive(build, buildKeys, probeKeys);
+            primitiveNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            boxedMatches = runBoxed(build, probeKeys);
+            boxedNanos += System.nanoTime() - start;
+        }
+        if (primitiveMatches != boxedMatches) {
+            throw new IllegalStateException("tables disagree: " + primitiveMatches + " vs " + boxedMatches);
+        }
+
+        final double primitiveMs = primitiveNanos / 1e6 / rounds;
+        final double boxedMs = boxedNanos / 1e6 / rounds;
+        System.out.printf("IntJoinTable:  %10.2f ms/round%n", primitiveMs);
+        System.out.printf("boxed HashMap: %10.2f ms/round%n", boxedMs);
+        System.out.printf("speedup:       %10.2fx (%d matches per round)%n", boxedMs / primitiveMs, primitiveMatches);
+    }
+
+    private static long runPrimitive(Tuple[] build, int[] buildKeys, int[] probeKeys) {
+        final IntJoinTable table = new IntJoinTable();
+        for (int i = 0; i < build.length; i++) {
+            table.add(buildKeys[i], build[i]);
+        }
+        long matches = 0;
+        for (int key : probeKeys) {
+            for (int i = table.first(key); i != -1; i = table.next(i)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private static long runBoxed(Tuple[] build, int[] probeKeys) {
+        final HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+        for (Tuple t : build) {
+            final Field key = t.getField(0);
+            ArrayList<Tuple> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                map.put(key, list);
+            }
+            list.add(t);
+        }
+        long matches = 0;
+        for (int key : probeKeys) {
+            // a probe tuple's key is a Field, as in HashEquiJoin
+            final ArrayList<Tuple> list = map.get(new IntField(key));
+            if (list != null) {
+                matches += list.size();
+            }
+        }
+        return matches;
+    }
+}
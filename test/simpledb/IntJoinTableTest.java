@@ -0,0 +1,71 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntJoinTableTest extends SimpleDbTestBase {
+
+    private static int chainLength(IntJoinTable table, int key) {
+        int n = 0;
+        for (int i = table.first(key); i != -1; i = table.next(i)) {
+            assertEquals(key, table.key(i));
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Tuples with the same key are chained together, across growth of the
+     * table.
+     */
+    @Test public void chainsByKey() {
+        IntJoinTable table = new IntJoinTable(4);
+        for (int i = 0; i < 10000; i++) {
+            table.add(i % 1000 - 500, Utility.getHeapTuple(i));
+        }
+        assertEquals(10000, table.size());
+        for (int k = -500; k < 500; k++) {
+            assertEquals(10, chainLength(table, k));
+        }
+        assertEquals(0, chainLength(table, 500));
+        assertEquals(-1, table.first(Integer.MIN_VALUE));
+    }
+
+    /**
+     * A probe sees exactly the tuples added under its key.
+     */
+    @Test public void probeReturnsAddedTuples() {
+        IntJoinTable table = new IntJoinTable();
+        Tuple a = Utility.getHeapTuple(1);
+        Tuple b = Utility.getHeapTuple(2);
+        Tuple c = Utility.getHeapTuple(3);
+        table.add(7, a);
+        table.add(7, b);
+        table.add(0, c);
+
+        HashSet<Tuple> found = new HashSet<Tuple>();
+        for (int i = table.first(7); i != -1; i = table.next(i)) {
+            found.add(table.tuple(i));
+        }
+        assertEquals(2, found.size());
+        assertSame(c, table.tuple(table.first(0)));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.first(7));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntJoinTableTest.class);
+    }
+}
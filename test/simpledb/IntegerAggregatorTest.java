@@ -178,6 +178,39 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * AVG is computed from a long sum, and a SUM that does not fit in an
+   * INT_TYPE is an error rather than a wrapped-around value
+   */
+  @Test public void wideSums() throws Exception {
+    OpIterator big = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2,
+                    2, 5 });
+    IntegerAggregator avgAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator sumAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    big.open();
+    while (big.hasNext()) {
+      Tuple t = big.next();
+      avgAgg.mergeTupleIntoGroup(t);
+      sumAgg.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = avgAgg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE - 1, 2, 5 }), it);
+
+    it = sumAgg.iterator();
+    it.open();
+    try {
+      while (it.hasNext())
+        it.next();
+      throw new Exception("IntegerAggregator returned an overflowed SUM");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
   /**
    * JUnit suite target
    */
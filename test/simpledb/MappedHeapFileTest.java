@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    @Before public void createMappedFile() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 5 + 17, 1000, null, tuples);
+        hf = new HeapFile(f, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A mapped file returns the same tuples as a regular one.
+     */
+    @Test public void scanMatches() throws Exception {
+        assertTrue(hf.isMemoryMapped());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A page read from a mapped file decodes its tuples straight out of the
+     * mapping, without copying the page, while a regular file reads a copy.
+     */
+    @Test public void mappedReadDoesNotCopy() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertTrue(page.isMapped());
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        assertEquals(page.numSlots, n);
+        assertTrue(page.isMapped());
+
+        HeapFile regular = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertFalse(((HeapPage) regular.readPage(pid)).isMapped());
+    }
+
+    /**
+     * Pages appended after the file was first mapped are readable.
+     */
+    @Test public void remapsWhenFileGrows() throws Exception {
+        int pages = hf.numPages();
+        HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(0, first.getNumEmptySlots());
+
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), pages), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] {42, 43}));
+        hf.writePage(page);
+        assertEquals(pages + 1, hf.numPages());
+
+        HeapPage read = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pages));
+        assertEquals(page.numSlots - 1, read.getNumEmptySlots());
+        Tuple t = read.iterator().next();
+        assertEquals(new IntField(42), t.getField(0));
+        assertEquals(new IntField(43), t.getField(1));
+    }
+
+    /**
+     * A page read from the mapping keeps the bytes it was read with, even
+     * if the page is written again before its slots are decoded: the write
+     * detaches it from the mapping first.
+     */
+    @Test public void readPageIsNotChangedByLaterWrites() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage resident = (HeapPage) hf.readPage(pid);
+        byte[] before = resident.getPageData();
+        assertTrue(resident.isMapped());
+
+        HeapPage other = (HeapPage) hf.readPage(pid);
+        other.deleteTuple(other.iterator().next());
+        hf.writePage(other);
+
+        // the write copied the page out of the mapping first
+        assertFalse(resident.isMapped());
+        assertEquals(0, resident.getNumEmptySlots());
+        assertTrue(Arrays.equals(before, resident.getPageData()));
+        int n = 0;
+        for (Iterator<Tuple> it = resident.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        assertEquals(resident.numSlots, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private int[] data;
+    private int[] sortedKeys;
+
+    @Before public void createData() {
+        Random r = new Random(7);
+        data = new int[2 * 3000];
+        sortedKeys = new int[3000];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = r.nextInt(1000);
+            data[2 * i + 1] = i;
+            sortedKeys[i] = data[2 * i];
+        }
+        Arrays.sort(sortedKeys);
+    }
+
+    private static ArrayList<Integer> keys(OpIterator it) throws Exception {
+        ArrayList<Integer> out = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            out.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return out;
+    }
+
+    private void checkSorted(ArrayList<Integer> keys, boolean asc) {
+        assertEquals(sortedKeys.length, keys.size());
+        for (int i = 0; i < sortedKeys.length; i++) {
+            int expected = asc ? sortedKeys[i] : sortedKeys[sortedKeys.length - 1 - i];
+            assertEquals(expected, (int) keys.get(i));
+        }
+    }
+
+    /**
+     * Input that fits in memory is sorted without writing runs.
+     */
+    @Test public void inMemory() throws Exception {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+        op.open();
+        checkSorted(keys(op), true);
+        assertEquals(0, op.getNumRuns());
+        op.close();
+    }
+
+    /**
+     * Input larger than the budget is sorted through runs on disk, and
+     * rewinding replays the merge.
+     */
+    @Test public void externalSort() throws Exception {
+        OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(2, data), 500, -1);
+        op.open();
+        assertEquals(6, op.getNumRuns());
+        checkSorted(keys(op), false);
+        op.rewind();
+        checkSorted(keys(op), false);
+        op.close();
+    }
+
+    /**
+     * More runs than the merge fan-in are merged in several passes.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), 20, -1);
+        op.open();
+        assertTrue(op.getNumRuns() <= OrderBy.MAX_FAN_IN);
+        checkSorted(keys(op), true);
+        op.close();
+    }
+
+    /**
+     * Tuples with equal keys come out in input order, whether they were
+     * sorted in memory or merged from runs.
+     */
+    @Test public void stable() throws Exception {
+        for (int budget : new int[] { OrderBy.MAX_TUPLES, 500, 20 }) {
+            OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), budget, -1);
+            op.open();
+            Tuple prev = null;
+            while (op.hasNext()) {
+                Tuple t = op.next();
+                if (prev != null && prev.getField(0).equals(t.getField(0))) {
+                    assertTrue(((IntField) prev.getField(1)).getValue() < ((IntField) t.getField(1)).getValue());
+                }
+                prev = t;
+            }
+            op.close();
+        }
+    }
+
+    /**
+     * With a limit only the first tuples of the ordering are returned.
+     */
+    @Test public void topN() throws Exception {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), 10);
+        op.open();
+        ArrayList<Integer> keys = keys(op);
+        assertEquals(10, keys.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(sortedKeys[i], (int) keys.get(i));
+        }
+        assertEquals(0, op.getNumRuns());
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+    private static final int DIRTY_PAGES = 15;
+
+    /**
+     * Delete one tuple from each of the first pages of a new table, leaving
+     * those pages dirty in the pool.
+     */
+    private void dirtyPages(BufferPool bp, TransactionId tid, int pages) throws Exception {
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (Type.INT_TYPE.getLen() * 2 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * pages, null, null);
+        HashSet<PageId> seen = new HashSet<PageId>();
+        List<Tuple> victims = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (seen.add(t.getRecordId().getPageId())) {
+                victims.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : victims) {
+            bp.deleteTuple(tid, t);
+        }
+    }
+
+    /**
+     * The cleaner writes dirty pages until the target share of frames is
+     * clean, without anyone flushing or evicting.
+     */
+    @Test public void keepsTargetCleanFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        PageCleaner cleaner = bp.getCleaner();
+        cleaner.setTargetCleanPercent(50);
+        cleaner.setRateLimit(4, 0);
+        dirtyPages(bp, new TransactionId(), DIRTY_PAGES);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getDirtyPages().size() > POOL_PAGES / 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(bp.getDirtyPages().size() <= POOL_PAGES / 2);
+        assertTrue(cleaner.getPagesWritten() >= DIRTY_PAGES - POOL_PAGES / 2);
+    }
+
+    /**
+     * With a target of zero the cleaner only writes requested pages.
+     */
+    @Test public void zeroTargetOnlyWritesRequests() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        PageCleaner cleaner = bp.getCleaner();
+        cleaner.setTargetCleanPercent(0);
+        dirtyPages(bp, new TransactionId(), DIRTY_PAGES);
+        Thread.sleep(5 * PageCleaner.IDLE_CHECK_MILLIS);
+        assertEquals(0, cleaner.getPagesWritten());
+
+        List<PageId> requested = new ArrayList<PageId>();
+        for (Page page : bp.getDirtyPages()) {
+            requested.add(page.getId());
+        }
+        bp.writeInBackground(requested);
+        assertTrue(cleaner.awaitIdle(10000));
+        assertEquals(DIRTY_PAGES, cleaner.getPagesWritten());
+        assertEquals(0, bp.getDirtyPages().size());
+    }
+
+    /**
+     * Pages are ordered by table, then page number.
+     */
+    @Test public void diskOrder() {
+        List<PageId> pids = new ArrayList<PageId>(Arrays.<PageId>asList(
+                new HeapPageId(2, 0), new HeapPageId(1, 7), new HeapPageId(1, 3)));
+        Collections.sort(pids, PageCleaner.DISK_ORDER);
+        assertEquals(Arrays.<PageId>asList(new HeapPageId(1, 3), new HeapPageId(1, 7), new HeapPageId(2, 0)), pids);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBatch() {
+        Database.getBufferPool().getCleaner().setRateLimit(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTargetOverHundred() {
+        Database.getBufferPool().getCleaner().setTargetCleanPercent(101);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = new Aggregator.Op[]{Aggregator.Op.COUNT,
+            Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX};
+
+    private static ArrayList<String> run(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    private static TupleIterator input() {
+        Random r = new Random(3);
+        int[] data = new int[2 * 5000];
+        for (int i = 0; i < 5000; i++) {
+            data[2 * i] = r.nextInt(300);
+            data[2 * i + 1] = r.nextInt(10000) - 5000;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /**
+     * Grouped aggregates are computed per hash partition of the group key.
+     */
+    @Test public void grouped() throws Exception {
+        for (Aggregator.Op op : OPS) {
+            ArrayList<String> expected = run(new Aggregate(input(), 1, 0, op));
+            assertEquals(300, expected.size());
+            assertEquals(expected, run(new ParallelAggregate(input(), 1, 0, op, 4)));
+        }
+    }
+
+    /**
+     * Ungrouped aggregates combine the partial results of each partition.
+     */
+    @Test public void ungrouped() throws Exception {
+        for (Aggregator.Op op : OPS) {
+            ArrayList<String> expected = run(new Aggregate(input(), 1, Aggregator.NO_GROUPING, op));
+            assertEquals(1, expected.size());
+            assertEquals(expected, run(new ParallelAggregate(input(), 1, Aggregator.NO_GROUPING, op, 4)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
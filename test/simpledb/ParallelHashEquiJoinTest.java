@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelHashEquiJoinTest extends SimpleDbTestBase {
+
+    private static TupleIterator randomTuples(int width, int rows, int maxKey, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i % width == 0) ? r.nextInt(maxKey) : r.nextInt();
+        }
+        return TestUtil.createTupleList(width, data);
+    }
+
+    private static ArrayList<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static ArrayList<String> expected(JoinPredicate pred, OpIterator left, OpIterator right)
+            throws Exception {
+        Join nl = new Join(pred, left, right);
+        nl.open();
+        ArrayList<String> out = drain(nl);
+        nl.close();
+        return out;
+    }
+
+    /**
+     * Every partition pair is joined, and a rewind runs the joins again
+     * over the same partitions.
+     */
+    @Test public void inMemory() throws Exception {
+        Random r = new Random(7);
+        TupleIterator left = randomTuples(2, 3000, 500, r);
+        TupleIterator right = randomTuples(3, 2000, 500, r);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<String> expected = expected(pred, left, right);
+
+        ParallelHashEquiJoin join = new ParallelHashEquiJoin(pred, left, right, 4);
+        join.open();
+        assertEquals(expected, drain(join));
+        join.rewind();
+        assertEquals(expected, drain(join));
+        join.close();
+    }
+
+    /**
+     * Inputs larger than the budget are partitioned to disk.
+     */
+    @Test public void spilledPartitions() throws Exception {
+        Random r = new Random(8);
+        TupleIterator left = randomTuples(2, 3000, 100, r);
+        TupleIterator right = randomTuples(2, 1000, 100, r);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<String> expected = expected(pred, left, right);
+
+        ParallelHashEquiJoin join = new ParallelHashEquiJoin(pred, left, right, 3, 200);
+        join.open();
+        assertEquals(expected, drain(join));
+        join.close();
+    }
+
+    /**
+     * String keys are partitioned the same way on both sides.
+     */
+    @Test public void stringKeys() throws Exception {
+        Object[] l = new Object[2 * 200];
+        Object[] rt = new Object[2 * 100];
+        for (int i = 0; i < 200; i++) {
+            l[2 * i] = "k" + (i % 50);
+            l[2 * i + 1] = i;
+        }
+        for (int i = 0; i < 100; i++) {
+            rt[2 * i] = "k" + i;
+            rt[2 * i + 1] = i;
+        }
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<String> expected = expected(pred, TestUtil.createTupleList(2, l), TestUtil.createTupleList(2, rt));
+        assertEquals(200, expected.size());
+
+        ParallelHashEquiJoin join = new ParallelHashEquiJoin(pred, TestUtil.createTupleList(2, l),
+                TestUtil.createTupleList(2, rt), 5);
+        join.open();
+        assertEquals(expected, drain(join));
+        join.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHashEquiJoinTest.class);
+    }
+}
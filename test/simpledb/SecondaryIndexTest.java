@@ -0,0 +1,153 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private SecondaryIndex index;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void createIndex() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, tuples, "c");
+        File f = File.createTempFile("index", ".idx");
+        f.delete();
+        f.deleteOnExit();
+        tid = new TransactionId();
+        index = new SecondaryIndex("c1_idx", table.getId(), 1, f);
+        Database.getCatalog().addIndex(index);
+        assertEquals(tuples.size(), index.build(tid));
+    }
+
+    private ArrayList<ArrayList<Integer>> lookup(int key) throws Exception {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        DbFileIterator it = index.iterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        it.open();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    private int expected(int key) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == key) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * A lookup returns the heap tuples with the key, and only those.
+     */
+    @Test public void lookupFindsHeapTuples() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            int key = tuples.get(i * 100).get(1);
+            ArrayList<ArrayList<Integer>> found = lookup(key);
+            assertEquals(expected(key), found.size());
+            for (ArrayList<Integer> t : found) {
+                assertEquals(key, (int) t.get(1));
+            }
+        }
+        assertEquals(0, lookup(-5).size());
+    }
+
+    /**
+     * Inserting and deleting through the BufferPool maintains the index.
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(-5));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(1, lookup(-5).size());
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, lookup(-5).size());
+
+        int key = tuples.get(0).get(1);
+        DbFileIterator it = index.iterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(expected(key) - 1, lookup(key).size());
+    }
+
+    /**
+     * Aborting an insert removes its index entry again: the index pages are
+     * logged with the heap page and rolled back with it.
+     */
+    @Test public void abortRemovesIndexEntry() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(99999, 2));
+        assertEquals(1, entries(99999));
+        t.abort();
+        assertEquals(0, entries(99999));
+    }
+
+    /** @return the number of index entries with the given key */
+    private int entries(int key) throws Exception {
+        int n = 0;
+        DbFileIterator it = index.getFile().indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The planner searches the index for selective filters on its field.
+     */
+    @Test public void plannerUsesIndex() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        String name = Database.getCatalog().getTableName(table.getId());
+        stats.put(name, new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, Integer.toString(tuples.get(0).get(1)));
+        lp.addProjectField("*", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SecondaryIndexScan);
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "-1");
+        lp.addProjectField("*", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        // an unselective filter is pushed into the sequential scan instead
+        OpIterator scan = ((Operator) plan).getChildren()[0];
+        assertTrue(scan instanceof SeqScan);
+        assertTrue(((SeqScan) scan).getPredicate() != null);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
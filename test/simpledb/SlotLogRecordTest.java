@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlotLogRecordTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("slotlog", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        // give the table its first page, logged as a full image
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+        t.commit();
+    }
+
+    @After public void deleteSidecar() {
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).delete();
+        new File(file.getPath() + PageLsnTable.SUFFIX).delete();
+    }
+
+    private int count(TransactionId tid, int value) throws Exception {
+        int count = 0;
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value) {
+                count++;
+            }
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Inserting into an existing page logs the tuple, not the page.
+     */
+    @Test public void insertLogsOnlyTheTuple() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        long before = Database.getLogFile().logFile.length();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+        long logged = Database.getLogFile().logFile.length() - before;
+        assertTrue("logged " + logged + " bytes", logged < 64);
+        t.commit();
+    }
+
+    /**
+     * Aborting a delete puts the tuple back in its slot.
+     */
+    @Test public void abortRestoresDeletedTuple() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t.getId(), victim);
+        assertEquals(0, count(t.getId(), 1));
+        t.abort();
+
+        Transaction check = new Transaction();
+        check.start();
+        assertEquals(1, count(check.getId(), 1));
+        check.commit();
+    }
+
+    /**
+     * Recovery redoes the slot changes of committed transactions and undoes
+     * those of transactions that were running at the crash, even if their
+     * pages were already written.
+     */
+    @Test public void recoverRedoesAndUndoesSlotChanges() throws Exception {
+        Transaction committed = new Transaction();
+        committed.start();
+        Database.getBufferPool().insertTuple(committed.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+        committed.commit();
+
+        Transaction running = new Transaction();
+        running.start();
+        Database.getBufferPool().insertTuple(running.getId(), hf.getId(), Utility.getHeapTuple(3, 2));
+        Database.getBufferPool().flushAllPages();
+
+        // crash, then recover twice, as if the first recovery were interrupted
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+
+        Transaction check = new Transaction();
+        check.start();
+        assertEquals(1, count(check.getId(), 1));
+        assertEquals(1, count(check.getId(), 2));
+        assertEquals(0, count(check.getId(), 3));
+        check.commit();
+    }
+
+    /**
+     * A page carries the LSN of its last change; writing it forces the log
+     * that far, and recovery does not redo changes the page already has.
+     */
+    @Test public void pageLsnSkipsRedo() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        long lsn = Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY).getLSN();
+        assertTrue(lsn > 0);
+        assertTrue(lsn < Database.getLogFile().nextLSN());
+        Database.getBufferPool().flushAllPages();
+        assertEquals(lsn, hf.readPage(pid).getLSN());
+        t.commit();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(0, Database.getLogFile().redone);
+        assertTrue(Database.getLogFile().redoSkipped > 0);
+
+        Transaction check = new Transaction();
+        check.start();
+        assertEquals(1, count(check.getId(), 2));
+        check.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotLogRecordTest.class);
+    }
+}
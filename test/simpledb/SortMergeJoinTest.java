@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static TupleIterator randomTuples(int width, int rows, int maxKey, Random r) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i % width == 0) ? r.nextInt(maxKey) : r.nextInt();
+        }
+        return TestUtil.createTupleList(width, data);
+    }
+
+    private static ArrayList<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static ArrayList<String> expected(JoinPredicate pred, OpIterator left, OpIterator right)
+            throws Exception {
+        Join nl = new Join(pred, left, right);
+        nl.open();
+        ArrayList<String> out = drain(nl);
+        nl.close();
+        return out;
+    }
+
+    /**
+     * Equality and range joins of sorted inputs with duplicate keys match a
+     * nested loops join, before and after a rewind.
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        Random r = new Random(11);
+        TupleIterator left = randomTuples(2, 400, 60, r);
+        TupleIterator right = randomTuples(3, 300, 60, r);
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ}) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            ArrayList<String> expected = expected(pred, left, right);
+            SortMergeJoin join = new SortMergeJoin(pred, new OrderBy(0, true, left),
+                    new OrderBy(0, true, right));
+            join.open();
+            assertEquals(op.toString(), expected, drain(join));
+            join.rewind();
+            assertEquals(op.toString(), expected, drain(join));
+            join.close();
+        }
+    }
+
+    /**
+     * Unsorted input is reported rather than joined wrongly.
+     */
+    @Test public void unsortedInput() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin join = new SortMergeJoin(pred, TestUtil.createTupleList(1, new int[]{1, 2, 3}),
+                TestUtil.createTupleList(1, new int[]{3, 1, 2}));
+        try {
+            join.open();
+            drain(join);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        join.close();
+    }
+
+    /**
+     * The optimizer merges when an input already arrives in join order, and
+     * sorts the other input for it.
+     */
+    @Test public void instantiateJoin() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 200, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "f");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 200, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "f");
+        Database.getCatalog().addTable(a, "merge_a");
+        Database.getCatalog().addTable(b, "merge_b");
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "f0", "f0", Predicate.Op.GREATER_THAN);
+
+        OpIterator unsorted = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, a.getId(), "a"),
+                new SeqScan(tid, b.getId(), "b"));
+        assertTrue(unsorted instanceof Join);
+
+        OpIterator merged = JoinOptimizer.instantiateJoin(lj,
+                new OrderBy(0, true, new SeqScan(tid, a.getId(), "a")), new SeqScan(tid, b.getId(), "b"));
+        assertTrue(merged instanceof SortMergeJoin);
+        assertEquals(0, SortMergeJoin.sortedOn(merged));
+        OpIterator sortedRight = ((SortMergeJoin) merged).getChildren()[1];
+        assertTrue(sortedRight instanceof OrderBy);
+
+        unsorted.open();
+        merged.open();
+        assertEquals(drain(unsorted), drain(merged));
+        unsorted.close();
+        merged.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BulkLoadTest extends SimpleDbTestBase {
+
+    private static ArrayList<Tuple> toTuples(ArrayList<ArrayList<Integer>> rows) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (ArrayList<Integer> row : rows) {
+            tuples.add(BTreeUtility.getBTreeTuple(row));
+        }
+        return tuples;
+    }
+
+    @Test public void heapFileBulkInsert() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 700, null, tuples);
+        assertEquals(2, hf.numPages());
+
+        ArrayList<ArrayList<Integer>> loaded = new ArrayList<ArrayList<Integer>>();
+        BTreeUtility.generateRandomTuples(2, 504 * 3 + 10, 0, 1000, null, loaded);
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(loaded.size(), hf.bulkInsert(t.getId(), toTuples(loaded).iterator()));
+        t.commit();
+
+        // the loaded rows go on four new pages after the existing two
+        assertEquals(6, hf.numPages());
+        tuples.addAll(loaded);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    @Test public void btreeBulkLoad() throws Exception {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        BTreeUtility.generateRandomTuples(2, 10000, 0, 5000, null, rows);
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(rows.size(), bf.bulkLoad(t.getId(), toTuples(rows).iterator()));
+
+        // walk down the left edge of the tree and then along the leaves
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        BTreePageId pid = rootPtr.getRootId();
+        assertEquals(BTreePageId.INTERNAL, pid.pgcateg());
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage internal = (BTreeInternalPage) bf.readPage(pid);
+            pid = internal.iterator().next().getLeftChild();
+        }
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (pid != null) {
+            BTreeLeafPage leaf = (BTreeLeafPage) bf.readPage(pid);
+            Iterator<Tuple> it = leaf.iterator();
+            while (it.hasNext()) {
+                int key = ((IntField) it.next().getField(0)).getValue();
+                assertTrue(key >= last);
+                last = key;
+                count++;
+            }
+            pid = leaf.getRightSiblingId();
+        }
+        assertEquals(rows.size(), count);
+
+        // a second load would have to merge into the tree
+        try {
+            bf.bulkLoad(t.getId(), toTuples(rows).iterator());
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        t.commit();
+    }
+
+    @Test public void copyStatement() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 0, 10, null, null);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        String name = "bulk" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(hf, name);
+
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        File csv = File.createTempFile("bulk", ".csv");
+        csv.deleteOnExit();
+        writeCsv(csv, 1200, rows);
+
+        new Parser().processNextStatement("COPY " + name + " FROM '" + csv.getAbsolutePath() + "';");
+        SystemTestUtil.matchTuples(hf, rows);
+    }
+
+    private static void writeCsv(File csv, int n, ArrayList<ArrayList<Integer>> rows) throws IOException {
+        FileWriter w = new FileWriter(csv);
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i * 3);
+            rows.add(row);
+            w.write(i + "," + (i * 3) + "\n");
+        }
+        w.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}